@@ -0,0 +1,39 @@
+function [columns, sampleInterval, configHash] = readLedger(fileName)
+% Loads a .ledger file written by application.library_of_congress.Ledger
+% columns is a struct with one field per column, e.g. columns.viruses
+fid = fopen(fileName, 'r', 'ieee-le');
+magic = fread(fid, 4, '*char')';
+if ~strcmp(magic, 'LEDG')
+    fclose(fid);
+    error('%s is not a ledger', fileName);
+end
+fread(fid, 1, 'int32'); % version
+numColumns = fread(fid, 1, 'int32');
+dataOffset = fread(fid, 1, 'int32');
+rowCount = fread(fid, 1, 'int64');
+rowCapacity = fread(fid, 1, 'int64');
+sampleInterval = fread(fid, 1, 'double');
+configHash = fread(fid, 1, '*uint64');
+
+names = cell(1, numColumns);
+types = zeros(1, numColumns);
+for i=1:numColumns
+    types(i) = fread(fid, 1, 'int8');
+    nameLength = fread(fid, 1, 'int16');
+    names{i} = fread(fid, nameLength, '*char')';
+end
+
+columns = struct();
+position = dataOffset;
+for i=1:numColumns
+    fseek(fid, position, 'bof');
+    if types(i) == 1
+        columns.(names{i}) = fread(fid, rowCount, 'int32');
+        position = position + 4 * rowCapacity;
+    else
+        columns.(names{i}) = fread(fid, rowCount, 'double');
+        position = position + 8 * rowCapacity;
+    end
+end
+fclose(fid);
+end
@@ -12,7 +12,7 @@ public class BystanderCell extends Circle2D implements PulseEntity {
     private static Text2D _text = null;
     private static AtomicInteger _numHealthyCells = new AtomicInteger(0);
     private static AtomicInteger _numInfectedCells = new AtomicInteger(0);
-    private boolean _isInfected = false;
+    private volatile boolean _isInfected = false;
     private volatile boolean _added = false;
     private double _elapsedSec = 0.0;
     private final double _virusCreationRate = 2.0; // new virus every x seconds
@@ -35,7 +35,8 @@ public class BystanderCell extends Circle2D implements PulseEntity {
         return _isInfected;
     }
 
-    public void infect(Virus virus) {
+    public synchronized void infect(Virus virus) {
+        if (_isInfected) return; // Another virus got here first
         _isInfected = true;
         _virus = virus;
         virus.removeFromWorld();
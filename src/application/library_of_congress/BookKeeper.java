@@ -1,17 +1,22 @@
 package application.library_of_congress;
 
-import engine.Engine;
-import engine.FileHandle;
-
 import java.util.ArrayList;
 
 public class BookKeeper {
     ArrayList<RecordBook> records = new ArrayList<>();
-    ArrayList<StickyNotes> notes = new ArrayList<>();
     private String folderUrl = "";
+    private final long flushInterval;
+    // Notes are streamed out as they come in instead of being held until closeNotes()
+    private RecordBook notes;
+    private int numNotes = 0;
 
-    public BookKeeper(String folderUrl) {
+    public BookKeeper(String folderUrl, long flushIntervalMillis) {
         this.folderUrl = folderUrl;
+        this.flushInterval = flushIntervalMillis;
+    }
+
+    public BookKeeper(String folderUrl) {
+        this(folderUrl, RecordBook.DEFAULT_FLUSH_INTERVAL_MS);
     }
 
     public void addBook(RecordBook recordBook) {
@@ -25,17 +30,17 @@ public class BookKeeper {
     }
 
     public void closeNotes() {
-        if (notes.size() == 0) {
-            notes.add(new StickyNotes("No notes."));
-        }
-        RecordBook recordBook = new RecordBook("sticky-notes",folderUrl,"txt");
-        for(StickyNotes note : notes) {
-            recordBook.add(note.getMsg() +"\n");
+        if (numNotes == 0) {
+            addNote(new StickyNotes("No notes."));
         }
-        recordBook.close();
+        notes.close();
     }
 
     public void addNote(StickyNotes note) {
-        notes.add(note);
+        if (notes == null) {
+            notes = new RecordBook("sticky-notes",folderUrl,"txt",flushInterval);
+        }
+        notes.add(note.getMsg() + "\n");
+        ++numNotes;
     }
 }
@@ -0,0 +1,265 @@
+package application.library_of_congress;
+
+import engine.ConsoleVariable;
+import engine.Engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A ledger is a compact binary alternative to a set of one-column RecordBooks. Every
+ * column is stored as a contiguous little-endian array of ints or doubles inside a
+ * memory-mapped file so that LedgerReader can hand the columns back without parsing anything.
+ *
+ * Layout (all values little-endian):
+ *      magic "LEDG", int version, int numColumns, int dataOffset,
+ *      long rowCount, long rowCapacity, double sampleInterval, long configHash,
+ *      per column: byte type, short nameLength, name (UTF-8),
+ *      padding up to dataOffset (a multiple of 8),
+ *      column 0 (rowCapacity values), column 1 (rowCapacity values), ...
+ *
+ * Space is reserved for rowCapacity rows per column and doubled whenever it runs out. The
+ * row count in the header is updated after every row so the file stays readable even if the
+ * run dies part way through. close() shrinks the capacity down to the row count.
+ *
+ * This is not thread safe - rows should be written from one thread.
+ */
+public class Ledger {
+    public static final byte INT = 1;
+    public static final byte DOUBLE = 2;
+
+    static final byte[] MAGIC = {'L', 'E', 'D', 'G'};
+    static final int VERSION = 1;
+    static final int NUM_COLUMNS_OFFSET = 8;
+    static final int DATA_OFFSET_OFFSET = 12;
+    static final int ROW_COUNT_OFFSET = 16;
+    static final int ROW_CAPACITY_OFFSET = 24;
+    static final int SAMPLE_INTERVAL_OFFSET = 32;
+    static final int CONFIG_HASH_OFFSET = 40;
+    static final int COLUMNS_OFFSET = 48;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final String ledgerName;
+    private final String[] names;
+    private final byte[] types;
+    // Bytes taken up by all columns before this one, per row
+    private final int[] columnStarts;
+    private final int rowWidth;
+    private final int dataOffset;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private long rowCount = 0;
+    private long rowCapacity = INITIAL_CAPACITY;
+    private boolean closed = false;
+
+    public Ledger(String ledgerName, String folderPath, String[] columnNames, byte[] columnTypes,
+                  double sampleInterval, long configHash) {
+        if (columnNames.length != columnTypes.length) {
+            throw new IllegalArgumentException("Every column needs both a name and a type");
+        }
+        this.ledgerName = folderPath != null ? folderPath + ledgerName : ledgerName;
+        this.names = columnNames.clone();
+        this.types = columnTypes.clone();
+        this.columnStarts = new int[names.length];
+        int width = 0;
+        int headerSize = COLUMNS_OFFSET;
+        for (int i = 0; i < names.length; ++i) {
+            columnStarts[i] = width;
+            width += sizeOf(types[i]);
+            headerSize += 3 + names[i].getBytes(StandardCharsets.UTF_8).length;
+        }
+        this.rowWidth = width;
+        this.dataOffset = (headerSize + 7) & ~7;
+        try {
+            channel = Engine.getFileSystem().openChannel(this.ledgerName + ".ledger", StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            _map(rowCapacity);
+            _writeHeader(sampleInterval, configHash);
+        } catch (IOException e) {
+            System.err.println("Unable to open " + this.ledgerName + ".ledger");
+            channel = null;
+            closed = true;
+        }
+    }
+
+    /**
+     * @return index of the column with the given name or -1 if there is none
+     */
+    public int getColumn(String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public String getName() {
+        return ledgerName;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Sets the value of an int column for the row currently being written
+     */
+    public void setInt(int column, int value) {
+        if (closed) return;
+        _checkType(column, INT);
+        map.putInt(_position(column, rowCount), value);
+    }
+
+    /**
+     * Sets the value of a double column for the row currently being written
+     */
+    public void setDouble(int column, double value) {
+        if (closed) return;
+        _checkType(column, DOUBLE);
+        map.putDouble(_position(column, rowCount), value);
+    }
+
+    /**
+     * Finishes the current row - any column which was not set is left as 0
+     */
+    public void endRow() {
+        if (closed) return;
+        ++rowCount;
+        map.putLong(ROW_COUNT_OFFSET, rowCount);
+        if (rowCount == rowCapacity) _grow();
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            // Squeeze out the unused capacity, moving columns towards the front of the file
+            for (int i = 0; i < names.length; ++i) _moveColumn(i, rowCount, rowCount);
+            rowCapacity = rowCount;
+            map.putLong(ROW_CAPACITY_OFFSET, rowCapacity);
+            map.force();
+            try {
+                channel.truncate(dataOffset + rowWidth * rowCapacity);
+            } catch (IOException e) {
+                // Some platforms won't truncate a mapped file - the header is still correct so
+                // the only cost is the unused space at the end
+            }
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Unable to close " + ledgerName + ".ledger");
+        }
+        map = null;
+    }
+
+    /**
+     * Hashes the names and values of the given console variables so that ledgers written
+     * with the same config can be grouped together. The order of the list does not matter.
+     */
+    public static long hashConfig(List<ConsoleVariable> cvars) {
+        ArrayList<ConsoleVariable> sorted = new ArrayList<>(cvars);
+        sorted.sort(Comparator.comparing(ConsoleVariable::getcvarName));
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (ConsoleVariable cvar : sorted) {
+            String entry = cvar.getcvarName() + "=" + cvar.getcvarValue() + "\n";
+            for (int i = 0; i < entry.length(); ++i) {
+                hash ^= entry.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    static int sizeOf(byte type) {
+        switch (type) {
+            case INT:
+                return 4;
+            case DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown ledger column type: " + type);
+        }
+    }
+
+    private void _writeHeader(double sampleInterval, long configHash) {
+        map.put(0, MAGIC[0]).put(1, MAGIC[1]).put(2, MAGIC[2]).put(3, MAGIC[3]);
+        map.putInt(4, VERSION);
+        map.putInt(NUM_COLUMNS_OFFSET, names.length);
+        map.putInt(DATA_OFFSET_OFFSET, dataOffset);
+        map.putLong(ROW_COUNT_OFFSET, rowCount);
+        map.putLong(ROW_CAPACITY_OFFSET, rowCapacity);
+        map.putDouble(SAMPLE_INTERVAL_OFFSET, sampleInterval);
+        map.putLong(CONFIG_HASH_OFFSET, configHash);
+        int position = COLUMNS_OFFSET;
+        for (int i = 0; i < names.length; ++i) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            map.put(position, types[i]);
+            map.putShort(position + 1, (short)name.length);
+            position += 3;
+            for (byte b : name) map.put(position++, b);
+        }
+    }
+
+    private void _checkType(int column, byte type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Column " + names[column] + " does not hold that type");
+        }
+    }
+
+    private int _position(int column, long row) {
+        return (int)(dataOffset + columnStarts[column] * rowCapacity + row * sizeOf(types[column]));
+    }
+
+    private void _map(long capacity) throws IOException {
+        long size = dataOffset + rowWidth * capacity;
+        if (size > Integer.MAX_VALUE) throw new IOException("Ledger " + ledgerName + " is too large to map");
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void _grow() {
+        long newCapacity = rowCapacity * 2;
+        try {
+            _map(newCapacity);
+        } catch (IOException e) {
+            System.err.println("Unable to grow " + ledgerName + ".ledger - no more rows will be recorded");
+            // Every row so far fits the current capacity so the file is complete as it stands
+            closed = true;
+            try {
+                map.force();
+                channel.close();
+            } catch (IOException closeError) {
+                System.err.println("Unable to close " + ledgerName + ".ledger");
+            }
+            map = null;
+            return;
+        }
+        // Columns only move towards the end of the file so go from last to first
+        for (int i = names.length - 1; i >= 0; --i) _moveColumn(i, newCapacity, rowCount);
+        rowCapacity = newCapacity;
+        map.putLong(ROW_CAPACITY_OFFSET, rowCapacity);
+    }
+
+    /**
+     * Moves the first numRows values of a column from where it sits with the current capacity
+     * to where it belongs with the new capacity
+     */
+    private void _moveColumn(int column, long newCapacity, long numRows) {
+        int source = _position(column, 0);
+        int dest = (int)(dataOffset + columnStarts[column] * newCapacity);
+        if (source == dest || numRows == 0) return;
+        byte[] values = new byte[(int)(numRows * sizeOf(types[column]))];
+        ByteBuffer view = map.duplicate();
+        view.position(source);
+        view.get(values);
+        view.position(dest);
+        view.put(values);
+    }
+}
@@ -0,0 +1,146 @@
+package application.library_of_congress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file written by Ledger. The file is memory-mapped and the column accessors
+ * return views directly over the mapping, so nothing is copied or parsed beyond the header.
+ *
+ * This does not go through the engine's file system so that it can be used by analysis
+ * code which never starts the engine - relative paths are relative to the working directory.
+ */
+public class LedgerReader {
+    private final String fileName;
+    private final MappedByteBuffer map;
+    private final String[] names;
+    private final byte[] types;
+    private final int[] columnPositions;
+    private final long rowCount;
+    private final double sampleInterval;
+    private final long configHash;
+
+    public LedgerReader(String fileName) throws IOException {
+        this.fileName = fileName;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.limit() < Ledger.COLUMNS_OFFSET) throw new IOException(fileName + " is not a ledger");
+        for (int i = 0; i < Ledger.MAGIC.length; ++i) {
+            if (map.get(i) != Ledger.MAGIC[i]) throw new IOException(fileName + " is not a ledger");
+        }
+        int version = map.getInt(4);
+        if (version != Ledger.VERSION) throw new IOException(fileName + " has unsupported version " + version);
+        int numColumns = map.getInt(Ledger.NUM_COLUMNS_OFFSET);
+        int dataOffset = map.getInt(Ledger.DATA_OFFSET_OFFSET);
+        rowCount = map.getLong(Ledger.ROW_COUNT_OFFSET);
+        long rowCapacity = map.getLong(Ledger.ROW_CAPACITY_OFFSET);
+        sampleInterval = map.getDouble(Ledger.SAMPLE_INTERVAL_OFFSET);
+        configHash = map.getLong(Ledger.CONFIG_HASH_OFFSET);
+        names = new String[numColumns];
+        types = new byte[numColumns];
+        columnPositions = new int[numColumns];
+        int position = Ledger.COLUMNS_OFFSET;
+        long columnStart = dataOffset;
+        for (int i = 0; i < numColumns; ++i) {
+            types[i] = map.get(position);
+            int nameLength = map.getShort(position + 1);
+            position += 3;
+            byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; ++j) name[j] = map.get(position++);
+            names[i] = new String(name, StandardCharsets.UTF_8);
+            columnPositions[i] = (int)columnStart;
+            columnStart += Ledger.sizeOf(types[i]) * rowCapacity;
+        }
+        if (columnStart > map.limit()) throw new IOException(fileName + " is truncated");
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getNumColumns() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    /**
+     * @return Ledger.INT or Ledger.DOUBLE
+     */
+    public byte getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @return index of the column with the given name or -1 if there is none
+     */
+    public int findColumn(String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public double getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public long getConfigHash() {
+        return configHash;
+    }
+
+    /**
+     * @return read-only view of every value in an int column
+     */
+    public IntBuffer getIntColumn(int column) {
+        return _slice(column, Ledger.INT).asIntBuffer();
+    }
+
+    /**
+     * @return read-only view of every value in a double column
+     */
+    public DoubleBuffer getDoubleColumn(int column) {
+        return _slice(column, Ledger.DOUBLE).asDoubleBuffer();
+    }
+
+    public int getInt(int column, int row) {
+        _checkType(column, Ledger.INT);
+        return map.getInt(columnPositions[column] + row * 4);
+    }
+
+    public double getDouble(int column, int row) {
+        _checkType(column, Ledger.DOUBLE);
+        return map.getDouble(columnPositions[column] + row * 8);
+    }
+
+    private ByteBuffer _slice(int column, byte type) {
+        _checkType(column, type);
+        ByteBuffer view = map.duplicate();
+        view.position(columnPositions[column]);
+        view.limit(columnPositions[column] + (int)(rowCount * Ledger.sizeOf(type)));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void _checkType(int column, byte type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Column " + names[column] + " does not hold that type");
+        }
+    }
+}
@@ -2,26 +2,58 @@ package application.library_of_congress;
 
 import engine.ConsoleVariable;
 import engine.Engine;
-import engine.FileHandle;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Streams records to disk as they are added rather than holding them until close().
+ *
+ * Records are encoded into a fixed size direct front buffer. When it fills up (or the
+ * flush interval passes) it is swapped with the back buffer, which the shared RecordWriter
+ * thread then writes to the file's channel while add() keeps filling the front. Memory use
+ * stays at two buffers per book no matter how long the run is.
+ */
 public class RecordBook{
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    private static final int _BUFFER_SIZE = 64 * 1024;
 
     private final String bookName;
-    private FileHandle handle;
-    private ArrayList<Character> buffer = new ArrayList<>(100);
+    private final long flushInterval;
+    private FileChannel channel;
+    private ByteBuffer front = ByteBuffer.allocateDirect(_BUFFER_SIZE);
+    private ByteBuffer back = ByteBuffer.allocateDirect(_BUFFER_SIZE);
+    // True while the back buffer holds data the writer has not written yet
+    private boolean backPending = false;
+    private boolean closed = false;
+    private volatile long nextFlushTime;
+    // Always taken before the monitor so that the writer and close() never deadlock
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    public RecordBook(String bookName, String folderPath, String ext) {
+    public RecordBook(String bookName, String folderPath, String ext, long flushIntervalMillis) {
         if(folderPath != null) {
             this.bookName = Optional.ofNullable(folderPath + bookName).orElse("unknown-record-name.txt");
         } else {
             this.bookName = Optional.ofNullable(bookName).orElse("unknown-record-name.txt");
         }
-        this.handle = Engine.getFileSystem().open(this.bookName + "." + ext, true);
+        this.flushInterval = flushIntervalMillis < 1 ? DEFAULT_FLUSH_INTERVAL_MS : flushIntervalMillis;
+        try {
+            this.channel = Engine.getFileSystem().openWriteChannel(this.bookName + "." + ext);
+        } catch (IOException e) {
+            System.err.println("Unable to open " + this.bookName + "." + ext);
+            this.channel = null;
+        }
+        nextFlushTime = System.currentTimeMillis() + flushInterval;
+        RecordWriter.get().register(this);
+    }
+
+    public RecordBook(String bookName, String folderPath, String ext) {
+        this(bookName, folderPath, ext, DEFAULT_FLUSH_INTERVAL_MS);
     }
 
     public RecordBook(String bookName) {
@@ -29,7 +61,19 @@ public class RecordBook{
     }
 
     public void add(String record) {
-        for (int i = 0; i < record.length(); ++i) buffer.add(record.charAt(i));
+        synchronized (this) {
+            if (closed) return;
+            for (int i = 0; i < record.length(); ++i) {
+                char c = record.charAt(i);
+                if (c >= 0x80) {
+                    // Not plain ascii so let the charset deal with the rest of it
+                    _put(record.substring(i).getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (!front.hasRemaining()) _swapBuffers();
+                front.put((byte)c);
+            }
+        }
     }
 
     public void recordConfig(LinkedList<ConsoleVariable> list) {
@@ -44,8 +88,111 @@ public class RecordBook{
         return bookName;
     }
 
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Writes everything added so far to the file - blocks the calling thread until done
+     */
+    public void flush() {
+        writeLock.lock();
+        try {
+            while (true) {
+                writeBack(); // Anything still waiting from an earlier swap goes first
+                synchronized (this) {
+                    // add() may have swapped again in the meantime - never wait on the
+                    // writer while holding the write lock
+                    if (backPending) continue;
+                    nextFlushTime = System.currentTimeMillis() + flushInterval;
+                    if (closed || front.position() == 0) return;
+                    _swapBuffers();
+                }
+                writeBack();
+                return;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     public void close() {
-        Engine.getFileSystem().synchronousWrite(handle, buffer);
-        Engine.getFileSystem().close(handle);
+        RecordWriter.get().unregister(this);
+        writeLock.lock();
+        try {
+            flush();
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            System.err.println("Unable to close " + bookName);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    long getNextFlushTime() {
+        return nextFlushTime;
+    }
+
+    /**
+     * Writes the back buffer to the channel if it holds anything
+     */
+    void writeBack() {
+        writeLock.lock();
+        try {
+            ByteBuffer buffer;
+            synchronized (this) {
+                if (!backPending) return;
+                buffer = back;
+            }
+            buffer.flip();
+            try {
+                while (channel != null && buffer.hasRemaining()) channel.write(buffer);
+            } catch (IOException e) {
+                System.err.println("Unable to write to " + bookName);
+            }
+            buffer.clear();
+            synchronized (this) {
+                backPending = false;
+                notifyAll();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void _put(byte[] bytes) {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!front.hasRemaining()) _swapBuffers();
+            int length = Math.min(front.remaining(), bytes.length - offset);
+            front.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Must be called while holding the monitor. Waits for the writer to finish with the back
+     * buffer, then hands it the front buffer and asks it to write it out.
+     */
+    private void _swapBuffers() {
+        boolean interrupted = false;
+        while (backPending) {
+            RecordWriter.get().requestWrite(this);
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        ByteBuffer buffer = back;
+        back = front;
+        front = buffer;
+        backPending = true;
+        RecordWriter.get().requestWrite(this);
     }
 }
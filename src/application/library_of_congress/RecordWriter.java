@@ -0,0 +1,87 @@
+package application.library_of_congress;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single background thread shared by every open RecordBook. It writes a book out
+ * whenever the book's flush interval passes or the book asks for it because its
+ * front buffer filled up.
+ *
+ * The thread is a daemon so that it never keeps the JVM alive - books write out whatever
+ * is left on the thread that calls close().
+ */
+class RecordWriter implements Runnable {
+    private static RecordWriter _writer;
+
+    private final LinkedBlockingQueue<RecordBook> _requests = new LinkedBlockingQueue<>();
+    private final ArrayList<RecordBook> _books = new ArrayList<>();
+    private final ArrayList<RecordBook> _scratch = new ArrayList<>();
+
+    private RecordWriter() { }
+
+    static synchronized RecordWriter get() {
+        if (_writer == null) {
+            _writer = new RecordWriter();
+            Thread thread = new Thread(_writer, "RecordWriter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return _writer;
+    }
+
+    void register(RecordBook book) {
+        synchronized (_books) {
+            _books.add(book);
+        }
+    }
+
+    void unregister(RecordBook book) {
+        synchronized (_books) {
+            _books.remove(book);
+        }
+    }
+
+    /**
+     * Asks the writer to write the book's back buffer out as soon as it can
+     */
+    void requestWrite(RecordBook book) {
+        _requests.offer(book);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                RecordBook book = _requests.poll(_flushBooks(), TimeUnit.MILLISECONDS);
+                if (book != null) book.writeBack();
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Flushes every book whose interval has passed
+     * @return milliseconds until the next book needs to be flushed
+     */
+    private long _flushBooks() {
+        _scratch.clear();
+        synchronized (_books) {
+            _scratch.addAll(_books);
+        }
+        long now = System.currentTimeMillis();
+        long wait = RecordBook.DEFAULT_FLUSH_INTERVAL_MS;
+        for (RecordBook book : _scratch) {
+            long remaining = book.getNextFlushTime() - now;
+            if (remaining <= 0) {
+                book.flush();
+                remaining = book.getFlushInterval();
+            }
+            if (remaining < wait) wait = remaining;
+        }
+        return wait < 1 ? 1 : wait;
+    }
+}
@@ -0,0 +1,72 @@
+package application.liver_idea_model;
+
+import engine.ActorPool;
+import engine.Trail;
+import javafx.util.Pair;
+
+/**
+ * Viruses, cytokines and lymphocytes are created and destroyed constantly once an infection
+ * gets going. Everything that spawns them goes through here so that removed agents get
+ * reused instead of allocating new ones.
+ */
+class AgentPools {
+    private final ActorPool<Virus> _viruses;
+    private final ActorPool<Cytokine> _cytokines;
+    private final ActorPool<Lymphocyte> _lymphocytes;
+    private final ActorPool<Trail> _trails;
+
+    /**
+     * @param capacity max number of removed agents of each type to hold on to
+     */
+    AgentPools(int capacity) {
+        _viruses = new ActorPool<>(Virus::new, capacity);
+        _cytokines = new ActorPool<>(() -> new Cytokine(this), capacity);
+        _lymphocytes = new ActorPool<>(Lymphocyte::new, capacity);
+        _trails = new ActorPool<>(() -> {
+            Trail trail = new Trail(5, 1);
+            trail.setCollisionLayer(ModelGlobals.trailLayer);
+            trail.setPassiveCollider(true);
+            return trail;
+        }, (trail) -> {
+            trail.clear();
+            trail.setRemoveWhenEmpty(false);
+        }, capacity);
+    }
+
+    Virus newVirus(double x, double y) {
+        Virus virus = _viruses.acquire();
+        virus.launch(x, y);
+        return virus;
+    }
+
+    /**
+     * @return a main cytokine (see Cytokine.launch())
+     */
+    Cytokine newCytokine(double x, double y) {
+        Cytokine cytokine = _cytokines.acquire();
+        cytokine.launch(x, y);
+        return cytokine;
+    }
+
+    /**
+     * @return a cytokine which does nothing but point whoever finds it towards the given location
+     */
+    Cytokine newCytokineMarker(double x, double y, Pair<Double, Double> referencedLocation) {
+        Cytokine cytokine = _cytokines.acquire();
+        cytokine.launchMarker(x, y, referencedLocation);
+        return cytokine;
+    }
+
+    /**
+     * @return an empty trail which is not part of the world yet
+     */
+    Trail newTrail() {
+        return _trails.acquire();
+    }
+
+    Lymphocyte newLymphocyte(double x, double y) {
+        Lymphocyte lymphocyte = _lymphocytes.acquire();
+        lymphocyte.launch(x, y);
+        return lymphocyte;
+    }
+}
@@ -4,24 +4,33 @@ import application.quadrants_test.Quadrant;
 import application.quadrants_test.QuadrantBuilder;
 import engine.*;
 import javafx.scene.paint.Color;
+import javafx.util.Pair;
 
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // Kills anything it collides with
 public class Barrier extends Rectangle2D implements PulseEntity {
-    private int _numTCellsNeeded = 0;
+    // Filled in by collision callbacks and drained by pulse()
+    private final AtomicInteger _numTCellsNeeded = new AtomicInteger(0);
     private final double _secondsPerTCell;
     private double _elapsedSeconds = 0.0;
     private final double _lymphocytesPerSecond;
-    private LinkedList<Cytokine> _cytokines = new LinkedList<>();
+    // Where each absorbed cytokine was pointing - the cytokines themselves go back to the pool
+    private final ConcurrentLinkedQueue<Pair<Double, Double>> _cytokineReferences = new ConcurrentLinkedQueue<>();
     private Quadrant _quadrant = QuadrantBuilder.makeQuadrant(60, 70);
+    private final AgentPools _pools;
 
-    public Barrier(double x, double y, double width, double height) {
+    Barrier(AgentPools pools, double x, double y, double width, double height) {
         super(x, y, width, height, 1);
+        _pools = pools;
         setColor(new Color(0, 0, 0, 0));
         _lymphocytesPerSecond = Engine.getConsoleVariables().find(ModelGlobals.lymphocytePerSecond).getcvarAsInt();
         _secondsPerTCell = 1 / _lymphocytesPerSecond;
+        setCollisionLayer(ModelGlobals.barrierLayer);
+        // Trails are left for lymphocytes to follow
+        setCollisionMask(Actor.ALL_COLLISION_LAYERS & ~ModelGlobals.trailLayer);
     }
 
     @Override
@@ -29,11 +38,11 @@ public class Barrier extends Rectangle2D implements PulseEntity {
         for (Actor actor : collidedWith) {
             actor.removeFromWorld();
             if (actor instanceof Cytokine) {
-                ++_numTCellsNeeded;
-                _cytokines.add((Cytokine) actor);
+                _cytokineReferences.add(((Cytokine) actor).getReferencedLocation());
+                _numTCellsNeeded.incrementAndGet();
             }
             else if (actor instanceof Virus) {
-                Engine.getMessagePump().sendMessage(new Message(ModelGlobals.virusLeftLiver));
+                Engine.getMessagePump().sendMessage(ModelGlobals.virusLeftLiver);
             }
         }
     }
@@ -41,14 +50,14 @@ public class Barrier extends Rectangle2D implements PulseEntity {
     @Override
     public void pulse(double deltaSeconds) {
         _elapsedSeconds += deltaSeconds;
-        if (_elapsedSeconds >= _secondsPerTCell && _numTCellsNeeded > 0) {
-            --_numTCellsNeeded;
+        if (_elapsedSeconds >= _secondsPerTCell && _numTCellsNeeded.get() > 0) {
+            _numTCellsNeeded.decrementAndGet();
             _elapsedSeconds = 0.0;
-            Lymphocyte cell = new Lymphocyte(_quadrant.getRandomPosition().getX(), _quadrant.getRandomPosition().getY());
+            Lymphocyte cell = _pools.newLymphocyte(_quadrant.getRandomPosition().getX(), _quadrant.getRandomPosition().getY());
             cell.addToWorld();
             // Add a cytokine right on top of the TCell so that it immediately gets activated
-            Cytokine cytokine = _cytokines.poll();
-            cytokine.setLocationXYDepth(cell.getLocationX(), cell.getLocationY(), cell.getDepth());
+            Cytokine cytokine = _pools.newCytokineMarker(cell.getLocationX(), cell.getLocationY(),
+                    _cytokineReferences.poll());
             cytokine.addToWorld();
         }
     }
@@ -56,12 +65,12 @@ public class Barrier extends Rectangle2D implements PulseEntity {
     @Override
     public void addToWorld() {
         super.addToWorld();
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
+        Engine.getWorldCommands().addPulseEntity(this);
     }
 
     @Override
     public void removeFromWorld() {
         super.removeFromWorld();
-        Engine.getMessagePump().sendMessage(new Message(Constants.REMOVE_PULSE_ENTITY, this));
+        Engine.getWorldCommands().removePulseEntity(this);
     }
 }
@@ -1,50 +1,56 @@
 package application.liver_idea_model;
 
-import application.utils.Misc;
 import engine.*;
 import javafx.scene.paint.Color;
 import javafx.util.Pair;
 
 import java.util.HashSet;
-import java.util.Random;
 
 public class Cytokine extends Circle2D implements PulseEntity {
     private static final Color _color = new Color(255 / 255.0, 186 / 255.0, 55 / 255.0, 1.0);
-    private static final Random _rng = new Random();
     private double _elapsedSeconds = 0.0;
     private final double _secondsUntilDuplication;
-    private final boolean _isMainCytokine;
-    private int _numElements = -1;
-    private Pair<Double, Double> _startLocationXY;
-    private final Pair<Double, Double> _referencedLocation;
+    private boolean _isMainCytokine;
+    private Pair<Double, Double> _referencedLocation;
+    // Where a main cytokine has been - every _secondsUntilDuplication seconds it drops another point
+    private Trail _trail;
+    private final AgentPools _pools;
+
+    // Only AgentPools creates these - launch() has to be called before it is added to the world
+    Cytokine(AgentPools pools) {
+        super(0, 0, 5, 5, 1);
+        setColor(_color);
+        _pools = pools;
+        _secondsUntilDuplication = Engine.getConsoleVariables().find(ModelGlobals.cytokineSecondsUntilDuplication).getcvarAsFloat();
+        setCollisionLayer(ModelGlobals.cytokineLayer);
+        setPassiveCollider(true);
+    }
 
     /**
+     * Sets this up as a main cytokine which moves away from where it starts and leaves a trail
+     * behind for lymphocytes to follow back
      * @param x starting x location
      * @param y starting y location
-     * @param isMainCytokine if true, this cytokine will replicate itself
      */
-    public Cytokine(double x, double y, double referenceX, double referenceY,
-                    int numberInChain, boolean isMainCytokine) {
-        super(x, y, 5, 5, 1);
-        setColor(_color);
-        _isMainCytokine = isMainCytokine;
-        _secondsUntilDuplication = Engine.getConsoleVariables().find(ModelGlobals.cytokineSecondsUntilDuplication).getcvarAsFloat();
-        // If we are not the main cytokine, use referenceX and referenceY for the reference locations,
-        // but otherwise use our starting x and y locations
-        if (!_isMainCytokine) {
-            referenceX = numberInChain == 0 ? -1 : referenceX;
-            referenceY = numberInChain == 0 ? -1 : referenceY;
-            _numElements = numberInChain;
-            _referencedLocation = new Pair<>(referenceX, referenceY);
-        }
-        else {
-            _numElements = -1;
-            _referencedLocation = new Pair<>(x, y);
-            // Only set the speed of this cytokine if we are the main cytokine
-            final double speed = Engine.getConsoleVariables().find(ModelGlobals.cytokineSpeed).getcvarAsFloat();
-            setSpeedXY(speed * _rng.nextDouble(), speed);
-        }
-        _startLocationXY = new Pair<>(x, y);
+    void launch(double x, double y) {
+        setLocationXYDepth(x, y, 1);
+        _elapsedSeconds = 0.0;
+        _isMainCytokine = true;
+        _referencedLocation = new Pair<>(x, y);
+        _trail = null;
+        final double speed = Engine.getConsoleVariables().find(ModelGlobals.cytokineSpeed).getcvarAsFloat();
+        setSpeedXY(speed * Engine.getRandom().nextDouble(), speed);
+    }
+
+    /**
+     * Sets this up as a stationary cytokine that points towards the given location
+     */
+    void launchMarker(double x, double y, Pair<Double, Double> referencedLocation) {
+        setLocationXYDepth(x, y, 1);
+        _elapsedSeconds = 0.0;
+        _isMainCytokine = false;
+        _referencedLocation = referencedLocation;
+        _trail = null;
     }
 
     public Pair<Double, Double> getReferencedLocation() {
@@ -59,15 +65,16 @@ public class Cytokine extends Circle2D implements PulseEntity {
      *                     this value will be roughly equal to (1/60).
      */
     @Override
-    public void pulse(double deltaSeconds) {
+    public synchronized void pulse(double deltaSeconds) {
         _elapsedSeconds += deltaSeconds;
         if (_elapsedSeconds >= _secondsUntilDuplication) {
             _elapsedSeconds = 0.0;
-            Cytokine cytokine = new Cytokine(getLocationX(), getLocationY(),
-                    _startLocationXY.getKey(), _startLocationXY.getValue(),
-                    ++_numElements, false);
-            _startLocationXY = new Pair<>(getLocationX(), getLocationY());
-            cytokine.addToWorld();
+            if (_trail == null) {
+                _trail = _pools.newTrail();
+                _trail.setColor(_color);
+                _trail.addToWorld();
+            }
+            _trail.addPoint(getLocationX() + getWidth() / 2, getLocationY() + getHeight() / 2);
         }
     }
 
@@ -81,7 +88,7 @@ public class Cytokine extends Circle2D implements PulseEntity {
         super.addToWorld();
         // Only add this as a pulse entity if it is a primary cytokine
         if (_isMainCytokine) {
-            Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
+            Engine.getWorldCommands().addPulseEntity(this);
         }
     }
 
@@ -90,10 +97,13 @@ public class Cytokine extends Circle2D implements PulseEntity {
      * not be called
      */
     @Override
-    public void removeFromWorld() {
+    public synchronized void removeFromWorld() {
         super.removeFromWorld();
         if (_isMainCytokine) {
-            Engine.getMessagePump().sendMessage(new Message(Constants.REMOVE_PULSE_ENTITY, this));
+            Engine.getWorldCommands().removePulseEntity(this);
+            // Nothing else will be added to the trail so it can go away once it has been followed
+            if (_trail != null) _trail.setRemoveWhenEmpty(true);
+            _trail = null;
         }
     }
 }
@@ -16,28 +16,38 @@ public class LiverCell extends Circle2D implements PulseEntity {
     private final int _maxNumViruses;
     private final double _virusesPerSecond;
     private double _elapsedSec = 0.0;
-    private boolean _infected = false;
+    // Viruses infect from the collision threads while the cell pulses on the main logic
+    private volatile boolean _infected = false;
     private Virus _infectedWith = null;
     private boolean _added = false;
     private double _currentNumViruses = 0;
+    private final AgentPools _pools;
 
-    public LiverCell(double x, double y) {
+    LiverCell(AgentPools pools, double x, double y) {
         super(x, y, 50, 50, 1);
+        _pools = pools;
         _maxNumViruses = Engine.getConsoleVariables().find(ModelGlobals.virusesBeforeExplosion).getcvarAsInt();
         _virusesPerSecond = Engine.getConsoleVariables().find(ModelGlobals.virusPerSecond).getcvarAsFloat();
         setColor(_healthyColor);
+        // Everything that cares about liver cells checks for them itself
+        setCollisionLayer(ModelGlobals.liverCellLayer);
+        setPassiveCollider(true);
     }
 
     boolean infected() {
         return _infected;
     }
 
-    void infect(Virus virus) {
-        if (infected()) return; // Do not infect twice
+    /**
+     * @return true if the virus infected the cell and false if the cell was already infected
+     */
+    synchronized boolean infect(Virus virus) {
+        if (infected()) return false; // Do not infect twice
         _infectedWith = virus;
         _infected = true;
         setColor(_unhealthyColor); // Visual marker of infection
-        Engine.getMessagePump().sendMessage(new Message(ModelGlobals.cellInfected, this));
+        Engine.getMessagePump().sendMessage(ModelGlobals.cellInfected, this);
+        return true;
     }
 
     @Override
@@ -64,7 +74,7 @@ public class LiverCell extends Circle2D implements PulseEntity {
             if (viruses >= _maxNumViruses) {
                 removeFromWorld(); // Remove self from world since we just exploded
                 for (int i = 0; i < viruses; ++i) {
-                    Virus virus = new Virus(Misc.offset(getLocationX(), 0, 10),
+                    Virus virus = _pools.newVirus(Misc.offset(getLocationX(), 0, 10),
                             Misc.offset(getLocationY(), 0, 10));
                     virus.addToWorld();
                 }
@@ -78,11 +88,11 @@ public class LiverCell extends Circle2D implements PulseEntity {
      * will be calculated by the Renderer and it will be drawn on the screen.
      */
     @Override
-    public void addToWorld() {
+    public synchronized void addToWorld() {
         super.addToWorld();
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
+        Engine.getWorldCommands().addPulseEntity(this);
         if (!_added) {
-            Engine.getMessagePump().sendMessage(new Message(ModelGlobals.cellAddedToWorld, this));
+            Engine.getMessagePump().sendMessage(ModelGlobals.cellAddedToWorld, this);
         }
         _added = true;
     }
@@ -92,11 +102,11 @@ public class LiverCell extends Circle2D implements PulseEntity {
      * not be called
      */
     @Override
-    public void removeFromWorld() {
+    public synchronized void removeFromWorld() {
         super.removeFromWorld();
-        Engine.getMessagePump().sendMessage(new Message(Constants.REMOVE_PULSE_ENTITY, this));
+        Engine.getWorldCommands().removePulseEntity(this);
         if (_added) {
-            Engine.getMessagePump().sendMessage(new Message(ModelGlobals.cellRemovedFromWorld, this));
+            Engine.getMessagePump().sendMessage(ModelGlobals.cellRemovedFromWorld, this);
         }
         _added = false;
     }
@@ -2,6 +2,7 @@ package application.liver_idea_model;
 
 import application.CameraController;
 import application.library_of_congress.BookKeeper;
+import application.library_of_congress.Ledger;
 import application.library_of_congress.RecordBook;
 import application.library_of_congress.StickyNotes;
 import application.library_of_congress.TimeKeeper;
@@ -16,6 +17,7 @@ import javafx.stage.Stage;
 
 import java.io.File;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Optional;
 import java.util.Random;
 
@@ -47,33 +49,43 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
     private RecordBook _bookInfectedCount;
     private RecordBook _bookHealthyCount;
     private RecordBook _bookLymphocyteCount;
+    // Same data as the books above but in a form that is much cheaper to load for analysis
+    private Ledger _ledger;
     private TimeKeeper _timeKeeper;
     private String _configClassification;
     private String _folderPath;
+    private long _flushIntervalMillis = RecordBook.DEFAULT_FLUSH_INTERVAL_MS;
     private boolean _savedVirusNote = false;
+    private AgentPools _pools;
+    private final String _configPath;
+    private final String _folderSuffix;
+
+    public LiverIdeaModel() {
+        this("src/resources/liver_idea_model.cfg");
+    }
+
+    /**
+     * @param configPath config file to load the model's settings from
+     */
+    public LiverIdeaModel(String configPath) {
+        this(configPath, "");
+    }
+
+    /**
+     * @param configPath config file to load the model's settings from
+     * @param folderSuffix added to the name of the run's data folder so that runs which start in
+     *                     the same second don't write into the same one
+     */
+    public LiverIdeaModel(String configPath, String folderSuffix) {
+        _configPath = configPath;
+        _folderSuffix = folderSuffix;
+    }
 
     @Override
     public void init() {
-        Engine.getConsoleVariables().loadConfigFile("src/resources/liver_idea_model.cfg");
-        Label label = new Label("Time Scaling Slider");
-        label.setLayoutX(25);
-        label.setLayoutY(200);
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_UI_ELEMENT, label));
-        Slider slider = new Slider(0,5,1);
-        slider.setBlockIncrement(1);
-        slider.setSnapToTicks(true);
-        slider.setShowTickLabels(true);
-        slider.setShowTickMarks(true);
-        slider.setMinorTickCount(0);
-        slider.setMajorTickUnit(1);
-        slider.setLayoutX(25);
-        slider.setLayoutY(220);
-        slider.setValue(1);
-        slider.setOnMouseClicked((e) -> {
-            Engine.getConsoleVariables().find(Constants.TIME_SCALING_FACTOR).setValue(Double.toString(Math.floor(slider.getValue())));
-        });
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_UI_ELEMENT, slider));
-        new CameraController().enableMouseInputComponent();
+        Engine.getConsoleVariables().loadConfigFile(_configPath);
+        // JavaFX controls can't be created without the toolkit, which is never started when headless
+        if (!Engine.getConsoleVariables().find(Constants.HEADLESS).getcvarAsBool()) _createControls();
         _lymphocyteDisplay.addToWorld();
         _lymphocyteDisplay.setColor(_lymphocyteColor);
         _lymphocyteDisplay.setAsStaticActor(true);
@@ -91,13 +103,21 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
 
         if (Engine.getConsoleVariables().find(ModelGlobals.configClassification) != null) {
             _configClassification = Engine.getConsoleVariables().find(ModelGlobals.configClassification).getcvarValue();
-            _folderPath = "data/" + _configClassification + "/" + _timeKeeper.getTime() + "/";
+            _folderPath = "data/" + _configClassification + "/" + _timeKeeper.getTime() + _folderSuffix + "/";
         } else {
-            _folderPath = "data/" + _timeKeeper.getTime() + "/";
+            _folderPath = "data/" + _timeKeeper.getTime() + _folderSuffix + "/";
         }
         Engine.getFileSystem().createDirectoryRecursive(_folderPath);
-        _keeper = new BookKeeper(_folderPath);
-        RecordBook configHistory = new RecordBook("config-history",_folderPath,"cfg");
+        // Keep captured frames with the rest of this run's records unless told otherwise. This goes
+        // straight to the renderer so the per-run path stays out of the recorded config (and its hash).
+        if (Engine.getConsoleVariables().find(Constants.R_CAPTURE_DIR).getcvarValue().isEmpty()) {
+            Engine.getMessagePump().sendMessage(Constants.SET_CAPTURE_DIRECTORY, _folderPath + "captures/");
+        }
+        if (Engine.getConsoleVariables().find(ModelGlobals.recordFlushInterval) != null) {
+            _flushIntervalMillis = (long)(Engine.getConsoleVariables().find(ModelGlobals.recordFlushInterval).getcvarAsFloat() * 1000);
+        }
+        _keeper = new BookKeeper(_folderPath, _flushIntervalMillis);
+        RecordBook configHistory = new RecordBook("config-history",_folderPath,"cfg",_flushIntervalMillis);
         configHistory.recordConfig(Engine.getConsoleVariables().getAllConsoleVariables());
         _keeper.addBook(configHistory);
         String memo = "";
@@ -105,43 +125,51 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
             memo = Engine.getConsoleVariables().find(ModelGlobals.memo).getcvarValue();
         }
         _keeper.addNote(new StickyNotes("Memo: " + memo));
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
+        Engine.getWorldCommands().addPulseEntity(this);
         _registerMessages();
         _createBookKeeper();
         _signalInterestInMessages();
-        Random random = new Random();
+        int poolCapacity = 1000;
+        if (Engine.getConsoleVariables().find(ModelGlobals.agentPoolCapacity) != null) {
+            poolCapacity = Engine.getConsoleVariables().find(ModelGlobals.agentPoolCapacity).getcvarAsInt();
+        }
+        _pools = new AgentPools(poolCapacity);
+        Random random = Engine.getRandom();
+        // Everything is spawned at the end in one batch
+        ArrayList<GraphicsEntity> agents = new ArrayList<>();
         Quadrant quad = QuadrantBuilder.makeQuadrant(0, 10);
         // Get the number of starting viruses and add them to the world
         int numViruses = Engine.getConsoleVariables().find(ModelGlobals.virusInitialNum).getcvarAsInt();
         for (int i = 0; i < numViruses; ++i) {
-            Virus virus = new Virus(quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
-            virus.addToWorld();
+            Virus virus = _pools.newVirus(quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
+            agents.add(virus);
         }
         quad = QuadrantBuilder.makeQuadrant(0, 60);
         // Get the number of starting cells and add them to the world
         int numLiverCells = Engine.getConsoleVariables().find(ModelGlobals.liverCellInitialNum).getcvarAsInt();
         for (int i = 0; i < numLiverCells; ++i) {
-            LiverCell cell = new LiverCell(quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
-            cell.addToWorld();
+            LiverCell cell = new LiverCell(_pools, quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
+            agents.add(cell);
         }
         int numMacrophages = Engine.getConsoleVariables().find(ModelGlobals.macrophageNum).getcvarAsInt();
         for (int i = 0; i < numMacrophages; ++i) {
-            Macrophage mackyMack = new Macrophage(quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
-            mackyMack.addToWorld();
+            Macrophage mackyMack = new Macrophage(_pools, quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
+            agents.add(mackyMack);
         }
         quad = QuadrantBuilder.makeQuadrant(60, 70);
         // Get the number of starting lymphocytes and add them to the world
         int numLymphocytes = Engine.getConsoleVariables().find(ModelGlobals.lymphocyteInitialNum).getcvarAsInt();
         final double lymphocyteSpeed = Engine.getConsoleVariables().find(ModelGlobals.lymphocyteSpeed).getcvarAsFloat();
         for (int i = 0; i < numLymphocytes; ++i) {
-            Lymphocyte lymphocyte = new Lymphocyte(quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
+            Lymphocyte lymphocyte = _pools.newLymphocyte(quad.getRandomPosition().getX(), quad.getRandomPosition().getY());
             lymphocyte.setSpeedXY(lymphocyteSpeed * random.nextDouble(), 0.0);
-            lymphocyte.addToWorld();
+            agents.add(lymphocyte);
         }
         // Add the barrier that intercepts all uncaught Cytokines and summons new Lymphocytes
         quad = QuadrantBuilder.makeQuadrant(75, 80);
         int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
-        new Barrier(0, quad.getRandomPosition().getY(), worldWidth, 10).addToWorld();
+        agents.add(new Barrier(_pools, 0, quad.getRandomPosition().getY(), worldWidth, 10));
+        Engine.getWorldCommands().spawnAll(agents);
     }
 
     @Override
@@ -151,7 +179,9 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
         _keeper.addNote(new StickyNotes("Num viruses squashed (Lymphocyte): " + _numSquashedLymphocyte));
         _keeper.addNote(new StickyNotes("Num viruses squashed (Macrophage): " + _numSquashedMacrophage));
         _keeper.closeBooks();
+        _ledger.close();
         _keeper.closeNotes();
+        Engine.getProfiler().writeSummary(_folderPath); // Only written if eng_profile was on
     }
 
     /**
@@ -221,7 +251,7 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
 
         if (_elapsedRuntime > _maxRuntime) {
             _keeper.addNote(new StickyNotes("Reached max runtime. Shutting down."));
-            Engine.getMessagePump().sendMessage(new Message(Constants.PERFORM_FULL_ENGINE_SHUTDOWN));
+            Engine.getMessagePump().sendMessage(Constants.PERFORM_FULL_ENGINE_SHUTDOWN);
             return;
         }
 
@@ -251,6 +281,28 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
         }
     }
 
+    private void _createControls() {
+        Label label = new Label("Time Scaling Slider");
+        label.setLayoutX(25);
+        label.setLayoutY(200);
+        Engine.getMessagePump().sendMessage(Constants.ADD_UI_ELEMENT, label);
+        Slider slider = new Slider(0,5,1);
+        slider.setBlockIncrement(1);
+        slider.setSnapToTicks(true);
+        slider.setShowTickLabels(true);
+        slider.setShowTickMarks(true);
+        slider.setMinorTickCount(0);
+        slider.setMajorTickUnit(1);
+        slider.setLayoutX(25);
+        slider.setLayoutY(220);
+        slider.setValue(1);
+        slider.setOnMouseClicked((e) -> {
+            Engine.getConsoleVariables().find(Constants.TIME_SCALING_FACTOR).setValue(Double.toString(Math.floor(slider.getValue())));
+        });
+        Engine.getMessagePump().sendMessage(Constants.ADD_UI_ELEMENT, slider);
+        new CameraController().enableMouseInputComponent();
+    }
+
     private void _registerMessages() {
         Engine.getMessagePump().registerMessage(new Message(ModelGlobals.cellAddedToWorld));
         Engine.getMessagePump().registerMessage(new Message(ModelGlobals.cellRemovedFromWorld));
@@ -286,19 +338,29 @@ public class LiverIdeaModel implements ApplicationEntryPoint, MessageHandler, Pu
             _bookInfectedCount.add(String.valueOf(_numInfectedCells)+ "\n");
             _bookHealthyCount.add(String.valueOf(_numHealthyCells)+ "\n");
             _bookLymphocyteCount.add(String.valueOf(_numLymphocytes)+ "\n");
+            _ledger.setDouble(0, _elapsedRuntime);
+            _ledger.setInt(1, _numViruses);
+            _ledger.setInt(2, _numInfectedCells);
+            _ledger.setInt(3, _numHealthyCells);
+            _ledger.setInt(4, _numLymphocytes);
+            _ledger.endRow();
             _elapsedRecordTime = 0;
         }
     }
 
     private void _createBookKeeper() {
-        _bookVirusCount = new RecordBook("virus-over-time",_folderPath,"csv");
-        _bookInfectedCount = new RecordBook("infected-over-time", _folderPath,"csv");
-        _bookHealthyCount = new RecordBook("healthy-over-time",_folderPath,"csv") ;
-        _bookLymphocyteCount = new RecordBook("lymphocytes-over-time",_folderPath,"csv");
+        _bookVirusCount = new RecordBook("virus-over-time",_folderPath,"csv",_flushIntervalMillis);
+        _bookInfectedCount = new RecordBook("infected-over-time",_folderPath,"csv",_flushIntervalMillis);
+        _bookHealthyCount = new RecordBook("healthy-over-time",_folderPath,"csv",_flushIntervalMillis) ;
+        _bookLymphocyteCount = new RecordBook("lymphocytes-over-time",_folderPath,"csv",_flushIntervalMillis);
         _keeper.addBook(_bookVirusCount);
         _keeper.addBook(_bookInfectedCount);
         _keeper.addBook(_bookHealthyCount);
         _keeper.addBook(_bookLymphocyteCount);
+        _ledger = new Ledger("metrics-over-time", _folderPath,
+                new String[]{"time", "viruses", "infected", "healthy", "lymphocytes"},
+                new byte[]{Ledger.DOUBLE, Ledger.INT, Ledger.INT, Ledger.INT, Ledger.INT},
+                1, Ledger.hashConfig(Engine.getConsoleVariables().getAllConsoleVariables()));
     }
 
     public static void main(String ... args) {
@@ -5,26 +5,42 @@ import engine.math.Vector3;
 import javafx.scene.paint.Color;
 
 import java.util.HashSet;
-import java.util.Random;
 
 public class Lymphocyte extends Circle2D implements PulseEntity {
     private static final Color _color = new Color(255 / 255.0, 173 / 255.0, 31 / 255.0, 1);
-    private static final Random _rng = new Random();
-    private boolean _activated = false;
+    // Flags are set by collision callbacks which run on a different thread than pulse()
+    private volatile boolean _activated = false;
     private double _elapsedLifeSeconds = 0.0;
-    private boolean _changeSpeedImmediately = true;
-    private boolean _reachedEndOfTrail = false;
+    private volatile boolean _changeSpeedImmediately = true;
+    private volatile boolean _reachedEndOfTrail = false;
     private double _elapsedChangeDirSec = 0.0;
     private final double _secondsBeforeChangeDir = 5.0;
     private final double _lifeSpanSec;
     private final double _speed;
     private final Vector3 _speedCalculationVec = new Vector3(0.0);
+    private final DoubleCvar _worldHeight = Engine.getConsoleVariables().bindDouble(Constants.WORLD_HEIGHT);
 
-    public Lymphocyte(double x, double y) {
-        super(x, y, 25, 25, 1);
+    // Only AgentPools creates these - launch() has to be called before it is added to the world
+    Lymphocyte() {
+        super(0, 0, 25, 25, 1);
         setColor(_color);
         _lifeSpanSec = Engine.getConsoleVariables().find(ModelGlobals.lymphocyteLifespan).getcvarAsFloat();
         _speed = Engine.getConsoleVariables().find(ModelGlobals.lymphocyteSpeed).getcvarAsFloat();
+        setCollisionLayer(ModelGlobals.lymphocyteLayer);
+        setCollisionMask(ModelGlobals.virusLayer | ModelGlobals.liverCellLayer |
+                ModelGlobals.cytokineLayer | ModelGlobals.trailLayer);
+    }
+
+    /**
+     * Places the lymphocyte and puts it back in its starting, non-activated state
+     */
+    void launch(double x, double y) {
+        setLocationXYDepth(x, y, 1);
+        _activated = false;
+        _elapsedLifeSeconds = 0.0;
+        _changeSpeedImmediately = true;
+        _reachedEndOfTrail = false;
+        _elapsedChangeDirSec = 0.0;
     }
 
     public boolean activated() {
@@ -50,12 +66,12 @@ public class Lymphocyte extends Circle2D implements PulseEntity {
                     _changeSpeedImmediately = false;
                 }
                 if (_elapsedChangeDirSec >= _secondsBeforeChangeDir) {
-                    if (_rng.nextDouble() <= 0.5) _changeSpeedRandomly();
+                    if (Engine.getRandom().nextDouble() <= 0.5) _changeSpeedRandomly();
                     _elapsedChangeDirSec = 0.0;
                 }
             }
         }
-        double worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsFloat();
+        double worldHeight = _worldHeight.get();
         double locationY = getLocationY();
         double speedX = getSpeedX();
         double speedY = getSpeedY();
@@ -70,8 +86,8 @@ public class Lymphocyte extends Circle2D implements PulseEntity {
     @Override
     public void addToWorld() {
         super.addToWorld();
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
-        Engine.getMessagePump().sendMessage(new Message(ModelGlobals.lymphocyteAddedToWorld, this));
+        Engine.getWorldCommands().addPulseEntity(this);
+        Engine.getMessagePump().sendMessage(ModelGlobals.lymphocyteAddedToWorld, this);
     }
 
     /**
@@ -81,16 +97,46 @@ public class Lymphocyte extends Circle2D implements PulseEntity {
     @Override
     public void removeFromWorld() {
         super.removeFromWorld();
-        Engine.getMessagePump().sendMessage(new Message(Constants.REMOVE_PULSE_ENTITY, this));
-        Engine.getMessagePump().sendMessage(new Message(ModelGlobals.lymphocyteRemovedFromWorld, this));
+        Engine.getWorldCommands().removePulseEntity(this);
+        Engine.getMessagePump().sendMessage(ModelGlobals.lymphocyteRemovedFromWorld, this);
+    }
+
+    /**
+     * Heads back along the trail towards the start of the segment we touched. Everything past
+     * that point has now been followed, so it is removed to keep other lymphocytes from
+     * following the same stretch - the first point of the trail is the end of it.
+     */
+    private void _followTrail(Trail trail) {
+        int segment = trail.getContactSegment(this);
+        int numPoints = trail.getNumPoints();
+        if (segment < 0 || numPoints == 0) return;
+        _activated = true;
+        if (numPoints == 1) {
+            if (segment != 0) return; // Whatever we touched was already followed by someone else
+            trail.truncate(0);
+            _reachedEndOfTrail = true;
+            _changeSpeedImmediately = true;
+            return;
+        }
+        if (segment >= numPoints - 1) return; // Same as above
+        _headTowards(getLocationX() + getWidth() / 2, getLocationY() + getHeight() / 2,
+                trail.getPointX(segment), trail.getPointY(segment));
+        trail.truncate(segment + 1);
+    }
+
+    private void _headTowards(double fromX, double fromY, double toX, double toY) {
+        _speedCalculationVec.setXYZ(toX - fromX, toY - fromY, 0.0);
+        if (_speedCalculationVec.magnitude() == 0) return; // Already there
+        _speedCalculationVec.normalizeThis();
+        setSpeedXY(_speed * _speedCalculationVec.x(), _speed * _speedCalculationVec.y());
     }
 
     private void _changeSpeedRandomly() {
         final double speed = _speed;
-        double speedX = _rng.nextDouble();
-        if (_rng.nextDouble() >= 0.5) speedX *= -1;
-        double speedY = _rng.nextDouble();
-        if (_rng.nextDouble() >= 0.5) speedY *= -1;
+        double speedX = Engine.getRandom().nextDouble();
+        if (Engine.getRandom().nextDouble() >= 0.5) speedX *= -1;
+        double speedY = Engine.getRandom().nextDouble();
+        if (Engine.getRandom().nextDouble() >= 0.5) speedY *= -1;
         _speedCalculationVec.setXYZ(speedX, speedY, 0.0);
         _speedCalculationVec.normalizeThis();
         setSpeedXY(_speedCalculationVec.x() * speed, _speedCalculationVec.y() * speed);
@@ -105,7 +151,7 @@ public class Lymphocyte extends Circle2D implements PulseEntity {
             if (collided instanceof Virus) {
                 collided.removeFromWorld();
                 ++numViruses;
-                Engine.getMessagePump().sendMessage(new Message(ModelGlobals.virusSquashedLymphocyte));
+                Engine.getMessagePump().sendMessage(ModelGlobals.virusSquashedLymphocyte);
                 //System.out.println("Lymphocyte: Found virus -> destroying");
             }
             else if (collided instanceof LiverCell) {
@@ -124,17 +170,17 @@ public class Lymphocyte extends Circle2D implements PulseEntity {
                 double refY = cytokine.getReferencedLocation().getValue();
                 _activated = true;
                 if (refX != -1 && refY != -1) {
-                    Vector3 refVec = new Vector3(refX, refY, 0.0);
-                    Vector3 locationVec = new Vector3(getLocationX(), getLocationY(), 0.0);
-                    refVec.subtractThis(locationVec);
-                    refVec.normalizeThis();
-                    setSpeedXY(_speed * refVec.x(), _speed * refVec.y());
+                    _headTowards(getLocationX(), getLocationY(), refX, refY);
                 }
                 else {
                     _reachedEndOfTrail = true;
                     _changeSpeedImmediately = true;
                 }
             }
+            else if (collided instanceof Trail) {
+                if (_reachedEndOfTrail) continue;
+                _followTrail((Trail)collided);
+            }
         }
         //if (numViruses > 0) System.out.println("Lymphocyte: Found [" + numViruses + "] viruses -> destroying");
         //if (numInfected > 0) System.out.println("Lymphocyte: Found [" + numInfected + "] infected cells -> destroying");
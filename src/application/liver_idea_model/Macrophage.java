@@ -6,11 +6,9 @@ import javafx.scene.paint.Color;
 
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Random;
 
 public class Macrophage extends Circle2D implements PulseEntity{
     private static Color _color = new Color(0 / 255.0, 167 / 255.0, 61 / 255.0, 1);
-    private static Random _rng = new Random();
     private static final double _radius = 30;
     private final int _perimRatio = 3;
     private final double _speed;
@@ -19,20 +17,27 @@ public class Macrophage extends Circle2D implements PulseEntity{
     private MacrophagePerimeter _mp;
     private int _cytokineCounter = 0;
     private int _maxPouchSize;
+    private final DoubleCvar _worldHeight = Engine.getConsoleVariables().bindDouble(Constants.WORLD_HEIGHT);
+    private final AgentPools _pools;
 
-    public Macrophage(double x, double y) {
+    Macrophage(AgentPools pools, double x, double y) {
         super(x, y, _radius, _radius, 1);
+        _pools = pools;
 //        _changeDirection();
         _speed = Engine.getConsoleVariables().find(ModelGlobals.macrophageSpeed).getcvarAsFloat();
         setColor(_color);
+        setCollisionLayer(ModelGlobals.macrophageLayer);
+        setCollisionMask(ModelGlobals.liverCellLayer | ModelGlobals.virusLayer);
         _mp = new MacrophagePerimeter(x-(_radius),y-(_radius),
                 _radius*_perimRatio, _radius*_perimRatio,1);
+        _mp.setCollisionLayer(ModelGlobals.macrophageLayer);
+        _mp.setCollisionMask(ModelGlobals.liverCellLayer | ModelGlobals.virusLayer);
         _mp.addToWorld();
         this.attachActor(_mp);
         _changeDirection();
         _maxPouchSize = Engine.getConsoleVariables().find(ModelGlobals.cytokinePouchSize).getcvarAsInt();
         _cytokineCounter = _maxPouchSize; // Start with a full pouch
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
+        Engine.getWorldCommands().addPulseEntity(this);
     }
 
     @Override
@@ -56,7 +61,7 @@ public class Macrophage extends Circle2D implements PulseEntity{
             } else if (curr instanceof Virus) {
                 curr.removeFromWorld();
                 ++numViruses;
-                Engine.getMessagePump().sendMessage(new Message(ModelGlobals.virusSquashedMacrophage));
+                Engine.getMessagePump().sendMessage(ModelGlobals.virusSquashedMacrophage);
                 //System.out.println("Macrophage: Found virus -> destroying");
             }
         }
@@ -95,7 +100,7 @@ public class Macrophage extends Circle2D implements PulseEntity{
         }
 
         // Make sure the macrophage does not go out of bounds
-        double worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsFloat();
+        double worldHeight = _worldHeight.get();
         double locationY = getLocationY();
         double speedX = getSpeedX();
         double speedY = getSpeedY();
@@ -106,9 +111,7 @@ public class Macrophage extends Circle2D implements PulseEntity{
         _mp.resetPerimeter();
         ArrayList<Double> spacing = Misc.linearSpacing(getLocationX(),getLocationY(),_maxPouchSize);
         for(int i = 0; i < _maxPouchSize; i ++) {
-            new Cytokine(getLocationX(),
-                    Misc.offset(getLocationY(), 10, 20), getLocationX(), getLocationY(),
-                    -1, true).addToWorld();
+            _pools.newCytokine(getLocationX(), Misc.offset(getLocationY(), 10, 20)).addToWorld();
         }
         _mp.resetPerimeter();
         _cytokineCounter = 0;
@@ -116,10 +119,10 @@ public class Macrophage extends Circle2D implements PulseEntity{
 
     private void _changeDirection() {
         final double minSpeed = _speed;
-        double speedX = _speed * _rng.nextDouble() + minSpeed;
-        double speedY = _speed * _rng.nextDouble() + minSpeed;
-        if (_rng.nextDouble() >= 0.5) speedX *= -1;
-        if (_rng.nextDouble() >= 0.5) speedY *= -1;
+        double speedX = _speed * Engine.getRandom().nextDouble() + minSpeed;
+        double speedY = _speed * Engine.getRandom().nextDouble() + minSpeed;
+        if (Engine.getRandom().nextDouble() >= 0.5) speedX *= -1;
+        if (Engine.getRandom().nextDouble() >= 0.5) speedY *= -1;
         setSpeedXY(speedX, speedY);
     }
 }
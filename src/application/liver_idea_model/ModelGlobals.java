@@ -25,6 +25,23 @@ public class ModelGlobals {
 
     public static final String maxRuntime = "max_runtime";
 
+    // How often (in seconds) the record books are written out to disk while the model runs
+    public static final String recordFlushInterval = "record_flush_interval";
+
+    // Max number of removed viruses/cytokines/lymphocytes (each) that are kept around to be reused
+    public static final String agentPoolCapacity = "agent_pool_capacity";
+
+    /**
+     * Collision layers - each agent only hears about overlaps with the layers it reacts to
+     */
+    public static final int liverCellLayer = 1;
+    public static final int virusLayer = 1 << 1;
+    public static final int cytokineLayer = 1 << 2;
+    public static final int trailLayer = 1 << 3;
+    public static final int lymphocyteLayer = 1 << 4;
+    public static final int macrophageLayer = 1 << 5;
+    public static final int barrierLayer = 1 << 6;
+
     /**
      * Message subjects that will be passed around while the simulation is running
      */
@@ -1,15 +1,21 @@
 package application.liver_idea_model;
 
 import engine.EngineLoop;
+import engine.TaskManager;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * The Scientist conducts multiple experiments based on a list of config files.
+ *
+ * By default the experiments are run one after the other. Passing "--parallel N" runs up to
+ * N of them at the same time (always headless) with every run sharing a single pool of
+ * logic threads.
  */
 public class Scientist {
 
@@ -26,24 +32,79 @@ public class Scientist {
             shutdown();
         }
 
-        // Conduct tests per config file
-        for (File file: listOfConfigs) {
-            updateConfigFile(file);
-            EngineLoop.start(new LiverIdeaModel(),args);
+        int numParallel = parseNumParallel(args);
+        if (numParallel < 1) {
+            printUsage();
+            return;
+        }
+        if (numParallel > 1) {
+            runInParallel(listOfConfigs, numParallel);
+        }
+        else {
+            // Conduct tests per config file
+            for (File file: listOfConfigs) {
+                EngineLoop.start(new LiverIdeaModel(file.getPath()),args);
+            }
         }
 
         // Make sure the engine loop gets the exit signal
         EngineLoop.exit();
     }
 
-    private void updateConfigFile(File file) throws IOException{
-        Scanner scanner = new Scanner(file);
-        FileWriter fw = new FileWriter("src/resources/liver_idea_model.cfg");
-        while(scanner.hasNext()) {
-            String curr = scanner.nextLine();
-            fw.write(curr +"\n");
+    private void runInParallel(ArrayList<File> listOfConfigs, int numParallel) throws InterruptedException {
+        TaskManager taskManager = new TaskManager(Runtime.getRuntime().availableProcessors());
+        taskManager.start();
+        // These threads only start the engines and wait on them - the actual work happens on the task manager
+        ExecutorService runners = Executors.newFixedThreadPool(numParallel);
+        ArrayList<Future<?>> experiments = new ArrayList<>();
+        int numFailed = 0;
+        try {
+            for (int i = 0; i < listOfConfigs.size(); ++i) {
+                // Experiments started in the same second would otherwise share a data folder
+                LiverIdeaModel model = new LiverIdeaModel(listOfConfigs.get(i).getPath(), "-" + i);
+                experiments.add(runners.submit(() -> EngineLoop.startHeadless(model, taskManager)));
+            }
+            for (int i = 0; i < experiments.size(); ++i) {
+                try {
+                    experiments.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    ++numFailed;
+                    System.err.println("Experiment using " + listOfConfigs.get(i).getPath() + " failed:");
+                    e.getCause().printStackTrace();
+                }
+            }
+        }
+        finally {
+            runners.shutdownNow();
+            taskManager.stop();
+        }
+        if (numFailed > 0) {
+            throw new IllegalStateException(numFailed + " of " + experiments.size() + " experiments failed");
+        }
+    }
+
+    /**
+     * @return number of experiments to run at once, or -1 if --parallel was given without a valid count
+     */
+    private int parseNumParallel(String ... args) {
+        for (int i = 0; i < args.length; ++i) {
+            if (!args[i].equals("--parallel")) continue;
+            if (i + 1 == args.length) return -1;
+            try {
+                int numParallel = Integer.parseInt(args[i + 1]);
+                return numParallel > 0 ? numParallel : -1;
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
         }
-        fw.close();
+        return 1;
+    }
+
+    private void printUsage() {
+        System.out.println("Usage: Scientist [--parallel N]");
+        System.out.println("    --parallel N    run up to N experiments at the same time (N >= 1)");
     }
 
     private void shutdown() {
@@ -3,24 +3,31 @@ package application.liver_idea_model;
 import engine.Actor;
 import engine.Circle2D;
 import engine.Engine;
-import engine.Message;
 import engine.math.Vector3;
 import javafx.scene.paint.Color;
 
 import java.util.HashSet;
-import java.util.Random;
 
 public class Virus extends Circle2D {
     private static final Color _color = new Color(255 / 255.0, 73 / 255.0, 61 / 255.0, 1.0);
-    private static final Random _rng = new Random();
     private final double _speed;
     private boolean _added = false;
 
-    public Virus(double x, double y) {
-        super(x, y, 5, 5, 1);
+    // Only AgentPools creates these - launch() has to be called before it is added to the world
+    Virus() {
+        super(0, 0, 5, 5, 1);
         _speed = Engine.getConsoleVariables().find(ModelGlobals.virusSpeed).getcvarAsFloat();
         setColor(_color);
-        Vector3 vec = new Vector3(_rng.nextDouble(), _rng.nextDouble(), 0);
+        setCollisionLayer(ModelGlobals.virusLayer);
+        setCollisionMask(ModelGlobals.liverCellLayer);
+    }
+
+    /**
+     * Places the virus and sends it off in a random direction
+     */
+    void launch(double x, double y) {
+        setLocationXYDepth(x, y, 1);
+        Vector3 vec = new Vector3(Engine.getRandom().nextDouble(), Engine.getRandom().nextDouble(), 0);
         vec.normalizeThis();
         setSpeedXY(_speed * vec.x(), _speed * vec.y());
     }
@@ -31,8 +38,8 @@ public class Virus extends Circle2D {
         for (Actor collided : actors) {
             if (collided instanceof LiverCell) {
                 LiverCell cell = (LiverCell)collided;
-                if (!cell.infected()) {
-                    cell.infect(this);
+                // Other viruses can be trying to infect the same cell on another thread
+                if (cell.infect(this)) {
                     removeFromWorld(); // Remove self from world
                     return; // End early since we successfully infected a virus
                 }
@@ -46,10 +53,10 @@ public class Virus extends Circle2D {
      * will be calculated by the Renderer and it will be drawn on the screen.
      */
     @Override
-    public void addToWorld() {
+    public synchronized void addToWorld() {
         super.addToWorld();
         if (!_added) {
-            Engine.getMessagePump().sendMessage(new Message(ModelGlobals.virusAddedToWorld));
+            Engine.getMessagePump().sendMessage(ModelGlobals.virusAddedToWorld);
         }
         _added = true;
     }
@@ -59,10 +66,10 @@ public class Virus extends Circle2D {
      * not be called
      */
     @Override
-    public void removeFromWorld() {
+    public synchronized void removeFromWorld() {
         super.removeFromWorld();
         if (_added) {
-            Engine.getMessagePump().sendMessage(new Message(ModelGlobals.virusRemovedFromWorld));
+            Engine.getMessagePump().sendMessage(ModelGlobals.virusRemovedFromWorld);
         }
         _added = false;
     }
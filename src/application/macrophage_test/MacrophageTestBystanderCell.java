@@ -9,7 +9,7 @@ import java.util.ArrayList;
 public class MacrophageTestBystanderCell extends Circle2D implements PulseEntity {
     private static final Color _healthyColor = new Color(102 / 255.0, 189 / 255.0, 255 / 255.0, 1);
     private static final Color _unhealthyColor = new Color(255 / 255.0, 110 / 255.0, 88 / 255.0, 1);
-    private boolean _isInfected = false;
+    private volatile boolean _isInfected = false;
     private double _elapsedSec = 0.0;
     private final double _virusProductionRate = 3.0; // Create 1 virus every 2 seconds
     private final int _maxViruses = 10;
@@ -27,7 +27,8 @@ public class MacrophageTestBystanderCell extends Circle2D implements PulseEntity
         return _isInfected;
     }
 
-    public void infect(Virus virus) {
+    public synchronized void infect(Virus virus) {
+        if (_isInfected) return; // Another virus got here first
         virus.removeFromWorld();
         _isInfected = true;
         _virus = virus;
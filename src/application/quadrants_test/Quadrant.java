@@ -1,5 +1,7 @@
 package application.quadrants_test;
 
+import engine.Engine;
+
 import java.util.Random;
 
 public class Quadrant {
@@ -11,7 +13,7 @@ public class Quadrant {
     private Random rand;
 
     public Quadrant(double minX, double maxX, double minY, double maxY) {
-        this(minX,maxX,minY,maxY,new Random());
+        this(minX,maxX,minY,maxY,Engine.getRandom());
     }
 
     public Quadrant(double minX, double maxX, double minY, double maxY, Random rand) {
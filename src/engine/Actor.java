@@ -22,6 +22,12 @@ import java.util.HashSet;
  * @author Justin Hall
  */
 public abstract class Actor implements CollisionEventCallback {
+    public static final int DEFAULT_COLLISION_LAYER = 1;
+    public static final int ALL_COLLISION_LAYERS = 0xFFFFFFFF;
+
+    // Used as the hash code so that hash-based containers of actors iterate in the same
+    // order from one run to the next (the default identity hash code changes every run)
+    private final long _actorId = Engine.nextActorId();
     private Vector3 _translation = new Vector3(0,0,1); // z-component should stay 1 for 2D
     private Vector3 _speed = new Vector3(0, 0, 0);
     private Vector3 _acceleration = new Vector3(0, 0, 0);
@@ -32,7 +38,33 @@ public abstract class Actor implements CollisionEventCallback {
     private boolean _isStaticActor = false; // If true it will not be transformed into camera space
     private boolean _constrainXMovement = false;
     private boolean _constrainYMovement = false;
+    private boolean _stationary = false; // See setStationary()
     private HashSet<CollisionEventCallback> _collisionCallbacks = new HashSet<>();
+    // See setCollisionLayer()/setCollisionMask()/setPassiveCollider()
+    private int _collisionLayer = DEFAULT_COLLISION_LAYER;
+    private int _collisionMask = ALL_COLLISION_LAYERS;
+    private boolean _passiveCollider = false;
+    // Non-null when the physics simulation has moved this actor's data into its packed ActorStore,
+    // in which case the getters/setters below read and write the store instead of the vectors above.
+    // Setters write to the slot while holding its lock and only if it is still attached, so once
+    // detachFromStore() has run a late write lands in the vectors instead of a reused slot
+    private volatile ActorStore.Slot _storeSlot = null;
+    // Bounds as of the last physics step - only used by the physics simulation to tell
+    // which actors actually moved
+    private double _steppedX = Double.NaN;
+    private double _steppedY = Double.NaN;
+    private double _steppedWidth = Double.NaN;
+    private double _steppedHeight = Double.NaN;
+    // Set by the physics simulation when it drops the actor - the first step which can't have seen
+    // it. -1 until then.
+    private volatile long _removalStep = -1;
+    // Bounds the renderer draws with - copied from the live values at the renderer's sync point so
+    // that a physics step can write the next frame while the last one is being drawn. Only ever
+    // touched by the renderer's thread.
+    private double _renderX;
+    private double _renderY;
+    private double _renderWidth;
+    private double _renderHeight;
 
     public void attachCollisionCallback(CollisionEventCallback callback) {
         _collisionCallbacks.add(callback);
@@ -46,6 +78,67 @@ public abstract class Actor implements CollisionEventCallback {
         return _collisionCallbacks;
     }
 
+    /**
+     * Sets which layer(s) this actor belongs to. Each bit is a separate layer - other actors
+     * only hear about overlapping this one if their mask shares a bit with this.
+     */
+    public void setCollisionLayer(int layer)
+    {
+        _collisionLayer = layer;
+    }
+
+    /**
+     * Sets which layers this actor wants to hear about. Overlaps with actors whose layer does
+     * not share a bit with the mask are left out of onActorOverlapped(), and a pair where
+     * neither actor wants to hear about the other is never even tested.
+     */
+    public void setCollisionMask(int mask)
+    {
+        _collisionMask = mask;
+    }
+
+    /**
+     * A passive collider can be overlapped by others but never has onActorOverlapped() or its
+     * collision callbacks called itself. Use this for anything that ignores its overlaps
+     * since it keeps the physics simulation from tracking them.
+     */
+    public void setPassiveCollider(boolean value)
+    {
+        _passiveCollider = value;
+    }
+
+    public int getCollisionLayer()
+    {
+        return _collisionLayer;
+    }
+
+    public int getCollisionMask()
+    {
+        return _collisionMask;
+    }
+
+    public boolean isPassiveCollider()
+    {
+        return _passiveCollider;
+    }
+
+    /**
+     * @return true if this actor wants to be told that it overlapped the other actor
+     */
+    public boolean listensFor(Actor other)
+    {
+        return !_passiveCollider && (_collisionMask & other._collisionLayer) != 0;
+    }
+
+    /**
+     * @return true if at least one of the two actors cares about the other, meaning the pair is
+     *         worth testing for overlap
+     */
+    public static boolean canInteract(Actor first, Actor second)
+    {
+        return first.listensFor(second) || second.listensFor(first);
+    }
+
     /**
      * Tells the renderer whether this actor should be transformed as the camera
      * moves or if its location should always stay relative to screen pixel coordinates
@@ -62,6 +155,23 @@ public abstract class Actor implements CollisionEventCallback {
         return _isStaticActor;
     }
 
+    /**
+     * Promises the physics simulation that this actor will not move on its own, so its speed
+     * and acceleration are ignored and it is kept in a separate index which is only touched when
+     * stationary actors are added, removed or moved with setLocationXYDepth(). Actors with no
+     * speed and no acceleration are treated this way automatically - this is for actors which
+     * should stay put no matter what. Has no effect on actors that are part of a graph.
+     */
+    public void setStationary(boolean value)
+    {
+        _stationary = value;
+    }
+
+    public boolean isStationary()
+    {
+        return _stationary;
+    }
+
     /**
      * @return true if the object was visible on the screen during the
      *         last frame or if it was somewhere off screen
@@ -94,6 +204,16 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public void setSpeedXY(double speedX, double speedY)
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) {
+            synchronized (slot) {
+                if (_storeSlot == slot) {
+                    slot._block._speedX[slot._index] = speedX;
+                    slot._block._speedY[slot._index] = speedY;
+                    return;
+                }
+            }
+        }
         _speed.setXYZ(speedX, speedY, 0);
     }
 
@@ -103,6 +223,16 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public void setAccelerationXY(double accelX, double accelY)
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) {
+            synchronized (slot) {
+                if (_storeSlot == slot) {
+                    slot._block._accelX[slot._index] = accelX;
+                    slot._block._accelY[slot._index] = accelY;
+                    return;
+                }
+            }
+        }
         _acceleration.setXYZ(accelX, accelY, 0);
     }
 
@@ -113,6 +243,17 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public void setLocationXYDepth(double x, double y, double depth)
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) {
+            synchronized (slot) {
+                if (_storeSlot == slot) {
+                    slot._block._x[slot._index] = x;
+                    slot._block._y[slot._index] = y;
+                    slot._block._depth[slot._index] = depth;
+                    return;
+                }
+            }
+        }
         _translation.setXYZ(x, y, 1);
         _depth = depth;
     }
@@ -131,6 +272,15 @@ public abstract class Actor implements CollisionEventCallback {
     {
         _constrainXMovement = constrainX;
         _constrainYMovement = constrainY;
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) {
+            synchronized (slot) {
+                if (_storeSlot == slot) {
+                    slot._block._moveX[slot._index] = constrainX ? 0 : 1;
+                    slot._block._moveY[slot._index] = constrainY ? 0 : 1;
+                }
+            }
+        }
     }
 
     /**
@@ -138,6 +288,16 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public void setWidthHeight(double width, double height)
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) {
+            synchronized (slot) {
+                if (_storeSlot == slot) {
+                    slot._block._width[slot._index] = width;
+                    slot._block._height[slot._index] = height;
+                    return;
+                }
+            }
+        }
         _scaleWidthHeight.setXYZ(width, height, 0);
     }
 
@@ -154,6 +314,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getLocationX()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._x[slot._index];
         return _translation.x();
     }
 
@@ -162,6 +324,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getLocationY()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._y[slot._index];
         return _translation.y();
     }
 
@@ -173,6 +337,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getDepth()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._depth[slot._index];
         return _depth;
     }
 
@@ -189,6 +355,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getSpeedX()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._speedX[slot._index];
         return _speed.x();
     }
 
@@ -197,6 +365,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getSpeedY()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._speedY[slot._index];
         return _speed.y();
     }
 
@@ -205,6 +375,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getAccelerationX()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._accelX[slot._index];
         return _acceleration.x();
     }
 
@@ -213,6 +385,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getAccelerationY()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._accelY[slot._index];
         return _acceleration.y();
     }
 
@@ -221,6 +395,8 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getWidth()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._width[slot._index];
         return _scaleWidthHeight.x();
     }
 
@@ -229,12 +405,16 @@ public abstract class Actor implements CollisionEventCallback {
      */
     public double getHeight()
     {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot != null) return slot._block._height[slot._index];
         return _scaleWidthHeight.y();
     }
 
     /*
      * The following are package private
      */
+
+    // The vectors below are only up to date while the actor is not bound to an ActorStore
     Vector3 getTranslationVec()
     {
         return _translation;
@@ -264,4 +444,122 @@ public abstract class Actor implements CollisionEventCallback {
     {
         return _constrainYMovement;
     }
-}
\ No newline at end of file
+
+    ActorStore.Slot getStoreSlot()
+    {
+        return _storeSlot;
+    }
+
+    void setStoreSlot(ActorStore.Slot slot)
+    {
+        _storeSlot = slot;
+    }
+
+    /**
+     * Copies the data in the actor's store slot back into its own fields and detaches it
+     * from the store. Holds the same lock as the setters so none of them can write into the
+     * slot after the copy has been made.
+     */
+    void detachFromStore()
+    {
+        ActorStore.Slot slot = _storeSlot;
+        if (slot == null) return;
+        synchronized (slot) {
+            ActorStore.Block block = slot._block;
+            int i = slot._index;
+            _translation.setXYZ(block._x[i], block._y[i], 1);
+            _depth = block._depth[i];
+            _speed.setXYZ(block._speedX[i], block._speedY[i], 0);
+            _acceleration.setXYZ(block._accelX[i], block._accelY[i], 0);
+            _scaleWidthHeight.setXYZ(block._width[i], block._height[i], 0);
+            _storeSlot = null;
+        }
+    }
+
+    long getRemovalStep()
+    {
+        return _removalStep;
+    }
+
+    void setRemovalStep(long step)
+    {
+        _removalStep = step;
+    }
+
+    /**
+     * Records the current bounds for the next call to compare against
+     * @return true if the bounds changed since the last call (always true for the first call)
+     */
+    boolean syncSteppedBounds()
+    {
+        double x = getLocationX();
+        double y = getLocationY();
+        double width = getWidth();
+        double height = getHeight();
+        if (x == _steppedX && y == _steppedY && width == _steppedWidth && height == _steppedHeight) return false;
+        _steppedX = x;
+        _steppedY = y;
+        _steppedWidth = width;
+        _steppedHeight = height;
+        return true;
+    }
+
+    /**
+     * Package private - copies the live bounds into the ones the renderer draws with. Must not be
+     * called while a physics step is running.
+     */
+    void syncRenderState()
+    {
+        _renderX = getLocationX();
+        _renderY = getLocationY();
+        _renderWidth = getWidth();
+        _renderHeight = getHeight();
+    }
+
+    // Package private - bounds as of the renderer's last sync point (see syncRenderState())
+    double getRenderX()
+    {
+        return _renderX;
+    }
+
+    double getRenderY()
+    {
+        return _renderY;
+    }
+
+    double getRenderWidth()
+    {
+        return _renderWidth;
+    }
+
+    double getRenderHeight()
+    {
+        return _renderHeight;
+    }
+
+    /**
+     * Puts the motion state back to how a new actor starts out so that a pooled actor
+     * does not carry anything over from its last use. Location and size are left alone
+     * since whoever reuses the actor is expected to set them.
+     */
+    void resetForReuse()
+    {
+        setSpeedXY(0, 0);
+        setAccelerationXY(0, 0);
+        setRotation(0);
+        setConstrainXYMovement(false, false);
+        _stationary = false;
+        _isVisibleOnScreen = false;
+        _steppedX = Double.NaN;
+        _steppedY = Double.NaN;
+        _steppedWidth = Double.NaN;
+        _steppedHeight = Double.NaN;
+        _removalStep = -1;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(_actorId);
+    }
+}
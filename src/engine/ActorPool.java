@@ -0,0 +1,129 @@
+package engine;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Keeps graphics entities which were removed from the world so that they can be handed
+ * out again instead of allocating new ones. Entities made by a pool return to it on their own
+ * when removeFromWorld() is called.
+ *
+ * A released entity is not handed out again right away. The physics simulation only hears
+ * about the removal once the message pump has dispatched it, and a step which was already
+ * running at that point can still report collisions with the entity. It sits out until the
+ * first physics step to start after the removal was applied has finished.
+ *
+ * Pools are thread safe so entities can be acquired and removed from the world (and so
+ * released) from collision callbacks and parallel pulses.
+ *
+ * @author Justin Hall
+ */
+public class ActorPool<T extends GraphicsEntity> {
+    /**
+     * Creates a brand new entity when the pool has nothing to recycle
+     */
+    public interface Factory<T> {
+        T create();
+    }
+
+    /**
+     * Called on an entity right before it is handed out for the second (third, ...) time
+     */
+    public interface ResetHook<T> {
+        void reset(T actor);
+    }
+
+    private final Factory<T> _factory;
+    private final ResetHook<T> _resetHook;
+    private final int _capacity;
+    private final ArrayDeque<T> _free = new ArrayDeque<>();
+    private final ArrayDeque<T> _released = new ArrayDeque<>();
+    // Physics step as of the last pass over _released - see _reclaimReleased()
+    private long _reclaimedStep = -1;
+    private int _numCreated = 0;
+
+    /**
+     * @param factory makes new entities
+     * @param capacity max number of unused entities the pool will hold on to - anything
+     *                 released past this is left for the garbage collector
+     */
+    public ActorPool(Factory<T> factory, int capacity) {
+        this(factory, null, capacity);
+    }
+
+    /**
+     * @param factory makes new entities
+     * @param resetHook clears out any state left over from an entity's last use (can be null)
+     * @param capacity max number of unused entities the pool will hold on to - anything
+     *                 released past this is left for the garbage collector
+     */
+    public ActorPool(Factory<T> factory, ResetHook<T> resetHook, int capacity) {
+        _factory = factory;
+        _resetHook = resetHook;
+        _capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * @return a recycled entity if one is ready and a new one otherwise. Either way it is
+     *         not part of the world until addToWorld() is called on it.
+     */
+    public T acquire() {
+        T actor;
+        synchronized (this) {
+            _reclaimReleased();
+            actor = _free.poll();
+        }
+        if (actor == null) {
+            actor = _factory.create();
+            actor.setPool(this);
+            synchronized (this) {
+                ++_numCreated;
+            }
+            return actor;
+        }
+        actor.resetForReuse();
+        if (_resetHook != null) _resetHook.reset(actor);
+        return actor;
+    }
+
+    /**
+     * @return number of entities this pool has had to allocate
+     */
+    public synchronized int getNumCreated() {
+        return _numCreated;
+    }
+
+    /**
+     * @return number of entities waiting to be reused (including the ones still sitting out)
+     */
+    public synchronized int getNumPooled() {
+        return _free.size() + _released.size();
+    }
+
+    // Package private - called by GraphicsEntity.removeFromWorld()
+    synchronized void release(GraphicsEntity actor) {
+        if (getNumPooled() >= _capacity) return;
+        @SuppressWarnings("unchecked")
+        T pooled = (T)actor;
+        _released.add(pooled);
+    }
+
+    // Entities are removed by the physics simulation in whatever order their messages arrive, so
+    // each one is checked on its own rather than stopping at the first which isn't ready. An entity
+    // can only become ready once another step finishes, so nothing is checked more than once per step.
+    private void _reclaimReleased() {
+        if (_released.isEmpty()) return;
+        long step = Engine.getPhysicsStepCount();
+        if (step == _reclaimedStep) return;
+        _reclaimedStep = step;
+        Iterator<T> released = _released.iterator();
+        while (released.hasNext()) {
+            T actor = released.next();
+            // Packed slots are also given up at the start of that step, so nothing else to check
+            long removalStep = actor.getRemovalStep();
+            if (removalStep < 0 || step < removalStep) continue;
+            released.remove();
+            _free.add(actor);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package engine;
+
+import java.util.ArrayList;
+
+/**
+ * Packed storage for the data the physics integration step works with. Instead of
+ * every actor holding its own Vector3 objects, positions, speeds, accelerations, sizes
+ * and depth are kept in parallel double arrays so that integration and wraparound can be
+ * run as tight loops over contiguous memory.
+ *
+ * The arrays are split into fixed size blocks. Blocks are never reallocated once created
+ * (growing the store just adds another block), which means an actor's slot stays valid and
+ * writes from other threads can never be lost to a resize.
+ *
+ * Only the physics simulation should call bind/unbind/integrate - actors read and write
+ * their own slot through the getters/setters in Actor.
+ *
+ * @author Justin Hall
+ */
+class ActorStore {
+    static final int BLOCK_SIZE = 1024;
+    private static final int _BLOCK_SHIFT = 10;
+    private static final int _BLOCK_MASK = BLOCK_SIZE - 1;
+
+    /**
+     * One block of parallel arrays
+     */
+    static class Block {
+        final double[] _x = new double[BLOCK_SIZE];
+        final double[] _y = new double[BLOCK_SIZE];
+        final double[] _speedX = new double[BLOCK_SIZE];
+        final double[] _speedY = new double[BLOCK_SIZE];
+        final double[] _accelX = new double[BLOCK_SIZE];
+        final double[] _accelY = new double[BLOCK_SIZE];
+        final double[] _width = new double[BLOCK_SIZE];
+        final double[] _height = new double[BLOCK_SIZE];
+        final double[] _depth = new double[BLOCK_SIZE];
+        // 0 if movement along the axis is constrained, 1 otherwise
+        final double[] _moveX = new double[BLOCK_SIZE];
+        final double[] _moveY = new double[BLOCK_SIZE];
+        // How far each actor moves this step before constraints (its root's change in position)
+        final double[] _deltaX = new double[BLOCK_SIZE];
+        final double[] _deltaY = new double[BLOCK_SIZE];
+        // Id of the root actor whose speed this actor inherits, -1 if it should not move this step
+        final int[] _driver = new int[BLOCK_SIZE];
+        final Actor[] _actors = new Actor[BLOCK_SIZE];
+    }
+
+    /**
+     * A stable handle to an actor's slot in the store
+     */
+    static class Slot {
+        final Block _block;
+        final int _index;
+        final int _id;
+
+        private Slot(Block block, int index, int id) {
+            _block = block;
+            _index = index;
+            _id = id;
+        }
+    }
+
+    private final ArrayList<Block> _blocks = new ArrayList<>();
+    private int[] _freeIds = new int[BLOCK_SIZE];
+    private int _numFreeIds = 0;
+    private int _nextId = 0;
+    private int _size = 0;
+    private int _numAttached = 0; // Actors this step whose driver is some other actor
+
+    /**
+     * Moves the actor's data into the store. From this point on its getters and
+     * setters will work with the store instead of its own fields.
+     */
+    void bind(Actor actor) {
+        if (actor.getStoreSlot() != null) return; // Already bound
+        int id;
+        if (_numFreeIds > 0) id = _freeIds[--_numFreeIds];
+        else {
+            id = _nextId++;
+            if ((id >> _BLOCK_SHIFT) == _blocks.size()) _blocks.add(new Block());
+        }
+        Block block = _blocks.get(id >> _BLOCK_SHIFT);
+        int i = id & _BLOCK_MASK;
+        block._x[i] = actor.getLocationX();
+        block._y[i] = actor.getLocationY();
+        block._speedX[i] = actor.getSpeedX();
+        block._speedY[i] = actor.getSpeedY();
+        block._accelX[i] = actor.getAccelerationX();
+        block._accelY[i] = actor.getAccelerationY();
+        block._width[i] = actor.getWidth();
+        block._height[i] = actor.getHeight();
+        block._depth[i] = actor.getDepth();
+        block._moveX[i] = actor.shouldConstrainXMovement() ? 0 : 1;
+        block._moveY[i] = actor.shouldConstrainYMovement() ? 0 : 1;
+        block._driver[i] = -1;
+        block._actors[i] = actor;
+        actor.setStoreSlot(new Slot(block, i, id));
+        ++_size;
+    }
+
+    /**
+     * Copies the actor's data back into its own fields and frees its slot. The actor is
+     * fully detached before the slot goes back on the free list, so a setter racing with
+     * this can't write into the slot after another actor has been given it.
+     */
+    void unbind(Actor actor) {
+        Slot slot = actor.getStoreSlot();
+        if (slot == null || slot._block._actors[slot._index] != actor) return;
+        Block block = slot._block;
+        int i = slot._index;
+        actor.detachFromStore();
+        block._actors[i] = null;
+        block._driver[i] = -1;
+        if (_numFreeIds == _freeIds.length) {
+            int[] freeIds = new int[_freeIds.length * 2];
+            System.arraycopy(_freeIds, 0, freeIds, 0, _numFreeIds);
+            _freeIds = freeIds;
+        }
+        _freeIds[_numFreeIds++] = slot._id;
+        --_size;
+    }
+
+    void unbindAll() {
+        for (Block block : _blocks) {
+            for (int i = 0; i < BLOCK_SIZE; ++i) {
+                if (block._actors[i] != null) unbind(block._actors[i]);
+            }
+        }
+    }
+
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Marks every actor as not moving this step - setDriver() is then used to
+     * say which root each actor that is part of the world inherits its speed from
+     */
+    void resetDrivers() {
+        for (Block block : _blocks) {
+            int[] driver = block._driver;
+            for (int i = 0; i < BLOCK_SIZE; ++i) driver[i] = -1;
+        }
+        _numAttached = 0;
+    }
+
+    void setDriver(Actor actor, Actor root) {
+        Slot slot = actor.getStoreSlot();
+        Slot rootSlot = root.getStoreSlot();
+        if (slot == null || rootSlot == null) return;
+        slot._block._driver[slot._index] = rootSlot._id;
+        if (slot != rootSlot) ++_numAttached;
+    }
+
+    /**
+     * Integrates acceleration/speed for every root and then moves every actor by its
+     * root's change in position, wrapping it around to the other side of the world if it
+     * went out of bounds. worldEdgeX/worldEdgeY are the start + width/height of the world.
+     *
+     * Attached actors copy their root's delta into their own slot first, so the final pass
+     * only ever reads the arrays of the block it is working on.
+     */
+    void integrate(double deltaSeconds, int worldStartX, int worldStartY, int worldEdgeX, int worldEdgeY) {
+        int numBlocks = _blocks.size();
+        // First pass - roots integrate their own speed
+        for (int b = 0; b < numBlocks; ++b) {
+            Block block = _blocks.get(b);
+            double[] speedX = block._speedX;
+            double[] speedY = block._speedY;
+            double[] accelX = block._accelX;
+            double[] accelY = block._accelY;
+            double[] deltaX = block._deltaX;
+            double[] deltaY = block._deltaY;
+            int[] driver = block._driver;
+            int baseId = b << _BLOCK_SHIFT;
+            for (int i = 0; i < BLOCK_SIZE; ++i) {
+                if (driver[i] != baseId + i) continue; // Not a root
+                speedX[i] += accelX[i] * deltaSeconds;
+                speedY[i] += accelY[i] * deltaSeconds;
+                deltaX[i] = speedX[i] * deltaSeconds;
+                deltaY[i] = speedY[i] * deltaSeconds;
+            }
+        }
+        // Second pass - actors attached to some other root copy its delta into their own slot.
+        // Roots never have a driver other than themselves so the order here doesn't matter.
+        if (_numAttached > 0) {
+            for (int b = 0; b < numBlocks; ++b) {
+                Block block = _blocks.get(b);
+                double[] deltaX = block._deltaX;
+                double[] deltaY = block._deltaY;
+                int[] driver = block._driver;
+                int baseId = b << _BLOCK_SHIFT;
+                for (int i = 0; i < BLOCK_SIZE; ++i) {
+                    int root = driver[i];
+                    if (root < 0 || root == baseId + i) continue;
+                    Block rootBlock = _blocks.get(root >> _BLOCK_SHIFT);
+                    deltaX[i] = rootBlock._deltaX[root & _BLOCK_MASK];
+                    deltaY[i] = rootBlock._deltaY[root & _BLOCK_MASK];
+                }
+            }
+        }
+        // Final pass - everyone moves by their delta and then wraps around
+        for (int b = 0; b < numBlocks; ++b) {
+            Block block = _blocks.get(b);
+            _moveAndWrap(block, Math.min(BLOCK_SIZE, _nextId - (b << _BLOCK_SHIFT)),
+                    worldStartX, worldStartY, worldEdgeX, worldEdgeY);
+        }
+    }
+
+    private static void _moveAndWrap(Block block, int count, int worldStartX, int worldStartY, int worldEdgeX, int worldEdgeY) {
+        double[] x = block._x;
+        double[] y = block._y;
+        double[] width = block._width;
+        double[] height = block._height;
+        double[] moveX = block._moveX;
+        double[] moveY = block._moveY;
+        double[] deltaX = block._deltaX;
+        double[] deltaY = block._deltaY;
+        int[] driver = block._driver;
+        for (int i = 0; i < count; ++i) {
+            // Slots which aren't moving are left alone since their actors may be written to at any time
+            if (driver[i] < 0) continue;
+            double newX = x[i] + deltaX[i] * moveX[i];
+            double newY = y[i] + deltaY[i] * moveY[i];
+            double w = width[i];
+            double h = height[i];
+            x[i] = newX + w < worldStartX ? worldEdgeX - w : (newX > worldEdgeX ? worldStartX : newX);
+            y[i] = newY + h < worldStartY ? worldEdgeY - h : (newY > worldEdgeY ? worldStartY : newY);
+        }
+    }
+}
@@ -108,7 +108,7 @@ public class Animation implements MessageHandler {
             _animationIndexHistories.put(category, 0);
         }
         _animationCategories.get(category).add(file);
-        Engine.getMessagePump().sendMessage(new Message(Constants.REGISTER_TEXTURE, file));
+        Engine.getMessagePump().sendMessage(Constants.REGISTER_TEXTURE, file);
         // If we do not have a current animation sequence, set it to the recently
         // added category and make sure to set the entity's texture
         if (_currentAnimationSequence == null)
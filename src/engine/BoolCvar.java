@@ -0,0 +1,33 @@
+package engine;
+
+/**
+ * A cached, typed handle to a console variable's boolean value. Reading it is a single
+ * volatile read which makes it safe to use in code that runs every frame or every
+ * pulse. Get one from ConsoleVariables.bindBool().
+ *
+ * @author Justin Hall
+ */
+public final class BoolCvar {
+    private final ConsoleVariable _cvar;
+
+    // Package-private
+    BoolCvar(ConsoleVariable cvar) {
+        _cvar = cvar;
+    }
+
+    public boolean get() {
+        return _cvar._cvarBoolVal;
+    }
+
+    public void set(boolean value) {
+        _cvar.setValue(Boolean.toString(value));
+    }
+
+    public String getName() {
+        return _cvar.getcvarName();
+    }
+
+    public ConsoleVariable getConsoleVariable() {
+        return _cvar;
+    }
+}
@@ -0,0 +1,56 @@
+package engine;
+
+/**
+ * A broadphase is the first stage of collision detection. Its only job is to
+ * cheaply throw away pairs of actors which cannot possibly be overlapping so that
+ * the (more expensive) narrowphase only has to look at a small number of candidate
+ * pairs.
+ *
+ * Every physics step the simulation calls beginUpdate(), then update() once for
+ * each actor that is part of the world during that step, and finally endUpdate().
+ * Any actor that was not passed to update() between those two calls is assumed to
+ * have been removed from the world. After endUpdate() returns, the candidate pairs
+ * can be queried partition by partition - partitions are independent of each other
+ * so they can be processed by different threads at the same time.
+ *
+ * A candidate pair may be reported more than once (for example by two different
+ * partitions), so the caller is expected to tolerate duplicates. Pairs where neither
+ * actor listens for the other (see Actor.canInteract()) are never reported.
+ *
+ * @author Justin Hall
+ */
+interface Broadphase {
+    /**
+     * Receives candidate pairs from the broadphase
+     */
+    interface PairCallback {
+        void onCandidatePair(ActorGraph first, ActorGraph second);
+    }
+
+    /**
+     * Starts a new physics step
+     */
+    void beginUpdate();
+
+    /**
+     * Tells the broadphase that the actor is part of the world this step
+     * and that it may have moved since the last step
+     */
+    void update(ActorGraph actor);
+
+    /**
+     * Finishes the physics step - after this the candidate pairs can be queried
+     */
+    void endUpdate();
+
+    /**
+     * @return number of independent partitions the candidate pairs are split into
+     */
+    int getNumPartitions();
+
+    /**
+     * Reports every candidate pair belonging to the given partition. This is safe to call
+     * from multiple threads at once as long as each thread works on a different partition.
+     */
+    void findCandidatePairs(int partition, PairCallback callback);
+}
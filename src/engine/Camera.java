@@ -25,6 +25,13 @@ public class Camera {
     private double _heightScalar = 2;//3.0;
     private double _manualOffsetX = 0.0; // In case something like the mouse is controlling this
     private double _manualOffsetY = 0.0; // In case something like the mouse is controlling this
+    // Bound once rather than looked up every frame
+    private final IntCvar _scrWidth = Engine.getConsoleVariables().bindInt(Constants.SCR_WIDTH);
+    private final IntCvar _scrHeight = Engine.getConsoleVariables().bindInt(Constants.SCR_HEIGHT);
+    private final DoubleCvar _worldWidth = Engine.getConsoleVariables().bindDouble(Constants.WORLD_WIDTH);
+    private final DoubleCvar _worldHeight = Engine.getConsoleVariables().bindDouble(Constants.WORLD_HEIGHT);
+    private final DoubleCvar _worldStartX = Engine.getConsoleVariables().bindDouble(Constants.WORLD_START_X);
+    private final DoubleCvar _worldStartY = Engine.getConsoleVariables().bindDouble(Constants.WORLD_START_Y);
 
     /**
      * Returns the entity that this camera was attached to
@@ -74,7 +81,7 @@ public class Camera {
      */
     public void setAsMainCamera()
     {
-        Engine.getMessagePump().sendMessage(new Message(Constants.SET_MAIN_CAMERA, this));
+        Engine.getMessagePump().sendMessage(Constants.SET_MAIN_CAMERA, this);
     }
 
     /**
@@ -88,8 +95,8 @@ public class Camera {
             _editedEntityLocation.setXYZ(0.0, 0.0, 0.0);
             return _editedEntityLocation;
         }
-        int scrWidth = Engine.getConsoleVariables().find(Constants.SCR_WIDTH).getcvarAsInt();
-        int scrHeight = Engine.getConsoleVariables().find(Constants.SCR_HEIGHT).getcvarAsInt();
+        int scrWidth = _scrWidth.get();
+        int scrHeight = _scrHeight.get();
         _editedEntityLocation.setXYZ(scrWidth / _widthScalar, scrHeight / _heightScalar, 0.0);
         return _editedEntityLocation;
     }
@@ -108,14 +115,14 @@ public class Camera {
             _worldTranslate.setXYZ(_manualOffsetX, _manualOffsetY, 0.0);
             return _worldTranslate;
         }
-        double scrWidth = Engine.getConsoleVariables().find(Constants.SCR_WIDTH).getcvarAsInt();
-        double scrHeight = Engine.getConsoleVariables().find(Constants.SCR_HEIGHT).getcvarAsInt();
+        double scrWidth = _scrWidth.get();
+        double scrHeight = _scrHeight.get();
         double scrWidthModified = scrWidth / _widthScalar;
         double scrHeightModified = scrHeight / _heightScalar;
-        double worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsFloat();
-        double worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsFloat();
-        double worldStartX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsFloat();
-        double worldStartY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsFloat();
+        double worldWidth = _worldWidth.get();
+        double worldHeight = _worldHeight.get();
+        double worldStartX = _worldStartX.get();
+        double worldStartY = _worldStartY.get();
         double worldEndX = worldWidth + worldStartX;
         double worldEndY = worldHeight + worldStartY;
         double locX = _attachedTo.getLocationX();
@@ -5,6 +5,11 @@ import java.util.HashSet;
 /**
  * This is used by the PhysicsSimulation component to notify an object
  * that it has collided/overlapped with another object.
+ *
+ * Callbacks are run on the task manager's threads right after each physics step. All of
+ * the callbacks for a given actor run on the same thread, but different actors are handled
+ * at the same time, so anything a callback does to the other actors (or to shared state)
+ * needs to be thread safe.
  */
 public interface CollisionEventCallback {
     /**
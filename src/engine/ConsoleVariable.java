@@ -1,9 +1,7 @@
 package engine;
 
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents an individual key-value console variable and
@@ -30,18 +28,20 @@ public class ConsoleVariable {
     private AtomicReference<String> _cvarName;
     private AtomicReference<String> _defaultValue;
     private AtomicReference<String> _cvarValue; // Raw String value
-    private AtomicInteger _cvarIntVal; // Defaults to -1 if _cvarValue cannot be casted
-    private AtomicReference<Double> _cvarFloatVal; // Defaults to -1.0 if _cvarValue cannot be casted
-    private AtomicBoolean _cvarBoolVal; // Defaults to false
+    // The casted values are plain volatile primitives so that reading them never unboxes
+    volatile int _cvarIntVal; // Defaults to -1 if _cvarValue cannot be casted
+    volatile double _cvarFloatVal; // Defaults to -1.0 if _cvarValue cannot be casted
+    volatile boolean _cvarBoolVal; // Defaults to false
     private AtomicInteger _numEdits; // Number of times this variable was edited
+    // Handles are created on first bind and then shared by everyone who binds this variable
+    private volatile IntCvar _intHandle;
+    private volatile DoubleCvar _doubleHandle;
+    private volatile BoolCvar _boolHandle;
 
     {
         _cvarName = new AtomicReference<>("");
         _defaultValue = new AtomicReference<>("");
         _cvarValue = new AtomicReference<>("");
-        _cvarIntVal = new AtomicInteger();
-        _cvarBoolVal = new AtomicBoolean(false);
-        _cvarFloatVal = new AtomicReference<>();
         _numEdits = new AtomicInteger(0);
     }
 
@@ -114,7 +114,7 @@ public class ConsoleVariable {
      */
     public int getcvarAsInt()
     {
-        return _cvarIntVal.get();
+        return _cvarIntVal;
     }
 
     /**
@@ -123,12 +123,12 @@ public class ConsoleVariable {
      */
     public double getcvarAsFloat()
     {
-        return _cvarFloatVal.get();
+        return _cvarFloatVal;
     }
 
     public boolean getcvarAsBool()
     {
-        return _cvarBoolVal.get();
+        return _cvarBoolVal;
     }
 
     /**
@@ -149,34 +149,79 @@ public class ConsoleVariable {
         _defaultValue.set(defaultValue);
     }
 
+    // Package-private - see ConsoleVariables.bindInt()
+    IntCvar getIntHandle()
+    {
+        IntCvar handle = _intHandle;
+        if (handle == null)
+        {
+            synchronized (this)
+            {
+                if (_intHandle == null) _intHandle = new IntCvar(this);
+                handle = _intHandle;
+            }
+        }
+        return handle;
+    }
+
+    // Package-private - see ConsoleVariables.bindDouble()
+    DoubleCvar getDoubleHandle()
+    {
+        DoubleCvar handle = _doubleHandle;
+        if (handle == null)
+        {
+            synchronized (this)
+            {
+                if (_doubleHandle == null) _doubleHandle = new DoubleCvar(this);
+                handle = _doubleHandle;
+            }
+        }
+        return handle;
+    }
+
+    // Package-private - see ConsoleVariables.bindBool()
+    BoolCvar getBoolHandle()
+    {
+        BoolCvar handle = _boolHandle;
+        if (handle == null)
+        {
+            synchronized (this)
+            {
+                if (_boolHandle == null) _boolHandle = new BoolCvar(this);
+                handle = _boolHandle;
+            }
+        }
+        return handle;
+    }
+
     private void _setValueNoMessageDispatch(String value)
     {
         _numEdits.getAndIncrement();
         _cvarValue.set(value);
         try
         {
-            _cvarIntVal.set(Integer.parseInt(value));
+            _cvarIntVal = Integer.parseInt(value);
         }
         catch (Exception e)
         {
-            _cvarIntVal.set(-1);
+            _cvarIntVal = -1;
         }
         try
         {
-            _cvarFloatVal.set(Double.parseDouble(value));
+            _cvarFloatVal = Double.parseDouble(value);
         }
         catch (Exception e)
         {
-            _cvarFloatVal.set(-1.0);
+            _cvarFloatVal = -1.0;
         }
         // Try to cast it to a boolean
         try
         {
-            _cvarBoolVal.set(Boolean.parseBoolean(value));
+            _cvarBoolVal = Boolean.parseBoolean(value);
         }
         catch (Exception e)
         {
-            _cvarBoolVal.set(false);
+            _cvarBoolVal = false;
         }
     }
 
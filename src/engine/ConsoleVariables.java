@@ -118,6 +118,41 @@ public class ConsoleVariables {
         return null;
     }
 
+    /**
+     * Returns a handle which reads the variable's integer value without any lookup, boxing
+     * or allocation - bind once (for example during init) and then call get() as often as needed.
+     * The handle stays attached to the variable that was registered at the time of the call.
+     *
+     * Warning! This can return null if the variable has not been registered!
+     */
+    public IntCvar bindInt(String cvar)
+    {
+        ConsoleVariable variable = find(cvar);
+        return variable == null ? null : variable.getIntHandle();
+    }
+
+    /**
+     * See bindInt()
+     *
+     * Warning! This can return null if the variable has not been registered!
+     */
+    public DoubleCvar bindDouble(String cvar)
+    {
+        ConsoleVariable variable = find(cvar);
+        return variable == null ? null : variable.getDoubleHandle();
+    }
+
+    /**
+     * See bindInt()
+     *
+     * Warning! This can return null if the variable has not been registered!
+     */
+    public BoolCvar bindBool(String cvar)
+    {
+        ConsoleVariable variable = find(cvar);
+        return variable == null ? null : variable.getBoolHandle();
+    }
+
     /**
      * Removes all console variables
      */
@@ -70,6 +70,9 @@ public class Constants {
     // This message gets broadcast whenever the camera zoom is changed, and the data part
     // of the message will be a Double containing the new zoom level
     public static final String CAMERA_ZOOM_CHANGED = "camera_zoom_changed";
+    // Sets the folder captured frames are written to, which takes priority over r_capture_dir. The data
+    // part of the message is the folder as a String (null goes back to using r_capture_dir).
+    public static final String SET_CAPTURE_DIRECTORY = "set_capture_directory";
 
     /**
      * The following are console variables that will be registered at startup
@@ -93,6 +96,25 @@ public class Constants {
     // This value can be cast to an int - 60 fps, for example, means the simulation.engine will not
     // update more than 60 times per second
     public static final String ENG_MAX_FPS = "eng_max_fps";
+    // This value can be cast to a double - if greater than 0 and running headless, every frame advances
+    // the simulation by exactly this many seconds and frames are run back to back instead of following the clock
+    public static final String ENG_FIXED_DT = "eng_fixed_dt";
+    // Seed for Engine.getRandom() - leave empty to seed from the current time
+    public static final String ENG_RANDOM_SEED = "eng_random_seed";
+    // This value can be cast to a boolean - "true" splits the pulse entities across the logic threads
+    // each frame. Messages sent while pulsing (including adding/removing from the world) are held back
+    // and passed on in the usual order once every entity has been pulsed, and Engine.getRandom()
+    // hands each task its own generator (seeded from the main one). Anything else pulse entities share
+    // has to be thread safe. Ignored when eng_fixed_dt is set - which actor ids and pooled actors the
+    // entities get would depend on thread scheduling, so fixed step runs always pulse serially.
+    public static final String ENG_PARALLEL_PULSE = "eng_parallel_pulse";
+    // This value can be cast to a boolean - "true" makes Engine.getProfiler() record per-phase frame
+    // timings and counts (see FrameProfiler). In fixed step mode physics and drawing happen while
+    // messages are dispatched, so they are included in the dispatch_messages time as well.
+    public static final String ENG_PROFILE = "eng_profile";
+    // This value can be cast to a boolean - "true" shows the profiler's numbers on screen while
+    // eng_profile is on (ignored when headless)
+    public static final String ENG_PROFILE_OVERLAY = "eng_profile_overlay";
     // Where the world starts in terms of x and y
     public static final String WORLD_START_X = "world_start_x";
     public static final String WORLD_START_Y = "world_start_y";
@@ -113,4 +135,19 @@ public class Constants {
     public static final String ALLOW_MOUSE_SCROLL = "allow_mouse_scroll";
     // Allows you to set the engine's time scaling factor to speed up, slow down or pause the engine
     public static final String TIME_SCALING_FACTOR = "time_scaling_factor";
+    // Selects the collision broadphase used by the physics simulation. Valid values are
+    // "quadtree" (rebuilt every step), "sap" (incremental sort-and-sweep) and "grid" (uniform spatial hash grid)
+    public static final String PHYS_BROADPHASE = "phys_broadphase";
+    // Width/height of a single cell of the spatial hash grid - should be a little larger than most actors
+    public static final String PHYS_GRID_CELL_SIZE = "phys_grid_cell_size";
+    // If true the physics simulation moves actor positions/speeds/sizes into packed arrays
+    public static final String PHYS_PACKED_ACTORS = "phys_packed_actors";
+    // This value can be cast to a double - if greater than 0 and running headless, the whole world is drawn
+    // to an offscreen image every time this many simulated seconds pass and saved as a png
+    public static final String R_CAPTURE_INTERVAL = "r_capture_interval";
+    // Folder captured frames are written to - if empty (and the application didn't send SET_CAPTURE_DIRECTORY)
+    // each engine writes to its own numbered folder under captures/
+    public static final String R_CAPTURE_DIR = "r_capture_dir";
+    // Width of captured frames in pixels - the height is picked to match the shape of the world
+    public static final String R_CAPTURE_WIDTH = "r_capture_width";
 }
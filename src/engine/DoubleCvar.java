@@ -0,0 +1,33 @@
+package engine;
+
+/**
+ * A cached, typed handle to a console variable's double value. Reading it is a single
+ * volatile read which makes it safe to use in code that runs every frame or every
+ * pulse. Get one from ConsoleVariables.bindDouble().
+ *
+ * @author Justin Hall
+ */
+public final class DoubleCvar {
+    private final ConsoleVariable _cvar;
+
+    // Package-private
+    DoubleCvar(ConsoleVariable cvar) {
+        _cvar = cvar;
+    }
+
+    public double get() {
+        return _cvar._cvarFloatVal;
+    }
+
+    public void set(double value) {
+        _cvar.setValue(Double.toString(value));
+    }
+
+    public String getName() {
+        return _cvar.getcvarName();
+    }
+
+    public ConsoleVariable getConsoleVariable() {
+        return _cvar;
+    }
+}
@@ -7,16 +7,18 @@ import javafx.stage.Stage;
 
 import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * The engine is a singleton class as there should never be more than
- * one instance during an application. It is responsible for the startup
- * and shutdown of all subsystems which comprise the application, and from
- * there it drives the system in real time (30-60+ updates per second).
+ * The engine is responsible for the startup and shutdown of all subsystems
+ * which comprise the application, and from there it drives the system in
+ * real time (30-60+ updates per second). Usually there is only one engine,
+ * but several can run in the same process (see the end of this comment).
  *
  * Notable functions include:
  *      getMessagePump()
@@ -35,68 +37,181 @@ import java.util.concurrent.atomic.AtomicReference;
  * Be aware that this class is meant to be the central point of startup for
  * the process, and as such it has implemented a main method.
  *
+ * When running headless with eng_fixed_dt set to a value greater than 0 the engine
+ * stops looking at the wall clock entirely. Frames are run back to back with a delta
+ * of exactly eng_fixed_dt seconds, physics is run synchronously as part of the frame
+ * and the frame waits for every logic entity to be processed once before it ends.
+ * Combined with eng_random_seed and getRandom() this makes a run repeatable.
+ *
+ * Multiple engines can run side by side in the same process (see EngineLoop.startHeadless).
+ * The static accessors below always refer to the engine the calling thread is working
+ * for - engine threads and tasks submitted through the engine's task manager carry that
+ * engine with them. Threads which don't belong to any engine (ex: the JavaFX thread) see
+ * the most recently started one.
+ *
  * @author Justin Hall
  */
 public class Engine implements PulseEntity, MessageHandler {
-    private static volatile Engine _engine; // Self-reference
-    private static volatile boolean _isInitialized = false;
+    private static volatile Engine _defaultEngine; // Most recently started engine
+    // Engine the current thread is working for - overrides _defaultEngine when set
+    private static final ThreadLocal<Engine> _currentEngine = new ThreadLocal<>();
+    // Used for actors created before any engine exists
+    private static final AtomicLong _globalActorIds = new AtomicLong(0);
+    private volatile boolean _isInitialized = false;
     // Package private
     static final String R_RENDER_SCENE = "r_render_screen";
     static final String R_UPDATE_ENTITIES = "r_update_entities";
+    // Carries a WorldCommandBuffer.Batch
+    static final String APPLY_WORLD_COMMANDS = "apply_world_commands";
 
     private Stage _initialStage;
-    private HashSet<PulseEntity> _pulseEntities;
+    // Linked so that entities are always pulsed in the order they were added
+    private LinkedHashSet<PulseEntity> _pulseEntities;
     private ApplicationEntryPoint _application;
     private AtomicReference<MessagePump> _messageSystem = new AtomicReference<>();
+    private final WorldCommandBuffer _worldCommands = new WorldCommandBuffer();
+    private final FrameProfiler _profiler = new FrameProfiler();
     private AtomicReference<ConsoleVariables> _cvarSystem = new AtomicReference<>();
     private AtomicReference<TaskManager> _taskManager = new AtomicReference<>();
     private Window _window;
     private Renderer _renderer;
-    private ConcurrentHashMap<TaskManager.Counter, Callback> _taskCallbackMap = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<LogicEntity, LogicEntityTask> _registeredLogicEntities = new ConcurrentHashMap<>();
+    // Callbacks whose tasks have finished - pushed by the worker which finished the last task
+    private final ConcurrentLinkedQueue<Callback> _completedCallbacks = new ConcurrentLinkedQueue<>();
+    // Only touched by the thread running the game loop - tasks work off of _logicEntityArray
+    private final LinkedHashMap<LogicEntity, LogicEntityState> _registeredLogicEntities = new LinkedHashMap<>();
     private Filesystem _fileSys;
     private volatile int _maxFrameRate;
     private final int _maxMessageQueueProcessingRate = 240; // Measures in Hertz, i.e. times per second
     private double _timeScalingFactor = 1.0;
+    private DoubleCvar _timeScalingCvar;
     private volatile long _lastMessageQueueFrameTimeMS;
     private volatile long _lastFrameTimeMS;
     private volatile boolean _isRunning = false;
+    private volatile Exception _failure = null; // First exception to escape a frame
     private volatile boolean _updateEntities = true; // If false, nothing is allowed to move
     private volatile boolean _requiresRestart = false;
     private volatile boolean _headless = false;
     private volatile boolean _initializing = false;
     private volatile boolean _pendingShutdown = false;
+    private volatile double _fixedDeltaSeconds = 0.0; // 0 means use the wall clock
+    private volatile Random _random = null; // Created on first use
+    private final AtomicLong _nextActorId = new AtomicLong(0);
+    private volatile long _frameNumber = 0; // Incremented once per pulse
+    // See eng_parallel_pulse
+    private static final int _MIN_PARALLEL_PULSE_ENTITIES = 64;
+    private static final int _PULSE_TASKS_PER_THREAD = 4;
+    // With a fixed timestep the logic phase is always split into this many tasks, no matter how many
+    // threads there are, so that every task (and so every seeded Random) covers the same entities on
+    // any machine
+    private static final int _FIXED_STEP_NUM_TASKS = 32;
+    private volatile boolean _parallelPulse = false;
+    private final ArrayList<PulseTask> _pulseTasks = new ArrayList<>();
+    private Task[] _pulseTaskArray = new Task[0];
+    private PulseEntity[] _pulseArray = new PulseEntity[0];
+    // Set while a pulse or logic task is running on the current thread - see getRandom()
+    private final ThreadLocal<Random> _taskRandom = new ThreadLocal<>();
+    // Logic entity phase - see _runLogicPhase()
+    private static final int _LOGIC_TASKS_PER_THREAD = 4;
+    private final ArrayList<LogicTask> _logicTasks = new ArrayList<>();
+    private Task[] _logicTaskArray = new Task[0];
+    private LogicEntityState[] _logicEntityArray = new LogicEntityState[0];
+    private int _numLogicEntities = 0;
+    private boolean _logicEntitiesChanged = false;
+    private TaskManager.Counter _logicPhase = null; // Last phase submitted while running in real time
+    private long _lastLogicPhaseNSec;
+    // True if the task manager was handed to us and is shared with other engines
+    private final boolean _sharedTaskManager;
+    private final boolean _forceHeadless;
     private Runnable _gameLoop;
 
-    // Wrapper around each logic entity
-    private class LogicEntityTask implements Task {
-        private LogicEntity _entity;
-        private Engine _engine;
-        private long _startTimeNSec;
+    // Per logic entity bookkeeping for entities which don't update every tick
+    private static class LogicEntityState {
+        final LogicEntity _entity;
+        int _ticksUntilUpdate = 0;
+        double _pendingSeconds = 0.0; // Time since the entity was last processed
 
-        LogicEntityTask(LogicEntity entity, Engine engine) {
+        LogicEntityState(LogicEntity entity) {
             _entity = entity;
-            _engine = engine;
-            _startTimeNSec = System.nanoTime();
+        }
+    }
+
+    // Processes one contiguous range of _logicEntityArray during the logic phase
+    private class LogicTask implements Task {
+        private final Random _random = new Random();
+        private int _start;
+        private int _end;
+        private double _deltaSeconds;
+
+        void setRange(int start, int end, double deltaSeconds, long seed) {
+            _start = start;
+            _end = end;
+            _deltaSeconds = deltaSeconds;
+            _random.setSeed(seed);
+        }
+
+        @Override
+        public void execute() {
+            _taskRandom.set(_random);
+            try {
+                _processRange();
+            }
+            finally {
+                _taskRandom.remove();
+            }
+        }
+
+        private void _processRange() {
+            for (int i = _start; i < _end; ++i) {
+                LogicEntityState state = _logicEntityArray[i];
+                state._pendingSeconds += _deltaSeconds;
+                if (state._ticksUntilUpdate > 0) {
+                    --state._ticksUntilUpdate;
+                    continue;
+                }
+                state._ticksUntilUpdate = Math.max(1, state._entity.getUpdateInterval()) - 1;
+                double deltaSeconds = state._pendingSeconds;
+                state._pendingSeconds = 0.0;
+                try {
+                    state._entity.process(deltaSeconds);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Pulses a contiguous range of _pulseArray during a parallel pulse
+    private class PulseTask implements Task {
+        private final MessagePump.DeferredMessages _messages = new MessagePump.DeferredMessages();
+        private final Random _random = new Random();
+        private int _start;
+        private int _end;
+        private double _deltaSeconds;
+
+        void setRange(int start, int end, double deltaSeconds, long seed) {
+            _start = start;
+            _end = end;
+            _deltaSeconds = deltaSeconds;
+            _random.setSeed(seed);
         }
 
-        LogicEntity getLogicEntity() {
-            return _entity;
+        MessagePump.DeferredMessages getMessages() {
+            return _messages;
         }
 
         @Override
         public void execute() {
-            long currTimeNSec = System.nanoTime();
-            long elapsedNSec = currTimeNSec - _startTimeNSec;
-            double deltaSeconds = elapsedNSec / 1000000000.0;
-            _startTimeNSec = currTimeNSec;
+            MessagePump pump = getMessagePump();
+            pump.beginDeferring(_messages);
+            _taskRandom.set(_random);
             try {
-                _entity.process(deltaSeconds * _timeScalingFactor);
+                for (int i = _start; i < _end; ++i) _pulseArray[i].pulse(_deltaSeconds);
             }
-            catch (Exception e) {
-                e.printStackTrace();
+            finally {
+                _taskRandom.remove();
+                pump.endDeferring();
             }
-            _engine._notifyOfLogicTaskCompletion(this);
         }
     }
 
@@ -104,6 +219,59 @@ public class Engine implements PulseEntity, MessageHandler {
     // engine
     Engine()
     {
+        _sharedTaskManager = false;
+        _forceHeadless = false;
+    }
+
+    /**
+     * Creates an engine which always runs headless and submits all of its work to the
+     * given task manager instead of creating its own. The task manager is not stopped
+     * when the engine shuts down.
+     */
+    Engine(TaskManager sharedTaskManager)
+    {
+        _sharedTaskManager = true;
+        _forceHeadless = true;
+        _taskManager.set(sharedTaskManager);
+    }
+
+    // Package private - returns the engine the calling thread is working for
+    static Engine getCurrentEngine()
+    {
+        Engine engine = _currentEngine.get();
+        return engine != null ? engine : _defaultEngine;
+    }
+
+    // Package private - makes the calling thread work for the given engine (null clears it) and
+    // returns the engine it was working for before
+    static Engine setCurrentEngine(Engine engine)
+    {
+        Engine previous = _currentEngine.get();
+        if (engine == null) _currentEngine.remove();
+        else _currentEngine.set(engine);
+        return previous;
+    }
+
+    // Package private - next actor id for whichever engine is active on this thread
+    static long nextActorId()
+    {
+        Engine engine = getCurrentEngine();
+        return engine == null ? _globalActorIds.getAndIncrement() : engine._nextActorId.getAndIncrement();
+    }
+
+    /**
+     * @return number of frames the active engine has run so far
+     */
+    public static long getFrameNumber()
+    {
+        return getCurrentEngine()._frameNumber;
+    }
+
+    // Package private - number of physics steps the active engine has finished
+    static long getPhysicsStepCount()
+    {
+        Renderer renderer = getCurrentEngine()._renderer;
+        return renderer == null ? 0 : renderer.getPhysicsStepCount();
     }
 
     /**
@@ -115,7 +283,23 @@ public class Engine implements PulseEntity, MessageHandler {
      */
     public static MessagePump getMessagePump()
     {
-        return _engine._messageSystem.get();
+        return getCurrentEngine()._messageSystem.get();
+    }
+
+    /**
+     * Returns the frame profiler - it only records anything while eng_profile is set
+     */
+    public static FrameProfiler getProfiler()
+    {
+        return getCurrentEngine()._profiler;
+    }
+
+    /**
+     * Returns the buffer that spawns/despawns are batched in - see WorldCommandBuffer
+     */
+    public static WorldCommandBuffer getWorldCommands()
+    {
+        return getCurrentEngine()._worldCommands;
     }
 
     /**
@@ -123,14 +307,14 @@ public class Engine implements PulseEntity, MessageHandler {
      */
     public static ConsoleVariables getConsoleVariables()
     {
-        return _engine._cvarSystem.get();
+        return getCurrentEngine()._cvarSystem.get();
     }
 
     /**
      * Returns the engine's file system for opening and manipulating files.
      */
     public static Filesystem getFileSystem() {
-        return _engine._fileSys;
+        return getCurrentEngine()._fileSys;
     }
 
     /**
@@ -143,12 +327,60 @@ public class Engine implements PulseEntity, MessageHandler {
      *                 (this will always be called on the main application thread to avoid synchronization issues)
      */
     public static void scheduleLogicTasks(Callback callback, Task ... tasks) {
-        TaskManager.Counter counter = _engine._taskManager.get().submitTasks(tasks);
-        if (callback != null) {
-            _engine._taskCallbackMap.put(counter, callback);
+        Engine engine = getCurrentEngine();
+        if (callback == null) engine._taskManager.get().submitTasks(tasks);
+        else engine._taskManager.get().submitTasks(() -> engine._completedCallbacks.add(callback), tasks);
+    }
+
+    /**
+     * Same as scheduleLogicTasks() but for a graph of dependent jobs (see JobGraph)
+     * @param callback this can be null - function to call on the main application thread once every
+     *                 job in the graph has completed
+     */
+    public static void scheduleLogicGraph(Callback callback, JobGraph graph) {
+        Engine engine = getCurrentEngine();
+        if (callback == null) engine._taskManager.get().submitGraph(graph);
+        else engine._taskManager.get().submitGraph(() -> engine._completedCallbacks.add(callback), graph);
+    }
+
+    // Package private - lets engine subsystems split their own work across the logic threads
+    static TaskManager getTaskManager() {
+        return getCurrentEngine()._taskManager.get();
+    }
+
+    /**
+     * Returns the engine's random number generator. If eng_random_seed is set, the generator
+     * is seeded with it the first time this is called, so make sure any config files setting it
+     * have been loaded before then. Always use this rather than creating your own Random if the
+     * simulation needs to be repeatable.
+     *
+     * While processing logic entities (or pulsing in parallel) this returns a generator which
+     * belongs to the chunk of entities being worked on. Each is re-seeded from the main one at the
+     * start of the phase, so in fixed step mode the numbers an entity sees don't depend on which
+     * thread runs it or on how many threads there are.
+     */
+    public static Random getRandom() {
+        Engine engine = getCurrentEngine();
+        // Pulse/logic tasks each have their own generator so they never share one across threads
+        Random random = engine._taskRandom.get();
+        if (random != null) return random;
+        random = engine._random;
+        if (random != null) return random;
+        synchronized (engine) {
+            if (engine._random == null) {
+                ConsoleVariable seed = getConsoleVariables().find(Constants.ENG_RANDOM_SEED);
+                if (seed == null || seed.getcvarValue().isEmpty()) engine._random = new Random();
+                else engine._random = new Random(Long.parseLong(seed.getcvarValue()));
+            }
+            return engine._random;
         }
     }
 
+    // Package private - true if the engine is stepping with eng_fixed_dt instead of the wall clock
+    static boolean isFixedTimestep() {
+        return getCurrentEngine()._fixedDeltaSeconds > 0;
+    }
+
     public void start(ApplicationEntryPoint application) {
         synchronized(this) {
             if (_isRunning) return; // Already running
@@ -163,13 +395,18 @@ public class Engine implements PulseEntity, MessageHandler {
                     }
                     try {
                         if (_initializing) return; // Engine is not ready to run
+                        if (_fixedDeltaSeconds > 0) {
+                            _runFixedStepFrame();
+                            return;
+                        }
                         long currentTimeMS = System.currentTimeMillis();
                         double deltaSeconds = (currentTimeMS - _lastFrameTimeMS) / 1000.0;
-                        _timeScalingFactor = Engine.getConsoleVariables().find(Constants.TIME_SCALING_FACTOR).getcvarAsFloat();
+                        _timeScalingFactor = _timeScalingCvar.get();
                         // Don't pulse faster than the maximum refresh rate
                         if (deltaSeconds >= (1.0 / _maxFrameRate)) {
                             pulse(deltaSeconds * _timeScalingFactor);
                             _lastFrameTimeMS = currentTimeMS;
+                            _startRealTimeLogicPhase();
                         }
                         // Message processing happens at a very fast rate, i.e. 240 times per second
                         // to ensure high degree of responsiveness
@@ -180,6 +417,10 @@ public class Engine implements PulseEntity, MessageHandler {
                             _lastMessageQueueFrameTimeMS = currentTimeMS;
                         }
                     }
+                    catch (RuntimeException e) {
+                        if (_failure == null) _failure = e;
+                        throw e;
+                    }
                     finally {
                         if (_requiresRestart) {
                             _softRestart();
@@ -202,35 +443,89 @@ public class Engine implements PulseEntity, MessageHandler {
         else Platform.runLater(runnable);
     }
 
+    // Runs a single frame without looking at the clock - every frame advances the simulation by
+    // exactly eng_fixed_dt seconds and the next frame is started as soon as this one is done
+    private void _runFixedStepFrame() {
+        _timeScalingFactor = _timeScalingCvar.get();
+        // Messages from the last frame (including physics) are handled before anything else moves
+        _processMessages();
+        _processCompletedTasks();
+        double deltaSeconds = _fixedDeltaSeconds * _timeScalingFactor;
+        pulse(deltaSeconds);
+        _runLogicPhase(deltaSeconds, true);
+    }
+
+    /**
+     * Processes every registered logic entity once, split into chunks across the logic threads, with
+     * everyone getting the same delta. Entities with an update interval greater than 1 are skipped
+     * on the ticks in between and get the time they missed added to their next delta.
+     *
+     * In fixed step mode this waits for all of them to finish before returning. In real time the
+     * phase runs alongside the rest of the frame and the next one is only started once it is done,
+     * so if the logic entities can't keep up they are processed less often (with a bigger delta).
+     */
+    private void _runLogicPhase(double deltaSeconds, boolean waitForCompletion) {
+        if (_logicPhase != null) {
+            if (!_logicPhase.isComplete()) return;
+            _logicPhase = null;
+        }
+        if (_logicEntitiesChanged) {
+            // Only rebuilt between phases so running tasks never see the array change
+            _numLogicEntities = _registeredLogicEntities.size();
+            if (_logicEntityArray.length < _numLogicEntities) _logicEntityArray = new LogicEntityState[_numLogicEntities * 2];
+            int index = 0;
+            for (LogicEntityState state : _registeredLogicEntities.values()) _logicEntityArray[index++] = state;
+            for (int i = _numLogicEntities; i < _logicEntityArray.length; ++i) _logicEntityArray[i] = null;
+            _logicEntitiesChanged = false;
+        }
+        if (_numLogicEntities == 0) return;
+        TaskManager taskManager = _taskManager.get();
+        int numTasks = _fixedDeltaSeconds > 0 ? _FIXED_STEP_NUM_TASKS : taskManager.getNumThreads() * _LOGIC_TASKS_PER_THREAD;
+        if (numTasks > _numLogicEntities) numTasks = _numLogicEntities;
+        while (_logicTasks.size() < numTasks) _logicTasks.add(new LogicTask());
+        if (_logicTaskArray.length != numTasks) {
+            _logicTaskArray = new Task[numTasks];
+            for (int i = 0; i < numTasks; ++i) _logicTaskArray[i] = _logicTasks.get(i);
+        }
+        int entitiesPerTask = _numLogicEntities / numTasks;
+        int remainder = _numLogicEntities % numTasks;
+        int start = 0;
+        Random random = getRandom();
+        for (int i = 0; i < numTasks; ++i) {
+            int end = start + entitiesPerTask + (i < remainder ? 1 : 0);
+            _logicTasks.get(i).setRange(start, end, deltaSeconds, random.nextLong());
+            start = end;
+        }
+        long phaseStart = _profiler.begin();
+        Runnable onComplete = phaseStart == 0 ? null : () -> _profiler.end(FrameProfiler.LOGIC_ENTITIES, phaseStart);
+        TaskManager.Counter counter = taskManager.submitTasks(onComplete, _logicTaskArray);
+        if (counter == null) return; // Task manager is shutting down
+        if (waitForCompletion) counter.waitForCompletion();
+        else _logicPhase = counter;
+    }
+
     private void _processMessages() {
         // Check if any console variables changed and send messages for any that have
         ArrayList<ConsoleVariable> changedVars = getConsoleVariables().getVariableChangesSinceLastCall();
         for (ConsoleVariable cvar : changedVars)
         {
-            _messageSystem.get().sendMessage(new Message(Constants.CONSOLE_VARIABLE_CHANGED, cvar));
+            _messageSystem.get().sendMessage(Constants.CONSOLE_VARIABLE_CHANGED, cvar);
         }
         // Make sure we keep the messages flowing
-        getMessagePump().dispatchMessages();
+        long start = _profiler.begin();
+        int numMessages = getMessagePump().dispatchMessages();
+        _profiler.end(FrameProfiler.DISPATCH_MESSAGES, start);
+        _profiler.recordCount(FrameProfiler.MESSAGES, numMessages);
     }
 
     private void _processCompletedTasks() {
-        // See if any tasks have finished on the logic threads and notify the caller if so
-        LinkedList<TaskManager.Counter> _completedCounters = new LinkedList<>();
-        // numCounters takes a snapshot of the task callback map so that we are guaranteed to
-        // only process a finite number of them during a given frame
-        int numCounters = _taskCallbackMap.size();
-        for (Map.Entry<TaskManager.Counter, Callback> entry : _taskCallbackMap.entrySet()) {
-            if (numCounters == 0) break;
-            if (entry.getKey().isComplete()) {
-                // Notify of task completion
-                entry.getValue().handleCallback();
-                _completedCounters.add(entry.getKey());
-            }
-            --numCounters;
-        }
-        // Remove any completed counters
-        for (TaskManager.Counter counter : _completedCounters) {
-            _taskCallbackMap.remove(counter);
+        // Workers queue up the callbacks as their tasks finish, so there is nothing to poll. numCallbacks
+        // takes a snapshot so that we are guaranteed to only process a finite number of them during a given frame
+        int numCallbacks = _completedCallbacks.size();
+        for (int i = 0; i < numCallbacks; ++i) {
+            Callback callback = _completedCallbacks.poll();
+            if (callback == null) break;
+            callback.handleCallback();
         }
     }
 
@@ -239,12 +534,57 @@ public class Engine implements PulseEntity, MessageHandler {
      */
     @Override
     public void pulse(double deltaSeconds) {
-        if (_updateEntities) getMessagePump().sendMessage(new Message(Engine.R_UPDATE_ENTITIES, deltaSeconds));
-        getMessagePump().sendMessage(new Message(Engine.R_RENDER_SCENE, deltaSeconds));
-        for (PulseEntity entity : _pulseEntities)
-        {
-            entity.pulse(deltaSeconds);
+        ++_frameNumber;
+        _profiler.beginFrame(_pulseEntities.size());
+        if (_updateEntities) getMessagePump().sendMessage(Engine.R_UPDATE_ENTITIES, deltaSeconds);
+        getMessagePump().sendMessage(Engine.R_RENDER_SCENE, deltaSeconds);
+        long start = _profiler.begin();
+        // Pulse entities spawn actors, and the ids/pooled actors they get would depend on thread
+        // scheduling, so a fixed step run always pulses serially to stay repeatable
+        if (_parallelPulse && _fixedDeltaSeconds == 0 && _pulseEntities.size() >= _MIN_PARALLEL_PULSE_ENTITIES
+                && _taskManager.get().getNumThreads() > 1) {
+            _pulseInParallel(deltaSeconds);
+        }
+        else {
+            for (PulseEntity entity : _pulseEntities)
+            {
+                entity.pulse(deltaSeconds);
+            }
+        }
+        _profiler.end(FrameProfiler.PULSE, start);
+    }
+
+    private void _pulseInParallel(double deltaSeconds) {
+        int numEntities = _pulseEntities.size();
+        if (_pulseArray.length < numEntities) _pulseArray = new PulseEntity[numEntities * 2];
+        int index = 0;
+        for (PulseEntity entity : _pulseEntities) _pulseArray[index++] = entity;
+        TaskManager taskManager = _taskManager.get();
+        int numTasks = Math.min(numEntities, taskManager.getNumThreads() * _PULSE_TASKS_PER_THREAD);
+        while (_pulseTasks.size() < numTasks) _pulseTasks.add(new PulseTask());
+        if (_pulseTaskArray.length != numTasks) {
+            _pulseTaskArray = new Task[numTasks];
+            for (int i = 0; i < numTasks; ++i) _pulseTaskArray[i] = _pulseTasks.get(i);
         }
+        int entitiesPerTask = numEntities / numTasks;
+        int remainder = numEntities % numTasks;
+        int start = 0;
+        Random random = getRandom();
+        for (int i = 0; i < numTasks; ++i) {
+            int end = start + entitiesPerTask + (i < remainder ? 1 : 0);
+            _pulseTasks.get(i).setRange(start, end, deltaSeconds, random.nextLong());
+            start = end;
+        }
+        TaskManager.Counter counter = taskManager.submitTasks(_pulseTaskArray);
+        if (counter == null) {
+            // Task manager is shutting down so just run everything here
+            for (Task task : _pulseTaskArray) task.execute();
+        }
+        else counter.waitForCompletion();
+        // Hand over what each task sent in the same order a serial pulse would have sent it
+        MessagePump pump = getMessagePump();
+        for (int i = 0; i < numTasks; ++i) pump.flushDeferred(_pulseTasks.get(i).getMessages());
+        for (int i = 0; i < numEntities; ++i) _pulseArray[i] = null;
     }
 
     @Override
@@ -260,6 +600,16 @@ public class Engine implements PulseEntity, MessageHandler {
             case Constants.REMOVE_ALL_PULSE_ENTITIES:
                 _pulseEntities.clear();
                 break;
+            case APPLY_WORLD_COMMANDS:
+            {
+                WorldCommandBuffer.Batch batch = (WorldCommandBuffer.Batch)message.getMessageData();
+                for (int i = 0; i < batch.size(); ++i) {
+                    byte op = batch.getOperation(i);
+                    if (op == WorldCommandBuffer.ADD_PULSE_ENTITY) _registerPulseEntity((PulseEntity)batch.getTarget(i));
+                    else if (op == WorldCommandBuffer.REMOVE_PULSE_ENTITY) _deregisterPulseEntity((PulseEntity)batch.getTarget(i));
+                }
+                break;
+            }
             case Constants.CONSOLE_VARIABLE_CHANGED:
             {
                 ConsoleVariable cvar = (ConsoleVariable)message.getMessageData();
@@ -267,6 +617,23 @@ public class Engine implements PulseEntity, MessageHandler {
                 {
                     _updateEntities = Boolean.parseBoolean(cvar.getcvarValue());
                 }
+                else if (cvar.getcvarName().equals(Constants.ENG_PARALLEL_PULSE))
+                {
+                    _parallelPulse = cvar.getcvarAsBool();
+                }
+                else if (cvar.getcvarName().equals(Constants.ENG_PROFILE))
+                {
+                    _profiler.setEnabled(cvar.getcvarAsBool());
+                }
+                else if (cvar.getcvarName().equals(Constants.ENG_PROFILE_OVERLAY))
+                {
+                    _profiler.setOverlayEnabled(cvar.getcvarAsBool() && !_headless);
+                }
+                else if (cvar.getcvarName().equals(Constants.ENG_FIXED_DT) && _headless)
+                {
+                    // Lets an application config switch to fixed stepping after the engine has started
+                    _fixedDeltaSeconds = Math.max(0.0, cvar.getcvarAsFloat());
+                }
                 break;
             }
             case Constants.PERFORM_SOFT_RESET:
@@ -277,15 +644,15 @@ public class Engine implements PulseEntity, MessageHandler {
             case Constants.ADD_LOGIC_ENTITY:
             {
                 LogicEntity entity = (LogicEntity)message.getMessageData();
-                LogicEntityTask task = new LogicEntityTask(entity, this);
-                _registeredLogicEntities.putIfAbsent(entity, task);
-                _notifyOfLogicTaskCompletion(task); // This will schedule it on the logic threads
+                if (_registeredLogicEntities.containsKey(entity)) break;
+                _registeredLogicEntities.put(entity, new LogicEntityState(entity));
+                _logicEntitiesChanged = true; // Picked up by the next logic phase
                 break;
             }
             case Constants.REMOVE_LOGIC_ENTITY:
             {
                 LogicEntity entity = (LogicEntity)message.getMessageData();
-                _registeredLogicEntities.remove(entity);
+                if (_registeredLogicEntities.remove(entity) != null) _logicEntitiesChanged = true;
                 break;
             }
             case Constants.PERFORM_FULL_ENGINE_SHUTDOWN:
@@ -303,19 +670,21 @@ public class Engine implements PulseEntity, MessageHandler {
             _pendingShutdown = true; // Make sure this is set
             System.err.println("Performing full engine shutdown");
             _isRunning = false;
-            _taskCallbackMap.clear();
-            _registeredLogicEntities.clear();
+            _completedCallbacks.clear();
+            _clearLogicEntities();
             _application.shutdown();
             _window.shutdown();
-            _taskManager.get().stop();
+            if (!_sharedTaskManager) _taskManager.get().stop();
             _initialStage = null;
             _isInitialized = false;
             _pulseEntities = null;
             _application = null;
             _messageSystem.set(null);
             _cvarSystem.set(null);
-            _taskManager.set(null);
+            if (!_sharedTaskManager) _taskManager.set(null);
+            if (_defaultEngine == this) _defaultEngine = null;
             _window = null;
+            _renderer.shutdown();
             _renderer = null;
             _fileSys.shutdown();
             _fileSys = null;
@@ -323,10 +692,17 @@ public class Engine implements PulseEntity, MessageHandler {
             _requiresRestart = false;
             _headless = false;
             _initializing = false;
+            _fixedDeltaSeconds = 0.0;
+            _random = null;
             _pendingShutdown = false; // Now unset
         }
     }
 
+    // Package private - first exception thrown out of a frame (null if there was none)
+    Exception getFailure() {
+        return _failure;
+    }
+
     public boolean isEngineRunning() {
         return _isRunning;
     }
@@ -343,10 +719,11 @@ public class Engine implements PulseEntity, MessageHandler {
             if (_isInitialized) return; // Already initialized
             System.out.println("Engine -> Pre-Initialize Stage");
             _isInitialized = true;
-            _engine = this; // This is a static variable
+            _defaultEngine = this; // This is a static variable
+            setCurrentEngine(this); // The thread starting the engine works for it from now on
             _cvarSystem.set(new ConsoleVariables());
             _messageSystem.set(new MessagePump());
-            _pulseEntities = new HashSet<>();
+            _pulseEntities = new LinkedHashSet<>();
             //_taskManager = new TaskManager();
             _window = new Window();
             _renderer = new Renderer();
@@ -355,12 +732,24 @@ public class Engine implements PulseEntity, MessageHandler {
         }
     }
 
-    private void _notifyOfLogicTaskCompletion(LogicEntityTask task) {
-        if (!_isRunning) return; // Engine is no longer active
-        LogicEntity entity = task.getLogicEntity();
-        if (_registeredLogicEntities.containsKey(entity)) {
-            Engine.scheduleLogicTasks(null, task);
-        }
+    // Skipped while the last phase is still running - the time until the next one is included in its delta
+    private void _startRealTimeLogicPhase() {
+        if (_logicPhase != null && !_logicPhase.isComplete()) return;
+        long currTimeNSec = System.nanoTime();
+        double deltaSeconds = (currTimeNSec - _lastLogicPhaseNSec) / 1000000000.0;
+        _lastLogicPhaseNSec = currTimeNSec;
+        _runLogicPhase(deltaSeconds * _timeScalingFactor, false);
+    }
+
+    private void _clearLogicEntities() {
+        // Tasks from a phase still running in real time index into _logicEntityArray, which is
+        // rebuilt once the entities change, so let them finish first (like the pulse does)
+        TaskManager.Counter phase = _logicPhase;
+        if (phase != null) phase.waitForCompletion();
+        _registeredLogicEntities.clear();
+        _logicEntitiesChanged = true;
+        _logicPhase = null;
+        _lastLogicPhaseNSec = System.nanoTime();
     }
 
     // Performs minimal allocations but initializes all submodules in the
@@ -372,14 +761,26 @@ public class Engine implements PulseEntity, MessageHandler {
             _fileSys.init(); // Make sure this gets initialized first
             getConsoleVariables().loadConfigFile("src/resources/engine.cfg");
             _registerDefaultCVars();
+            if (_forceHeadless) getConsoleVariables().find(Constants.HEADLESS).setValue("true");
+            _timeScalingCvar = getConsoleVariables().bindDouble(Constants.TIME_SCALING_FACTOR);
             _maxFrameRate = Math.abs(Engine.getConsoleVariables().find(Constants.ENG_LIMIT_FPS).getcvarAsInt());
-            _registeredLogicEntities.clear();
+            _clearLogicEntities();
             _headless = Engine.getConsoleVariables().find(Constants.HEADLESS).getcvarAsBool();
+            // Fixed stepping is only supported headless since there is no need to keep up with a display
+            _fixedDeltaSeconds = _headless ? Math.max(0.0, getConsoleVariables().find(Constants.ENG_FIXED_DT).getcvarAsFloat()) : 0.0;
+            _random = null; // Re-seeded from eng_random_seed on first use
+            _nextActorId.set(0);
+            _frameNumber = 0;
+            _parallelPulse = getConsoleVariables().find(Constants.ENG_PARALLEL_PULSE).getcvarAsBool();
+            _profiler.reset();
+            _profiler.setEnabled(getConsoleVariables().find(Constants.ENG_PROFILE).getcvarAsBool());
+            _profiler.setOverlayEnabled(getConsoleVariables().find(Constants.ENG_PROFILE_OVERLAY).getcvarAsBool() && !_headless);
             _updateEntities = Boolean.parseBoolean(getConsoleVariables().find(Constants.CALCULATE_MOVEMENT).getcvarValue());
             // Make sure we register all of the message types
             _registerMessageTypes();
             // Signal interest in the things the simulation.engine needs to know about
             getMessagePump().signalInterest(Constants.ADD_PULSE_ENTITY, this);
+            getMessagePump().signalInterest(APPLY_WORLD_COMMANDS, this);
             getMessagePump().signalInterest(Constants.REMOVE_PULSE_ENTITY, this);
             getMessagePump().signalInterest(Constants.CONSOLE_VARIABLE_CHANGED, this);
             getMessagePump().signalInterest(Constants.REMOVE_ALL_PULSE_ENTITIES, this);
@@ -387,12 +788,14 @@ public class Engine implements PulseEntity, MessageHandler {
             getMessagePump().signalInterest(Constants.ADD_LOGIC_ENTITY, this);
             getMessagePump().signalInterest(Constants.REMOVE_LOGIC_ENTITY, this);
             getMessagePump().signalInterest(Constants.PERFORM_FULL_ENGINE_SHUTDOWN, this);
-            if (_taskManager.get() != null) {
-                _taskManager.get().stop();
+            if (!_sharedTaskManager) {
+                if (_taskManager.get() != null) {
+                    _taskManager.get().stop();
+                }
+                _taskManager.set(new TaskManager(getConsoleVariables().find(Constants.NUM_LOGIC_THREADS).getcvarAsInt()));
+                _taskManager.get().start();
             }
-            _taskManager.set(new TaskManager(getConsoleVariables().find(Constants.NUM_LOGIC_THREADS).getcvarAsInt()));
-            _taskManager.get().start();
-            _pulseEntities = new HashSet<>();
+            _pulseEntities = new LinkedHashSet<>();
             _lastFrameTimeMS = System.currentTimeMillis();
             _lastMessageQueueFrameTimeMS = System.currentTimeMillis();
             _maxFrameRate = getConsoleVariables().find(Constants.ENG_MAX_FPS).getcvarAsInt();
@@ -433,9 +836,9 @@ public class Engine implements PulseEntity, MessageHandler {
     private void _softRestart()
     {
         synchronized(this) {
-            getMessagePump().sendMessage(new Message(Constants.REMOVE_ALL_RENDER_ENTITIES));
-            getMessagePump().sendMessage(new Message(Constants.REMOVE_ALL_PULSE_ENTITIES));
-            getMessagePump().sendMessage(new Message(Constants.REMOVE_ALL_UI_ELEMENTS));
+            getMessagePump().sendMessage(Constants.REMOVE_ALL_RENDER_ENTITIES);
+            getMessagePump().sendMessage(Constants.REMOVE_ALL_PULSE_ENTITIES);
+            getMessagePump().sendMessage(Constants.REMOVE_ALL_UI_ELEMENTS);
             // Dispatch the messages immediately
             getMessagePump().dispatchMessages();
             // Reallocate these only
@@ -462,6 +865,17 @@ public class Engine implements PulseEntity, MessageHandler {
         getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ALLOW_MOUSE_MOVE, "true", "true"));
         getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ALLOW_MOUSE_SCROLL, "true", "true"));
         getConsoleVariables().registerVariable(new ConsoleVariable(Constants.TIME_SCALING_FACTOR, "1.0", "1.0"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.PHYS_BROADPHASE, "quadtree", "quadtree"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.PHYS_GRID_CELL_SIZE, "100", "100"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.PHYS_PACKED_ACTORS, "false", "false"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ENG_FIXED_DT, "0", "0"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ENG_RANDOM_SEED, "", ""));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ENG_PARALLEL_PULSE, "false", "false"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ENG_PROFILE, "false", "false"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.ENG_PROFILE_OVERLAY, "false", "false"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.R_CAPTURE_INTERVAL, "0", "0"));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.R_CAPTURE_DIR, "", ""));
+        getConsoleVariables().registerVariable(new ConsoleVariable(Constants.R_CAPTURE_WIDTH, "1000", "1000"));
     }
 
     private void _registerMessageTypes()
@@ -480,6 +894,7 @@ public class Engine implements PulseEntity, MessageHandler {
         getMessagePump().registerMessage(new Message(Constants.CONSOLE_VARIABLE_CHANGED));
         getMessagePump().registerMessage(new Message(R_RENDER_SCENE));
         getMessagePump().registerMessage(new Message(R_UPDATE_ENTITIES));
+        getMessagePump().registerMessage(new Message(APPLY_WORLD_COMMANDS));
         getMessagePump().registerMessage(new Message(Constants.REMOVE_ALL_UI_ELEMENTS));
         getMessagePump().registerMessage(new Message(Constants.REMOVE_ALL_PULSE_ENTITIES));
         getMessagePump().registerMessage(new Message(Constants.REMOVE_ALL_RENDER_ENTITIES));
@@ -493,6 +908,7 @@ public class Engine implements PulseEntity, MessageHandler {
         getMessagePump().registerMessage(new Message(Constants.SET_CAMERA_ZOOM));
         getMessagePump().registerMessage(new Message(Constants.CAMERA_OFFSET_CHANGED));
         getMessagePump().registerMessage(new Message(Constants.CAMERA_ZOOM_CHANGED));
+        getMessagePump().registerMessage(new Message(Constants.SET_CAPTURE_DIRECTORY));
         getMessagePump().registerMessage(new Message(Constants.SET_CAMERA_X_OFFSET));
         getMessagePump().registerMessage(new Message(Constants.SET_CAMERA_Y_OFFSET));
     }
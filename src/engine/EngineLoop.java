@@ -31,14 +31,36 @@ public class EngineLoop {
         finally {
             _lock.unlock();
         }
-        Engine engine = new Engine();
+        Exception failure = _run(new Engine(), application);
+        if (failure != null) failure.printStackTrace();
+        _isRunning = false;
+    }
+
+    /**
+     * Starts a headless engine which submits all of its work to the given (already started)
+     * task manager - this will not return until the engine has shutdown. Unlike start(), any
+     * number of these can be running at the same time from different threads, which allows
+     * independent simulations to share a single thread pool.
+     *
+     * @param application application to associate with the new instance of the engine
+     * @param taskManager task manager shared with any other engines started this way
+     * @throws IllegalStateException if the engine failed to start or a frame threw an exception,
+     *                               with that exception as the cause
+     */
+    public static void startHeadless(ApplicationEntryPoint application, TaskManager taskManager) {
+        if (!_primedToRun) return; // Already told to exit
+        Exception failure = _run(new Engine(taskManager), application);
+        if (failure != null) throw new IllegalStateException("Engine failed", failure);
+    }
+
+    // Returns the exception which made the engine fail to start or which escaped one of its frames
+    private static Exception _run(Engine engine, ApplicationEntryPoint application) {
         try {
             engine.start(application);
         }
         catch (Exception e) {
-            e.printStackTrace();
-            _isRunning = false;
-            return;
+            Engine.setCurrentEngine(null);
+            return e;
         }
         // Now spin while the engine is running
         while (engine.isEngineRunning()) {
@@ -56,7 +78,8 @@ public class EngineLoop {
                 // Do nothing
             }
         }
-        _isRunning = false;
+        Engine.setCurrentEngine(null); // This thread is no longer working for the engine
+        return engine.getFailure();
     }
 
     /**
@@ -1,6 +1,9 @@
 package engine;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -243,6 +246,31 @@ public class Filesystem {
         }
     }
 
+    /**
+     * Opens a FileChannel for writing, creating the file if needed and truncating it if it
+     * already exists. Unlike open() the channel is not tracked by the file system, so whoever
+     * calls this is responsible for closing it.
+     * @param file file to open
+     * @return an open channel positioned at the start of the file
+     */
+    public FileChannel openWriteChannel(String file) throws IOException {
+        return openChannel(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Opens a FileChannel with the given options (see openWriteChannel())
+     * @param file file to open
+     * @param options options to pass along to FileChannel.open()
+     * @return an open channel
+     */
+    public FileChannel openChannel(String file, StandardOpenOption ... options) throws IOException {
+        synchronized (this) {
+            file = _preprocessFile(file);
+        }
+        return FileChannel.open(Paths.get(file), options);
+    }
+
     /**
      * Closes an open file. This will ensure that it is properly flushed to disk
      * once the last file handle referencing that file is closed.
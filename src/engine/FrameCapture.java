@@ -0,0 +1,303 @@
+package engine;
+
+import javafx.scene.paint.Color;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws the scene into an offscreen pixel buffer so that headless runs can still produce
+ * images. Circles and rectangles are rasterized straight into the buffer's int[] pixels,
+ * text goes through AWT since there is no JavaFX canvas to draw it with.
+ *
+ * Finished frames are encoded to PNG by a small pool of background threads. Only a fixed
+ * number of buffers exist - once they are all waiting to be encoded capture() blocks
+ * until one frees up, so a slow disk can't make frames pile up in memory.
+ *
+ * The whole world is captured rather than what the camera sees. Static actors are
+ * treated as being in screen space and are scaled from the screen to the capture width.
+ *
+ * @author Justin Hall
+ */
+class FrameCapture {
+    private static final int BACKGROUND = 0xFFFFFF;
+
+    private final String _directory;
+    private final int _width;
+    private final int _height;
+    private final double _worldX;
+    private final double _worldY;
+    private final double _worldScale;
+    private final double _screenScale;
+    private final ExecutorService _encoders;
+    private final ArrayBlockingQueue<BufferedImage> _freeFrames;
+    private final AtomicInteger _pending = new AtomicInteger(0);
+    private final ArrayList<GraphicsEntity> _drawList = new ArrayList<>();
+    private int _frameNumber = 0;
+    private boolean _textUnavailable = false;
+    // Created with the first frame so that a capture which is replaced before then leaves nothing behind
+    private boolean _createdDirectory = false;
+
+    FrameCapture(String directory, int width, double worldX, double worldY, double worldWidth,
+                 double worldHeight, int screenWidth, int firstFrame) {
+        _directory = directory.endsWith("/") ? directory : directory + "/";
+        _width = Math.max(1, width);
+        _worldScale = _width / worldWidth;
+        _height = Math.max(1, (int)Math.round(worldHeight * _worldScale));
+        _worldX = worldX;
+        _worldY = worldY;
+        _screenScale = screenWidth > 0 ? (double)_width / screenWidth : 1.0;
+        _frameNumber = firstFrame;
+        int numEncoders = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        _encoders = Executors.newFixedThreadPool(numEncoders, runnable -> {
+            Thread thread = new Thread(runnable, "FrameEncoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // One frame being drawn while every encoder works on one of the others
+        _freeFrames = new ArrayBlockingQueue<>(numEncoders + 1);
+        for (int i = 0; i < numEncoders + 1; ++i) {
+            _freeFrames.add(new BufferedImage(_width, _height, BufferedImage.TYPE_INT_RGB));
+        }
+    }
+
+    /**
+     * Draws the entities and queues the frame to be written out as frame-######.png
+     */
+    void capture(Collection<GraphicsEntity> entities) {
+        BufferedImage frame;
+        try {
+            frame = _freeFrames.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        _draw(frame, entities);
+        if (!_createdDirectory) {
+            Engine.getFileSystem().createDirectoryRecursive(_directory);
+            _createdDirectory = true;
+        }
+        String file = _directory + String.format("frame-%06d.png", _frameNumber++);
+        FileChannel channel;
+        try {
+            channel = Engine.getFileSystem().openWriteChannel(file);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to open " + file);
+            _freeFrames.add(frame);
+            return;
+        }
+        _pending.incrementAndGet();
+        _encoders.execute(() -> _encode(frame, channel, file));
+    }
+
+    int getNextFrameNumber() {
+        return _frameNumber;
+    }
+
+    /**
+     * Waits for every queued frame to be written and then stops the encoding threads
+     */
+    void shutdown() {
+        _encoders.shutdown();
+        try {
+            if (!_encoders.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Gave up waiting on " + _pending.get() + " frames to be written");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void _encode(BufferedImage frame, FileChannel channel, String file) {
+        try (OutputStream out = Channels.newOutputStream(channel)) {
+            ImageIO.write(frame, "png", out);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to write " + file);
+        }
+        finally {
+            _pending.decrementAndGet();
+            _freeFrames.add(frame);
+        }
+    }
+
+    private void _draw(BufferedImage frame, Collection<GraphicsEntity> entities) {
+        int[] pixels = ((DataBufferInt)frame.getRaster().getDataBuffer()).getData();
+        Arrays.fill(pixels, BACKGROUND);
+        // Same order the renderer uses - deepest first so that lower depths end up on top
+        _drawList.clear();
+        _drawList.addAll(entities);
+        _drawList.sort((a, b) -> Integer.compare((int)b.getDepth(), (int)a.getDepth()));
+        Graphics2D text = null;
+        for (GraphicsEntity entity : _drawList) {
+            double scale = entity.isStaticActor() ? _screenScale : _worldScale;
+            double x = entity.isStaticActor() ? entity.getLocationX() * scale : (entity.getLocationX() - _worldX) * scale;
+            double y = entity.isStaticActor() ? entity.getLocationY() * scale : (entity.getLocationY() - _worldY) * scale;
+            double width = entity.getWidth() * scale;
+            double height = entity.getHeight() * scale;
+            Color color = entity.getColor();
+            if (entity instanceof Text2D) {
+                if (_textUnavailable) continue;
+                try {
+                    if (text == null) text = _createTextGraphics(frame);
+                    _drawText(text, (Text2D)entity, x, y, height, color);
+                }
+                catch (RuntimeException | Error e) {
+                    // Happens on machines without any fonts installed - shapes can still be captured
+                    System.err.println("Text can not be drawn into captured frames: " + e);
+                    _textUnavailable = true;
+                }
+                continue;
+            }
+            if (entity instanceof Trail) {
+                _drawTrail(pixels, (Trail)entity, scale, entity.isStaticActor(), color);
+                continue;
+            }
+            _fill(pixels, x, y, width, height, entity.getRotation(), entity instanceof Circle2D, color);
+        }
+        if (text != null) text.dispose();
+        _drawList.clear();
+    }
+
+    /**
+     * Fills the shape covering (x, y, width, height) in pixel space, rotated by the given number
+     * of degrees about its center. Pixels are covered if their center is inside the shape.
+     */
+    private void _fill(int[] pixels, double x, double y, double width, double height, double rotation,
+                       boolean oval, Color color) {
+        if (width <= 0 || height <= 0 || color.getOpacity() <= 0) return;
+        double centerX = x + width / 2;
+        double centerY = y + height / 2;
+        double radiusX = width / 2;
+        double radiusY = height / 2;
+        double cos = 1;
+        double sin = 0;
+        // Half extents of the area the shape can touch
+        double extentX = radiusX;
+        double extentY = radiusY;
+        if (rotation != 0) {
+            double radians = Math.toRadians(rotation);
+            cos = Math.cos(radians);
+            sin = Math.sin(radians);
+            extentX = Math.abs(radiusX * cos) + Math.abs(radiusY * sin);
+            extentY = Math.abs(radiusX * sin) + Math.abs(radiusY * cos);
+        }
+        int minY = Math.max(0, (int)Math.ceil(centerY - extentY - 0.5));
+        int maxY = Math.min(_height - 1, (int)Math.floor(centerY + extentY - 0.5));
+        int minX = Math.max(0, (int)Math.ceil(centerX - extentX - 0.5));
+        int maxX = Math.min(_width - 1, (int)Math.floor(centerX + extentX - 0.5));
+        if (minX > maxX || minY > maxY) return;
+        int source = _toRGB(color);
+        int alpha = (int)Math.round(color.getOpacity() * 255);
+        for (int row = minY; row <= maxY; ++row) {
+            double dy = row + 0.5 - centerY;
+            int offset = row * _width;
+            if (rotation == 0) {
+                // Axis aligned shapes cover one unbroken span per row
+                double halfSpan = radiusX;
+                if (oval) {
+                    double t = dy / radiusY;
+                    if (t * t > 1) continue;
+                    halfSpan = radiusX * Math.sqrt(1 - t * t);
+                }
+                int start = Math.max(minX, (int)Math.ceil(centerX - halfSpan - 0.5));
+                int end = Math.min(maxX, (int)Math.floor(centerX + halfSpan - 0.5));
+                _blendSpan(pixels, offset + start, offset + end, source, alpha);
+                continue;
+            }
+            for (int column = minX; column <= maxX; ++column) {
+                double dx = column + 0.5 - centerX;
+                // Rotate the pixel back into the shape's own frame
+                double localX = (dx * cos + dy * sin) / radiusX;
+                double localY = (dy * cos - dx * sin) / radiusY;
+                boolean inside = oval ? localX * localX + localY * localY <= 1 :
+                        Math.abs(localX) <= 1 && Math.abs(localY) <= 1;
+                if (inside) _blendSpan(pixels, offset + column, offset + column, source, alpha);
+            }
+        }
+    }
+
+    /**
+     * Draws each segment by stamping a square brush the width of the trail every pixel or so
+     */
+    private void _drawTrail(int[] pixels, Trail trail, double scale, boolean isStatic, Color color) {
+        int numPoints = trail.getNumPoints();
+        if (numPoints < 2) return;
+        double offsetX = isStatic ? 0 : _worldX;
+        double offsetY = isStatic ? 0 : _worldY;
+        double brush = Math.max(1.0, trail.getThickness() * scale);
+        double lastX = (trail.getPointX(0) - offsetX) * scale;
+        double lastY = (trail.getPointY(0) - offsetY) * scale;
+        for (int i = 1; i < numPoints; ++i) {
+            double x = (trail.getPointX(i) - offsetX) * scale;
+            double y = (trail.getPointY(i) - offsetY) * scale;
+            int steps = (int)Math.ceil(Math.max(Math.abs(x - lastX), Math.abs(y - lastY)));
+            for (int step = 0; step <= steps; ++step) {
+                double t = steps == 0 ? 0 : (double)step / steps;
+                _fill(pixels, lastX + (x - lastX) * t - brush / 2, lastY + (y - lastY) * t - brush / 2,
+                        brush, brush, 0, false, color);
+            }
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    private static void _blendSpan(int[] pixels, int start, int end, int source, int alpha) {
+        if (alpha >= 255) {
+            if (start <= end) Arrays.fill(pixels, start, end + 1, source);
+            return;
+        }
+        int inverse = 255 - alpha;
+        int sourceR = (source >> 16) & 0xFF;
+        int sourceG = (source >> 8) & 0xFF;
+        int sourceB = source & 0xFF;
+        for (int i = start; i <= end; ++i) {
+            int dest = pixels[i];
+            int r = (sourceR * alpha + ((dest >> 16) & 0xFF) * inverse) / 255;
+            int g = (sourceG * alpha + ((dest >> 8) & 0xFF) * inverse) / 255;
+            int b = (sourceB * alpha + (dest & 0xFF) * inverse) / 255;
+            pixels[i] = (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private static Graphics2D _createTextGraphics(BufferedImage frame) {
+        Graphics2D graphics = frame.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        return graphics;
+    }
+
+    private void _drawText(Graphics2D graphics, Text2D text, double x, double y, double fontSize, Color color) {
+        if (fontSize <= 0 || text.getText().isEmpty()) return;
+        graphics.setColor(new java.awt.Color((float)color.getRed(), (float)color.getGreen(),
+                (float)color.getBlue(), (float)color.getOpacity()));
+        graphics.setFont(new java.awt.Font(java.awt.Font.SANS_SERIF, java.awt.Font.PLAIN,
+                Math.max(1, (int)Math.round(fontSize))));
+        // Like fillText() the y value is the baseline
+        graphics.drawString(text.getText(), (float)x, (float)y);
+    }
+
+    private static int _toRGB(Color color) {
+        int r = (int)Math.round(color.getRed() * 255);
+        int g = (int)Math.round(color.getGreen() * 255);
+        int b = (int)Math.round(color.getBlue() * 255);
+        return (r << 16) | (g << 8) | b;
+    }
+}
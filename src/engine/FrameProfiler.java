@@ -0,0 +1,261 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Records how long each phase of a frame takes along with a few per-frame counts. Turn it on
+ * with eng_profile. While it is off, begin() hands back 0 and end() ignores it, so the calls
+ * spread through the engine cost next to nothing.
+ *
+ * Every phase/count gets its own histogram. Values are put into log-linear buckets (each
+ * power of 2 is split into 16 buckets, like an HDR histogram), so memory use is fixed and
+ * percentiles stay within about 6% of the real value no matter how long the run is.
+ *
+ * Use writeSummary() to save the results (ex: next to a run's other records) and
+ * eng_profile_overlay to show them on screen while the engine is running.
+ *
+ * Ex:
+ *      FrameProfiler profiler = Engine.getProfiler();
+ *      long start = profiler.begin();
+ *      ...
+ *      profiler.end(FrameProfiler.PULSE, start);
+ *
+ * @author Justin Hall
+ */
+public class FrameProfiler {
+    // Phases, recorded in nanoseconds
+    public static final int FRAME = 0; // Time from the start of one frame to the start of the next
+    public static final int DISPATCH_MESSAGES = 1;
+    public static final int PULSE = 2;
+    public static final int LOGIC_ENTITIES = 3;
+    public static final int PHYSICS_INTEGRATE = 4;
+    public static final int PHYSICS_NARROWPHASE = 5;
+    public static final int PHYSICS_MERGE = 6;
+    public static final int COLLISION_DISPATCH = 7;
+    public static final int RENDER = 8;
+    // Counts
+    public static final int PULSE_ENTITIES = 9; // Per frame
+    public static final int RENDER_ENTITIES = 10; // Per frame
+    public static final int MESSAGES = 11; // Per message dispatch pass
+    private static final String[] _NAMES = {
+            "frame", "dispatch_messages", "pulse", "logic_entities", "physics_integrate",
+            "physics_narrowphase", "physics_merge", "collision_dispatch", "render",
+            "pulse_entities", "render_entities", "messages"
+    };
+    private static final int _FIRST_COUNT = PULSE_ENTITIES;
+    private static final long _OVERLAY_REFRESH_NSEC = 1000000000L;
+
+    // Log-linear histogram - values below 16 get their own bucket, and from there on every
+    // power of 2 is split into 16 equally sized buckets
+    private static final class Histogram {
+        private static final int _SUB_BUCKET_BITS = 4;
+        private static final int _SUB_BUCKETS = 1 << _SUB_BUCKET_BITS;
+        private final long[] _counts = new long[_SUB_BUCKETS * (64 - _SUB_BUCKET_BITS + 1)];
+        private long _totalCount = 0;
+        private long _sum = 0;
+        private long _min = Long.MAX_VALUE;
+        private long _max = 0;
+
+        synchronized void record(long value) {
+            if (value < 0) value = 0;
+            ++_counts[_indexOf(value)];
+            ++_totalCount;
+            _sum += value;
+            if (value < _min) _min = value;
+            if (value > _max) _max = value;
+        }
+
+        synchronized void reset() {
+            for (int i = 0; i < _counts.length; ++i) _counts[i] = 0;
+            _totalCount = 0;
+            _sum = 0;
+            _min = Long.MAX_VALUE;
+            _max = 0;
+        }
+
+        synchronized long getTotalCount() {
+            return _totalCount;
+        }
+
+        synchronized long getMin() {
+            return _totalCount == 0 ? 0 : _min;
+        }
+
+        synchronized long getMax() {
+            return _max;
+        }
+
+        synchronized double getMean() {
+            return _totalCount == 0 ? 0.0 : (double)_sum / _totalCount;
+        }
+
+        /**
+         * @return highest value in the bucket holding the given percentile (never more than the max)
+         */
+        synchronized long getValueAtPercentile(double percentile) {
+            if (_totalCount == 0) return 0;
+            long target = (long)Math.ceil(percentile / 100.0 * _totalCount);
+            if (target < 1) target = 1;
+            long seen = 0;
+            for (int i = 0; i < _counts.length; ++i) {
+                seen += _counts[i];
+                if (seen >= target) return Math.min(_highestValueOf(i), _max);
+            }
+            return _max;
+        }
+
+        private static int _indexOf(long value) {
+            if (value < _SUB_BUCKETS) return (int)value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - _SUB_BUCKET_BITS;
+            int subBucket = (int)(value >>> shift) - _SUB_BUCKETS;
+            return _SUB_BUCKETS + shift * _SUB_BUCKETS + subBucket;
+        }
+
+        private static long _highestValueOf(int index) {
+            if (index < _SUB_BUCKETS) return index;
+            int shift = (index - _SUB_BUCKETS) / _SUB_BUCKETS;
+            int subBucket = (index - _SUB_BUCKETS) % _SUB_BUCKETS;
+            return ((long)(_SUB_BUCKETS + subBucket + 1) << shift) - 1;
+        }
+    }
+
+    private final Histogram[] _histograms = new Histogram[_NAMES.length];
+    private volatile boolean _enabled = false;
+    private long _lastFrameStartNSec = 0; // Only touched by the thread running the game loop
+    // Overlay is only created/touched by the thread running the game loop
+    private boolean _showOverlay = false;
+    private Text2D _overlay = null;
+    private long _lastOverlayRefreshNSec = 0;
+
+    FrameProfiler() {
+        for (int i = 0; i < _histograms.length; ++i) _histograms[i] = new Histogram();
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * @return the current time if profiling is on, otherwise 0 (which makes end() do nothing)
+     */
+    public long begin() {
+        return _enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time since begin() for the given phase
+     */
+    public void end(int phase, long startNSec) {
+        if (startNSec == 0) return;
+        _histograms[phase].record(System.nanoTime() - startNSec);
+    }
+
+    public void recordCount(int counter, long value) {
+        if (!_enabled) return;
+        _histograms[counter].record(value);
+    }
+
+    /**
+     * @return value at the given percentile (0-100) for the phase/count, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(int phase, double percentile) {
+        return _histograms[phase].getValueAtPercentile(percentile);
+    }
+
+    public double getMean(int phase) {
+        return _histograms[phase].getMean();
+    }
+
+    public long getNumSamples(int phase) {
+        return _histograms[phase].getTotalCount();
+    }
+
+    /**
+     * Writes one line per phase/count (min/mean/percentiles/max) to folderPath + "frame-profile.csv".
+     * Does nothing if nothing was recorded.
+     */
+    public void writeSummary(String folderPath) {
+        boolean hasSamples = false;
+        for (Histogram histogram : _histograms) hasSamples |= histogram.getTotalCount() > 0;
+        if (!hasSamples) return;
+        StringBuilder summary = new StringBuilder();
+        summary.append("name,unit,samples,min,mean,p50,p90,p99,p99.9,max\n");
+        for (int i = 0; i < _histograms.length; ++i) {
+            Histogram histogram = _histograms[i];
+            summary.append(_NAMES[i]).append(',')
+                    .append(i < _FIRST_COUNT ? "ns" : "count").append(',')
+                    .append(histogram.getTotalCount()).append(',')
+                    .append(histogram.getMin()).append(',')
+                    .append(String.format("%.1f", histogram.getMean())).append(',')
+                    .append(histogram.getValueAtPercentile(50)).append(',')
+                    .append(histogram.getValueAtPercentile(90)).append(',')
+                    .append(histogram.getValueAtPercentile(99)).append(',')
+                    .append(histogram.getValueAtPercentile(99.9)).append(',')
+                    .append(histogram.getMax()).append('\n');
+        }
+        String file = (folderPath == null ? "" : folderPath) + "frame-profile.csv";
+        try (FileChannel channel = Engine.getFileSystem().openWriteChannel(file)) {
+            ByteBuffer buffer = ByteBuffer.wrap(summary.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to write " + file);
+        }
+    }
+
+    // Package private - called by the engine
+
+    void setEnabled(boolean enabled) {
+        if (enabled && !_enabled) _lastFrameStartNSec = 0; // Don't count the time it was off as a frame
+        _enabled = enabled;
+    }
+
+    void setOverlayEnabled(boolean enabled) {
+        _showOverlay = enabled;
+        if (!enabled && _overlay != null) {
+            _overlay.removeFromWorld();
+            _overlay = null;
+        }
+    }
+
+    void reset() {
+        for (Histogram histogram : _histograms) histogram.reset();
+        _lastFrameStartNSec = 0;
+        _overlay = null; // Whatever was in the world is gone after a restart
+    }
+
+    /**
+     * Called at the start of every frame - records the time since the last one and keeps the
+     * overlay (if shown) up to date
+     */
+    void beginFrame(int numPulseEntities) {
+        if (!_enabled) return;
+        long now = System.nanoTime();
+        if (_lastFrameStartNSec != 0) _histograms[FRAME].record(now - _lastFrameStartNSec);
+        _lastFrameStartNSec = now;
+        _histograms[PULSE_ENTITIES].record(numPulseEntities);
+        if (_showOverlay && now - _lastOverlayRefreshNSec >= _OVERLAY_REFRESH_NSEC) {
+            _lastOverlayRefreshNSec = now;
+            _refreshOverlay();
+        }
+    }
+
+    private void _refreshOverlay() {
+        if (_overlay == null) {
+            _overlay = new Text2D("", 10, 20, 900, 14, -1000);
+            _overlay.setAsStaticActor(true);
+            _overlay.addToWorld();
+        }
+        _overlay.setText(String.format("frame %.2f ms (p99 %.2f) | pulse %.2f | physics %.2f | render %.2f | msgs %.0f",
+                _meanMS(FRAME), getValueAtPercentile(FRAME, 99) / 1000000.0, _meanMS(PULSE),
+                _meanMS(PHYSICS_INTEGRATE) + _meanMS(PHYSICS_NARROWPHASE) + _meanMS(PHYSICS_MERGE) + _meanMS(COLLISION_DISPATCH),
+                _meanMS(RENDER), getMean(MESSAGES)));
+    }
+
+    private double _meanMS(int phase) {
+        return getMean(phase) / 1000000.0;
+    }
+}
@@ -3,6 +3,8 @@ package engine;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * A graphics entity is the second to last layer in the rendering system
  * before the actual, concrete classes that can be instantiated (such
@@ -22,6 +24,12 @@ import javafx.scene.paint.Color;
 public abstract class GraphicsEntity extends ActorGraph {
     private String _texture = "";
     private Color _color = Color.RED;
+    // Only touched by the Renderer's render queue
+    private RenderQueue.Bucket _renderBucket;
+    // Set if this entity was made by an ActorPool - it goes back to the pool when removed
+    private ActorPool<?> _pool;
+    // Collision callbacks on different threads can remove the same entity at the same time
+    private final AtomicBoolean _inWorld = new AtomicBoolean(false);
 
     /**
      * This function ensures that the render entity is added to the world. After
@@ -30,7 +38,8 @@ public abstract class GraphicsEntity extends ActorGraph {
      */
     public void addToWorld()
     {
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_GRAPHICS_ENTITY, this));
+        Engine.getWorldCommands().spawn(this);
+        _inWorld.set(true);
     }
 
     /**
@@ -39,7 +48,9 @@ public abstract class GraphicsEntity extends ActorGraph {
      */
     public void removeFromWorld()
     {
-        Engine.getMessagePump().sendMessage(new Message(Constants.REMOVE_GRAPHICS_ENTITY, this));
+        Engine.getWorldCommands().despawn(this);
+        // Only the first removal counts so that the entity can't end up in its pool twice
+        if (_inWorld.getAndSet(false) && _pool != null) _pool.release(this);
     }
 
     /**
@@ -59,7 +70,7 @@ public abstract class GraphicsEntity extends ActorGraph {
     public void setTexture(String texture)
     {
         _texture = texture;
-        Engine.getMessagePump().sendMessage(new Message(Constants.REGISTER_TEXTURE, texture));
+        Engine.getMessagePump().sendMessage(Constants.REGISTER_TEXTURE, texture);
     }
 
     public void setColor(Color color)
@@ -76,4 +87,22 @@ public abstract class GraphicsEntity extends ActorGraph {
     {
         return _color;
     }
+
+    // Package-private
+    RenderQueue.Bucket getRenderBucket()
+    {
+        return _renderBucket;
+    }
+
+    // Package-private
+    void setRenderBucket(RenderQueue.Bucket bucket)
+    {
+        _renderBucket = bucket;
+    }
+
+    // Package-private
+    void setPool(ActorPool<?> pool)
+    {
+        _pool = pool;
+    }
 }
@@ -0,0 +1,56 @@
+package engine;
+
+/**
+ * Broadphase backed by a SpatialHashGrid. The grid is kept between steps and actors are
+ * only moved between cells when the cells they cover actually change. Each cell holding
+ * at least two actors is one partition.
+ *
+ * @author Justin Hall
+ */
+class GridBroadphase implements Broadphase {
+    private final SpatialHashGrid<ActorGraph> _grid;
+    private int[] _occupiedCells = new int[64];
+    private int _numOccupiedCells = 0;
+
+    GridBroadphase(int worldStartX, int worldStartY, int worldWidth, int worldHeight, int cellSize) {
+        _grid = new SpatialHashGrid<>(worldStartX, worldStartY, worldWidth, worldHeight, cellSize);
+    }
+
+    @Override
+    public void beginUpdate() {
+        _grid.startUpdatePass();
+    }
+
+    @Override
+    public void update(ActorGraph actor) {
+        _grid.update(actor);
+    }
+
+    @Override
+    public void endUpdate() {
+        _grid.removeStale();
+        _numOccupiedCells = 0;
+        int numCells = _grid.getNumCells();
+        for (int cell = 0; cell < numCells; ++cell) {
+            if (_grid.getNumActorsInCell(cell) < 2) continue; // No pairs possible
+            if (_numOccupiedCells == _occupiedCells.length) {
+                int[] cells = new int[_occupiedCells.length * 2];
+                System.arraycopy(_occupiedCells, 0, cells, 0, _numOccupiedCells);
+                _occupiedCells = cells;
+            }
+            _occupiedCells[_numOccupiedCells++] = cell;
+        }
+    }
+
+    @Override
+    public int getNumPartitions() {
+        return _numOccupiedCells;
+    }
+
+    @Override
+    public void findCandidatePairs(int partition, PairCallback callback) {
+        _grid.forEachPairInCell(_occupiedCells[partition], (first, second) -> {
+            if (Actor.canInteract(first, second)) callback.onCandidatePair(first, second);
+        });
+    }
+}
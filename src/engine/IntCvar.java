@@ -0,0 +1,33 @@
+package engine;
+
+/**
+ * A cached, typed handle to a console variable's integer value. Reading it is a single
+ * volatile read which makes it safe to use in code that runs every frame or every
+ * pulse. Get one from ConsoleVariables.bindInt().
+ *
+ * @author Justin Hall
+ */
+public final class IntCvar {
+    private final ConsoleVariable _cvar;
+
+    // Package-private
+    IntCvar(ConsoleVariable cvar) {
+        _cvar = cvar;
+    }
+
+    public int get() {
+        return _cvar._cvarIntVal;
+    }
+
+    public void set(int value) {
+        _cvar.setValue(Integer.toString(value));
+    }
+
+    public String getName() {
+        return _cvar.getcvarName();
+    }
+
+    public ConsoleVariable getConsoleVariable() {
+        return _cvar;
+    }
+}
@@ -0,0 +1,136 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A job graph describes work made up of several stages where some stages can't start until
+ * others are done (ex: the narrowphase needs the broadphase to be up to date). Each job is
+ * a set of tasks which may run in parallel with each other, and a job only starts once every
+ * job it depends on has finished.
+ *
+ * Submit the graph with TaskManager.submitGraph(). A job is started on whichever worker
+ * finished the last task of its final predecessor, the moment that task finishes, so nobody
+ * has to poll for stages to complete and there are no gaps between them.
+ *
+ * The number of tasks a stage needs is often not known until the stages before it are done,
+ * so a job can be given a TaskSource instead of a fixed list of tasks. The source is asked for
+ * its tasks right when the job starts.
+ *
+ * A job can only depend on jobs which were added to the same graph before it, which means
+ * the graph can never contain a cycle. A graph can be submitted any number of times, but it
+ * must not be submitted again until the previous submission has completed.
+ *
+ * @author Justin Hall
+ */
+public class JobGraph {
+    /**
+     * Creates the tasks for a job once all of its predecessors are done. Returning null or an
+     * empty array is allowed and simply means there is nothing to do this time.
+     */
+    public interface TaskSource {
+        Task[] getTasks();
+    }
+
+    public final class Job {
+        private final int _index;
+        private final Task[] _tasks;
+        private final TaskSource _source;
+        private final ArrayList<Job> _successors = new ArrayList<>(2);
+        private int _numPredecessors = 0;
+        // Reset every time the graph is submitted
+        private final AtomicInteger _remainingPredecessors = new AtomicInteger(0);
+
+        private Job(int index, Task[] tasks, TaskSource source) {
+            _index = index;
+            _tasks = tasks;
+            _source = source;
+        }
+
+        /**
+         * Makes this job wait for each of the given jobs to finish before it starts
+         *
+         * @return this job so that calls can be chained
+         */
+        public Job dependsOn(Job ... predecessors) {
+            for (Job predecessor : predecessors) {
+                if (predecessor.getGraph() != JobGraph.this || predecessor._index >= _index) {
+                    throw new IllegalArgumentException("A job can only depend on jobs added to the same graph before it");
+                }
+                predecessor._successors.add(this);
+                ++_numPredecessors;
+            }
+            _roots = null;
+            return this;
+        }
+
+        public JobGraph getGraph() {
+            return JobGraph.this;
+        }
+
+        Task[] getTasks() {
+            if (_source == null) return _tasks;
+            Task[] tasks = _source.getTasks();
+            return tasks == null ? _NO_TASKS : tasks;
+        }
+
+        ArrayList<Job> getSuccessors() {
+            return _successors;
+        }
+
+        // Returns true if this was the last predecessor the job was waiting on
+        boolean onPredecessorFinished() {
+            return _remainingPredecessors.decrementAndGet() == 0;
+        }
+    }
+
+    private static final Task[] _NO_TASKS = new Task[0];
+    private final ArrayList<Job> _jobs = new ArrayList<>();
+    private ArrayList<Job> _roots = null; // Jobs with no predecessors - rebuilt when the graph changes
+
+    /**
+     * Adds a job made up of the given tasks, which may run in parallel with each other
+     */
+    public Job addJob(Task ... tasks) {
+        Job job = new Job(_jobs.size(), tasks, null);
+        _jobs.add(job);
+        _roots = null;
+        return job;
+    }
+
+    /**
+     * Adds a job whose tasks are created by the source when the job starts
+     */
+    public Job addJob(TaskSource source) {
+        Job job = new Job(_jobs.size(), null, source);
+        _jobs.add(job);
+        _roots = null;
+        return job;
+    }
+
+    public int getNumJobs() {
+        return _jobs.size();
+    }
+
+    /**
+     * Runs every job on the calling thread. Jobs are always added after the jobs they depend
+     * on, so running them in the order they were added respects every dependency.
+     */
+    public void runSerially() {
+        for (Job job : _jobs) {
+            for (Task task : job.getTasks()) task.execute();
+        }
+    }
+
+    // Package private - resets the per-submission state and returns the jobs which can start right away
+    ArrayList<Job> beginSubmission() {
+        if (_roots == null) {
+            _roots = new ArrayList<>();
+            for (Job job : _jobs) {
+                if (job._numPredecessors == 0) _roots.add(job);
+            }
+        }
+        for (Job job : _jobs) job._remainingPredecessors.set(job._numPredecessors);
+        return _roots;
+    }
+}
@@ -8,6 +8,11 @@ package engine;
  * The main guarantee that a LogicEntity gives you over a Task is that a LogicEntity's
  * process() method will be called continuously until you tell the engine to stop.
  *
+ * All registered logic entities are processed together once per engine tick, split into
+ * chunks across the logic threads, and the next round does not start until every one of
+ * them has finished. Entities which don't need to run that often can return a larger
+ * value from getUpdateInterval().
+ *
  * @author Justin Hall
  */
 public interface LogicEntity {
@@ -18,4 +23,12 @@ public interface LogicEntity {
      * @param deltaSeconds time elapsed since the last time this method was called
      */
     void process(double deltaSeconds);
+
+    /**
+     * @return process() is called once every this many ticks (1 = every tick). Checked each
+     *         time the entity is processed so it can be changed at any time.
+     */
+    default int getUpdateInterval() {
+        return 1;
+    }
 }
@@ -12,6 +12,8 @@ package engine;
 public class Message {
     private String _msgName;
     private Object _msgData = null;
+    // Assigned by the message pump when the message is registered
+    private int _id = -1;
 
     public Message(String msgName)
     {
@@ -46,6 +48,25 @@ public class Message {
         _msgData = msgData;
     }
 
+    // Package private
+    int getId()
+    {
+        return _id;
+    }
+
+    void setId(int id)
+    {
+        _id = id;
+    }
+
+    // Lets the message pump reuse a single message object for dispatch
+    void set(Message registered, Object msgData)
+    {
+        _msgName = registered == null ? "" : registered._msgName;
+        _id = registered == null ? -1 : registered._id;
+        _msgData = msgData;
+    }
+
     public final String getMessageName()
     {
         return _msgName;
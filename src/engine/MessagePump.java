@@ -1,10 +1,9 @@
 package engine;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The message pump is responsible for collecting messages
@@ -23,12 +22,96 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * to change any of the code which sends the messages and signals interest
  * in those messages.
  *
+ * Internally every registered message is given an integer id which indexes into the
+ * handler table, and pending messages are stored as (id, data) pairs in a pair of
+ * reusable ring buffers - senders append to one while the other is being dispatched.
+ * Prefer sendMessage(String, Object) on hot paths since it does not allocate a Message.
+ * The Message given to a handler for such a send is reused by the pump, so handlers
+ * should not hold on to it after handleMessage returns.
+ *
+ * During a parallel phase (ex: the parallel pulse) each task can capture what it sends
+ * into its own DeferredMessages buffer instead of contending for the pump's lock. The
+ * buffers are then flushed in task order, so the pump ends up with the same messages in
+ * the same order as if the tasks had run one after another.
+ *
  * @author Justin Hall
  */
 public class MessagePump {
+    private static final MessageHandler[] _NO_HANDLERS = new MessageHandler[0];
     private final ConcurrentHashMap<String, Message> _registeredMessages = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Message, LinkedList<MessageHandler>> _registeredHandlers = new ConcurrentHashMap<>();
-    private final ConcurrentLinkedQueue<Message> _messageBuffer = new ConcurrentLinkedQueue<>();
+    // Indexed by message id - replaced (never modified in place) whenever a handler is added
+    private volatile MessageHandler[][] _handlers = new MessageHandler[16][];
+    private volatile Message[] _messagesById = new Message[16];
+    private int _nextId = 0;
+    // Messages are appended to the back queue by senders and read from the front queue by dispatchMessages()
+    private MessageQueue _backQueue = new MessageQueue();
+    private MessageQueue _frontQueue = new MessageQueue();
+    // Handed to handlers for messages which were sent as (name, data) rather than as a Message object
+    private final Message _scratch = new Message("");
+    // Only looked at while _numDeferring > 0 so regular sends don't pay for the thread local lookup
+    private final ThreadLocal<DeferredMessages> _deferred = new ThreadLocal<>();
+    private final AtomicInteger _numDeferring = new AtomicInteger(0);
+    // Incremented (while holding the lock) every time a message is queued or the queues are swapped
+    private long _sequence = 0;
+
+    /**
+     * Messages captured by one task of a parallel phase - see beginDeferring()
+     */
+    static final class DeferredMessages {
+        private final MessageQueue _queue = new MessageQueue();
+    }
+
+    /**
+     * Growable ring buffer of pending messages. Only ever accessed while holding the
+     * pump's lock (senders) or after it has been swapped to the front (dispatch). Queues inside
+     * of a DeferredMessages buffer belong to a single task until they are flushed.
+     */
+    private static class MessageQueue {
+        private int[] _ids = new int[256];
+        private Object[] _data = new Object[256];
+        // Non-null only if the sender gave us their own Message object
+        private Message[] _messages = new Message[256];
+        private int _head = 0;
+        private int _size = 0;
+
+        void add(int id, Object data, Message message) {
+            if (_size == _ids.length) _grow();
+            int index = (_head + _size) & (_ids.length - 1);
+            _ids[index] = id;
+            _data[index] = data;
+            _messages[index] = message;
+            ++_size;
+        }
+
+        void clear() {
+            while (_size > 0) _poll();
+        }
+
+        // Removes the front element - the caller must read it beforehand
+        void _poll() {
+            _data[_head] = null;
+            _messages[_head] = null;
+            _head = (_head + 1) & (_ids.length - 1);
+            --_size;
+        }
+
+        private void _grow() {
+            int length = _ids.length * 2;
+            int[] ids = new int[length];
+            Object[] data = new Object[length];
+            Message[] messages = new Message[length];
+            for (int i = 0; i < _size; ++i) {
+                int index = (_head + i) & (_ids.length - 1);
+                ids[i] = _ids[index];
+                data[i] = _data[index];
+                messages[i] = _messages[index];
+            }
+            _ids = ids;
+            _data = data;
+            _messages = messages;
+            _head = 0;
+        }
+    }
 
     /**
      * Gets rid of all registered message handlers, meaning no references will
@@ -36,7 +119,11 @@ public class MessagePump {
      */
     public void clearAllMessageHandlers()
     {
-        _registeredHandlers.clear();
+        synchronized (_registeredMessages) {
+            MessageHandler[][] handlers = new MessageHandler[_handlers.length][];
+            for (Message message : _registeredMessages.values()) handlers[message.getId()] = _NO_HANDLERS;
+            _handlers = handlers;
+        }
     }
 
     /**
@@ -47,11 +134,19 @@ public class MessagePump {
      */
     public void signalInterest(String message, MessageHandler handler)
     {
-        LinkedList<MessageHandler> handlers = _registeredHandlers.get(getRegisteredMessage(message));
-        if (handlers == null) {
-            throw new IllegalArgumentException("Non-registered message passed into MessagePump.signalInterest");
+        synchronized (_registeredMessages) {
+            Message registered = getRegisteredMessage(message);
+            if (registered == null) {
+                throw new IllegalArgumentException("Non-registered message passed into MessagePump.signalInterest");
+            }
+            MessageHandler[] current = _handlers[registered.getId()];
+            MessageHandler[] handlers = new MessageHandler[current.length + 1];
+            System.arraycopy(current, 0, handlers, 0, current.length);
+            handlers[current.length] = handler;
+            MessageHandler[][] table = _handlers.clone();
+            table[registered.getId()] = handlers;
+            _handlers = table; // Publish the new table
         }
-        handlers.add(handler);
     }
 
     /**
@@ -64,11 +159,30 @@ public class MessagePump {
     {
         // Only add it if it has not been added yet
         System.out.println("Registering message type (" + message.getMessageName() + ")");
-        Message msg = _registeredMessages.putIfAbsent(message.getMessageName(), message);
-        if (msg != null) {
-            throw new RuntimeException("ERROR: Duplicate conflicting message names registered with message pump [" + message.getMessageName() + "]");
+        synchronized (_registeredMessages) {
+            Message msg = _registeredMessages.putIfAbsent(message.getMessageName(), message);
+            if (msg != null) {
+                throw new RuntimeException("ERROR: Duplicate conflicting message names registered with message pump [" + message.getMessageName() + "]");
+            }
+            int id = _nextId++;
+            message.setId(id);
+            if (id >= _handlers.length) {
+                MessageHandler[][] handlers = new MessageHandler[_handlers.length * 2][];
+                System.arraycopy(_handlers, 0, handlers, 0, _handlers.length);
+                Message[] messagesById = new Message[handlers.length];
+                System.arraycopy(_messagesById, 0, messagesById, 0, _messagesById.length);
+                handlers[id] = _NO_HANDLERS;
+                messagesById[id] = message;
+                _handlers = handlers;
+                _messagesById = messagesById;
+            }
+            else {
+                MessageHandler[][] handlers = _handlers.clone();
+                handlers[id] = _NO_HANDLERS;
+                _messagesById[id] = message;
+                _handlers = handlers;
+            }
         }
-        _registeredHandlers.putIfAbsent(message, new LinkedList<>());
     }
 
     /**
@@ -76,8 +190,14 @@ public class MessagePump {
      */
     public void unregisterMessage(Message message)
     {
-        _registeredMessages.remove(message.getMessageName());
-        _registeredHandlers.remove(message);
+        synchronized (_registeredMessages) {
+            Message registered = _registeredMessages.remove(message.getMessageName());
+            if (registered == null) return;
+            // Ids are not reused - the slot is simply emptied out
+            MessageHandler[][] handlers = _handlers.clone();
+            handlers[registered.getId()] = null;
+            _handlers = handlers;
+        }
     }
 
     /**
@@ -137,11 +257,14 @@ public class MessagePump {
     public void sendMessage(Message message)
     {
         //System.out.println("Sending message: " + message.getMessageName());
-        if (!_registeredMessages.containsKey(message.getMessageName()))
+        Message registered = _registeredMessages.get(message.getMessageName());
+        if (registered == null)
         {
             throw new IllegalArgumentException("Non-registered message passed into MessagePump");
         }
-        _messageBuffer.add(message);
+        // The scratch message gets reused on the next dispatch so only its data can be queued
+        if (message == _scratch) _enqueue(registered.getId(), message.getMessageData(), null);
+        else _enqueue(registered.getId(), message.getMessageData(), message);
     }
 
     /**
@@ -151,25 +274,55 @@ public class MessagePump {
      */
     public void sendMessage(String message)
     {
-        sendMessage(getRegisteredMessage(message));
+        sendMessage(message, null);
+    }
+
+    /**
+     * Same as sendMessage(new Message(message, data)) but without allocating a new Message.
+     * @param message name of the registered message to send
+     * @param data data to go along with the message (can be null)
+     */
+    public void sendMessage(String message, Object data)
+    {
+        Message registered = _registeredMessages.get(message);
+        if (registered == null)
+        {
+            throw new IllegalArgumentException("Non-registered message passed into MessagePump");
+        }
+        _enqueue(registered.getId(), data, null);
     }
 
     /**
      * If you are not the simulation.engine then it is best not to call this
+     * @return number of messages that were dispatched
      */
-    void dispatchMessages()
+    int dispatchMessages()
     {
-        LinkedList<Message> buffer = new LinkedList<>();
+        MessageQueue queue;
+        int numDispatched = 0;
         synchronized(this) {
-            int numMessages = _messageBuffer.size(); // Take a snapshot of the size
-            for (int i = 0; i < numMessages; ++i) {
-                Message msg = _messageBuffer.poll();
-                buffer.add(msg);
-            }
+            // Swap the queues so that anything sent while dispatching ends up in the next pass
+            queue = _backQueue;
+            _backQueue = _frontQueue;
+            _frontQueue = queue;
+            ++_sequence;
         }
-        for (Message msg : buffer)
+        MessageHandler[][] table = _handlers;
+        Message[] messagesById = _messagesById;
+        while (queue._size > 0)
         {
-            LinkedList<MessageHandler> interested = _registeredHandlers.get(msg);
+            int head = queue._head;
+            int id = queue._ids[head];
+            Object data = queue._data[head];
+            Message msg = queue._messages[head];
+            queue._poll();
+            ++numDispatched;
+            MessageHandler[] interested = id < table.length ? table[id] : null;
+            if (interested == null) continue; // Unregistered since it was sent
+            if (msg == null) {
+                msg = _scratch;
+                msg.set(messagesById[id], data);
+            }
             for (MessageHandler handler : interested)
             {
                 try {
@@ -180,6 +333,74 @@ public class MessagePump {
                     e.printStackTrace();
                 }
             }
+            if (msg == _scratch) msg.set(null, null); // Don't hold on to the data
+        }
+        return numDispatched;
+    }
+
+    /**
+     * Must be called while holding the pump's lock. Changes whenever a message is queued or
+     * dispatching starts, so a sender can tell whether the last message it queued is still the
+     * last one waiting to be dispatched.
+     */
+    long getSequence()
+    {
+        return _sequence;
+    }
+
+    /**
+     * @return true if the calling thread's messages are currently going into a DeferredMessages buffer
+     */
+    boolean isDeferring()
+    {
+        return _numDeferring.get() > 0 && _deferred.get() != null;
+    }
+
+    /**
+     * Everything the calling thread sends from now until endDeferring() goes into the
+     * buffer instead of the pump
+     */
+    void beginDeferring(DeferredMessages buffer)
+    {
+        _deferred.set(buffer);
+        _numDeferring.incrementAndGet();
+    }
+
+    void endDeferring()
+    {
+        _deferred.remove();
+        _numDeferring.decrementAndGet();
+    }
+
+    /**
+     * Moves everything in the buffer into the pump, leaving the buffer empty
+     */
+    void flushDeferred(DeferredMessages buffer)
+    {
+        MessageQueue deferred = buffer._queue;
+        if (deferred._size == 0) return;
+        synchronized(this) {
+            while (deferred._size > 0) {
+                int head = deferred._head;
+                _backQueue.add(deferred._ids[head], deferred._data[head], deferred._messages[head]);
+                deferred._poll();
+                ++_sequence;
+            }
+        }
+    }
+
+    private void _enqueue(int id, Object data, Message message)
+    {
+        if (_numDeferring.get() > 0) {
+            DeferredMessages deferred = _deferred.get();
+            if (deferred != null) {
+                deferred._queue.add(id, data, message);
+                return;
+            }
+        }
+        synchronized(this) {
+            _backQueue.add(id, data, message);
+            ++_sequence;
         }
     }
 }
@@ -66,13 +66,13 @@ public abstract class MouseInputComponent {
      * the Engine's window manager.
      */
     public final void enableMouseInputComponent() {
-        Engine.getMessagePump().sendMessage(new Message(Window.W_REGISTER_MOUSE_INPUT_COMPONENT, this));
+        Engine.getMessagePump().sendMessage(Window.W_REGISTER_MOUSE_INPUT_COMPONENT, this);
     }
 
     /**
      * Disables the mouse input component so that it will no longer receive updates.
      */
     public final void disableMouseInputComponent() {
-        Engine.getMessagePump().sendMessage(new Message(Window.W_DEREGISTER_MOUSE_INPUT_COMPONENT, this));
+        Engine.getMessagePump().sendMessage(Window.W_DEREGISTER_MOUSE_INPUT_COMPONENT, this);
     }
 }
@@ -4,29 +4,69 @@ import engine.math.Vector3;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
 public class PhysicsSimulation implements Task, MessageHandler {
     private static final Object _obj = new Object();
     private ConcurrentHashMap<ActorGraph, Object> _actors;
     private HashSet<ActorGraph> _rootSet;
-    private QuadTree<ActorGraph> _actorTree;
+    private volatile Broadphase _broadphase;
+    // Actors which aren't moving stay here instead of being re-added to the broadphase every step
+    private volatile StationaryActorIndex _stationaryIndex;
     private AtomicReference<Double> _deltaSeconds = new AtomicReference<>(0.0);
+    // Only actors which listen for overlaps (i.e. are not passive) have an entry
     private ConcurrentHashMap<Actor, HashSet<Actor>> _collisions;
+    // Trails remember which segment each actor touched and need to be reset every step
+    private final Set<Trail> _trails = ConcurrentHashMap.newKeySet();
+    // Number of collision tasks to create per logic thread - more than 1 so that threads
+    // which finish early can steal work from threads which got the crowded leaves
+    private static final int _TASKS_PER_THREAD = 4;
+    private final ArrayList<CollisionTask> _collisionTasks = new ArrayList<>();
+    private Task[] _collisionTaskArray = new Task[0];
+    // Collision callbacks are dispatched by actor - each task gets a contiguous range of these
+    private final ArrayList<Actor> _overlappingActors = new ArrayList<>();
+    private final ArrayList<CollisionEventTask> _eventTasks = new ArrayList<>();
+    private Task[] _eventTaskArray = new Task[0];
+    // Packed storage used instead of the per-actor vectors when phys_packed_actors is enabled
+    private final ActorStore _actorStore = new ActorStore();
+    private final ConcurrentLinkedQueue<ActorGraph> _pendingUnbinds = new ConcurrentLinkedQueue<>();
+    private final ArrayList<ActorGraph> _movedActors = new ArrayList<>();
+    private volatile boolean _usePackedStore;
+    private boolean _packedStoreActive = false; // Only touched by the physics step
+    // Actors whose bounds changed during the last step - lets the renderer keep its visibility
+    // index up to date without looking at everyone
+    private final ArrayList<ActorGraph> _changedActors = new ArrayList<>();
+    private volatile long _stepCount = 0;
+    private volatile long _numStepsStarted = 0;
+    // Stages of a single step (see addStepJobs()) along with the state they hand to each other
+    private final JobGraph _stepGraph = new JobGraph();
+    private Broadphase _stepBroadphase;
+    private StationaryActorIndex _stepStationaryIndex;
+    // FrameProfiler start times for stages which span more than one job
+    private long _narrowphaseStart;
+    private long _dispatchStart;
+    private IntCvar _worldStartX;
+    private IntCvar _worldStartY;
+    private IntCvar _worldWidth;
+    private IntCvar _worldHeight;
 
     public void init() {
         Engine.getMessagePump().signalInterest(Constants.ADD_GRAPHICS_ENTITY, this);
         Engine.getMessagePump().signalInterest(Constants.REMOVE_GRAPHICS_ENTITY, this);
+        Engine.getMessagePump().signalInterest(Engine.APPLY_WORLD_COMMANDS, this);
         Engine.getMessagePump().signalInterest(Constants.CONSOLE_VARIABLE_CHANGED, this);
         _actors = new ConcurrentHashMap<>();
         _rootSet = new HashSet<>();
         _collisions = new ConcurrentHashMap<>(100);
-        int worldStartX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
-        int worldStartY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
-        int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
-        int worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt();
-        int worldWidthHeight = worldWidth > worldHeight ? worldWidth : worldHeight;
-        _actorTree = new QuadTree<>(worldStartX, worldStartY, worldWidthHeight, 10, 100);
+        _worldStartX = Engine.getConsoleVariables().bindInt(Constants.WORLD_START_X);
+        _worldStartY = Engine.getConsoleVariables().bindInt(Constants.WORLD_START_Y);
+        _worldWidth = Engine.getConsoleVariables().bindInt(Constants.WORLD_WIDTH);
+        _worldHeight = Engine.getConsoleVariables().bindInt(Constants.WORLD_HEIGHT);
+        _broadphase = _createBroadphase();
+        _stationaryIndex = _createStationaryIndex();
+        _usePackedStore = Engine.getConsoleVariables().find(Constants.PHYS_PACKED_ACTORS).getcvarAsBool();
+        if (_stepGraph.getNumJobs() == 0) addStepJobs(_stepGraph);
     }
 
     public void setDeltaSeconds(double deltaSeconds) {
@@ -38,53 +78,141 @@ public class PhysicsSimulation implements Task, MessageHandler {
         return _collisions;
     }
 
+    /**
+     * Runs a single step and waits for it to finish. Anyone who wants to run other work after a
+     * step without waiting on it should put the step into their own graph with addStepJobs().
+     */
     @Override
     public void execute() {
-        _updateEntities(_deltaSeconds.get());
-        _checkForCollisions();
+        TaskManager taskManager = Engine.getTaskManager();
+        TaskManager.Counter counter = taskManager == null ? null : taskManager.submitGraph(_stepGraph);
+        // Task manager is shutting down so just run everything here
+        if (counter == null) _stepGraph.runSerially();
+        else counter.waitForCompletion();
+    }
+
+    /**
+     * Package private - adds the stages of a single step to the graph, each of which starts as
+     * soon as the one before it is done:
+     *      integrate (+ broadphase update) -> narrowphase -> merge results -> collision dispatch -> finish
+     *
+     * @return last job of the step - anything which needs the results of the step should depend on it
+     */
+    JobGraph.Job addStepJobs(JobGraph graph) {
+        JobGraph.Job integrate = graph.addJob(this::_integrate);
+        JobGraph.Job narrowphase = graph.addJob(this::_prepareCollisionTasks).dependsOn(integrate);
+        JobGraph.Job merge = graph.addJob(this::_mergeCollisions).dependsOn(narrowphase);
+        JobGraph.Job dispatch = graph.addJob(this::_prepareCollisionEventTasks).dependsOn(merge);
+        return graph.addJob(this::_finishStep).dependsOn(dispatch);
+    }
+
+    /**
+     * Only valid between steps. The list is reused by the next step so anyone who needs it
+     * should check getStepCount() to see if they missed one.
+     */
+    ArrayList<ActorGraph> getChangedActors() {
+        return _changedActors;
+    }
+
+    long getStepCount() {
+        return _stepCount;
     }
 
     @Override
     public void handleMessage(Message message) {
         switch(message.getMessageName()) {
             case Constants.ADD_GRAPHICS_ENTITY:
-            {
-                _actors.putIfAbsent((ActorGraph)message.getMessageData(), _obj);
-                _collisions.putIfAbsent((ActorGraph)message.getMessageData(), new HashSet<>(25));
+                _addActor((ActorGraph)message.getMessageData());
                 break;
-            }
             case Constants.REMOVE_GRAPHICS_ENTITY:
+                _removeActor((ActorGraph)message.getMessageData());
+                break;
+            case Engine.APPLY_WORLD_COMMANDS:
             {
-                Object obj = message.getMessageData();
-                if (obj == null) return;
-                _actors.remove(obj);
-                _collisions.remove(obj);
+                WorldCommandBuffer.Batch batch = (WorldCommandBuffer.Batch)message.getMessageData();
+                for (int i = 0; i < batch.size(); ++i) {
+                    byte op = batch.getOperation(i);
+                    if (op == WorldCommandBuffer.ADD_GRAPHICS_ENTITY) _addActor((ActorGraph)batch.getTarget(i));
+                    else if (op == WorldCommandBuffer.REMOVE_GRAPHICS_ENTITY) _removeActor((ActorGraph)batch.getTarget(i));
+                }
                 break;
             }
             case Constants.CONSOLE_VARIABLE_CHANGED:
             {
                 ConsoleVariable var = (ConsoleVariable)message.getMessageData();
-                int worldX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
-                int worldY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
-                int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
-                int worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt();
                 if (var.getcvarName().equals(Constants.WORLD_WIDTH) || var.getcvarName().equals(Constants.WORLD_HEIGHT)
-                        || var.getcvarName().equals(Constants.WORLD_START_X) || var.getcvarName().equals(Constants.WORLD_START_Y)) {
-                    _actorTree = new QuadTree<>(worldX, worldY, worldWidth > worldHeight ? worldWidth : worldHeight,
-                            10, 100);
+                        || var.getcvarName().equals(Constants.WORLD_START_X) || var.getcvarName().equals(Constants.WORLD_START_Y)
+                        || var.getcvarName().equals(Constants.PHYS_BROADPHASE)
+                        || var.getcvarName().equals(Constants.PHYS_GRID_CELL_SIZE)) {
+                    // The new broadphase starts out empty and picks up every actor during the next step
+                    _broadphase = _createBroadphase();
+                    _stationaryIndex = _createStationaryIndex();
+                }
+                else if (var.getcvarName().equals(Constants.PHYS_PACKED_ACTORS)) {
+                    _usePackedStore = var.getcvarAsBool();
                 }
             }
         }
     }
 
-    private void _updateEntities(double deltaSeconds)
-    {
-        _rootSet.clear();
-        _actorTree.clear();
-        int worldStartX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
-        int worldStartY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
+    private Broadphase _createBroadphase() {
+        int worldX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
+        int worldY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
         int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
         int worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt();
+        String type = Engine.getConsoleVariables().find(Constants.PHYS_BROADPHASE).getcvarValue();
+        switch (type) {
+            case "sap":
+                return new SweepAndPruneBroadphase(worldWidth, worldHeight);
+            case "grid":
+                return new GridBroadphase(worldX, worldY, worldWidth, worldHeight,
+                        Engine.getConsoleVariables().find(Constants.PHYS_GRID_CELL_SIZE).getcvarAsInt());
+            case "quadtree":
+                break;
+            default:
+                System.err.println("WARNING: Unknown broadphase (" + type + ") - falling back to quadtree");
+                break;
+        }
+        return new QuadTreeBroadphase(worldX, worldY, worldWidth > worldHeight ? worldWidth : worldHeight);
+    }
+
+    private StationaryActorIndex _createStationaryIndex() {
+        return new StationaryActorIndex(Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt(),
+                Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt(),
+                Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt(),
+                Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt(),
+                Engine.getConsoleVariables().find(Constants.PHYS_GRID_CELL_SIZE).getcvarAsInt());
+    }
+
+    // Only roots with nothing attached can be stationary since attached actors follow their root
+    private static boolean _isStationary(ActorGraph graph)
+    {
+        if (graph.isAttached() || !graph.getActors().isEmpty()) return false;
+        if (graph.isStationary()) return true;
+        return graph.getSpeedX() == 0 && graph.getSpeedY() == 0 &&
+                graph.getAccelerationX() == 0 && graph.getAccelerationY() == 0;
+    }
+
+    // Stationary actors are only wrapped/re-indexed when something other than physics moved them
+    private void _updateStationary(StationaryActorIndex stationaryIndex, ActorGraph actor, int worldStartX,
+                                   int worldStartY, int worldWidth, int worldHeight)
+    {
+        if (stationaryIndex.hasChanged(actor)) {
+            _checkAndCorrectOutOfBounds(actor, worldStartX, worldStartY, worldWidth, worldHeight);
+            if (actor.syncSteppedBounds()) _changedActors.add(actor);
+        }
+        stationaryIndex.update(actor);
+    }
+
+    private void _updateEntities(double deltaSeconds, Broadphase broadphase, StationaryActorIndex stationaryIndex)
+    {
+        _rootSet.clear();
+        broadphase.beginUpdate();
+        stationaryIndex.beginUpdate();
+        int worldStartX = _worldStartX.get();
+        int worldStartY = _worldStartY.get();
+        int worldWidth = _worldWidth.get();
+        int worldHeight = _worldHeight.get();
         // Account for the fact that worldStartX/worldStartY may not simply be 0
         worldWidth += worldStartX;
         worldHeight += worldStartY;
@@ -95,6 +223,10 @@ public class PhysicsSimulation implements Task, MessageHandler {
             ActorGraph graph = graphEntry.getKey();
             if (_rootSet.contains(graph)) continue; // Already processed this actor and its attached actors
             if (graph.isAttached()) continue; // Will be processed later
+            if (_isStationary(graph)) {
+                _updateStationary(stationaryIndex, graph, worldStartX, worldStartY, worldWidth, worldHeight);
+                continue;
+            }
             Vector3 speed = graph.getSpeedVec();
             Vector3 acceleration = graph.getAccelerationVec();
             speed.setXYZ(speed.x() + acceleration.x() * deltaSeconds,
@@ -111,18 +243,89 @@ public class PhysicsSimulation implements Task, MessageHandler {
                     depth);
             _checkAndCorrectOutOfBounds(graph, worldStartX, worldStartY, worldWidth, worldHeight);
             _rootSet.add(graph);
-            _actorTree.add(graph);
+            broadphase.update(graph);
+            stationaryIndex.addMoving(graph);
+            if (graph.syncSteppedBounds()) _changedActors.add(graph);
             for (Map.Entry<ActorGraph, Object> attached : graph.getActors().entrySet())
             {
-                _updateGraphEntitiesRecursive(attached.getKey(), worldStartX, worldStartY, worldWidth,
-                        worldHeight, deltaSpeedX, deltaSpeedY);
+                _updateGraphEntitiesRecursive(broadphase, stationaryIndex, attached.getKey(), worldStartX, worldStartY,
+                        worldWidth, worldHeight, deltaSpeedX, deltaSpeedY);
             }
         }
+        broadphase.endUpdate();
+        stationaryIndex.endUpdate();
+    }
+
+    // Same as _updateEntities except that the actors' data lives in the ActorStore. The graph
+    // is only walked to figure out which root each actor inherits its speed from - the actual
+    // integration and wraparound are done by the store in tight loops over its arrays.
+    private void _updateEntitiesPacked(double deltaSeconds, Broadphase broadphase, StationaryActorIndex stationaryIndex)
+    {
+        _packedStoreActive = true;
+        for (ActorGraph removed = _pendingUnbinds.poll(); removed != null; removed = _pendingUnbinds.poll()) {
+            _actorStore.unbind(removed);
+        }
+        _rootSet.clear();
+        _movedActors.clear();
+        _actorStore.resetDrivers();
+        int worldStartX = _worldStartX.get();
+        int worldStartY = _worldStartY.get();
+        int worldWidth = _worldWidth.get();
+        int worldHeight = _worldHeight.get();
+        stationaryIndex.beginUpdate();
+        for (Map.Entry<ActorGraph, Object> graphEntry : _actors.entrySet())
+        {
+            ActorGraph graph = graphEntry.getKey();
+            if (_rootSet.contains(graph)) continue; // Already processed this actor and its attached actors
+            if (graph.isAttached()) continue; // Will be processed later
+            _actorStore.bind(graph);
+            // Without a driver the store leaves it where it is
+            if (_isStationary(graph)) {
+                _updateStationary(stationaryIndex, graph, worldStartX, worldStartY,
+                        worldStartX + worldWidth, worldStartY + worldHeight);
+                continue;
+            }
+            _actorStore.setDriver(graph, graph);
+            _rootSet.add(graph);
+            _movedActors.add(graph);
+            for (Map.Entry<ActorGraph, Object> attached : graph.getActors().entrySet())
+            {
+                _assignDriversRecursive(attached.getKey(), graph);
+            }
+        }
+        _actorStore.integrate(deltaSeconds, worldStartX, worldStartY, worldStartX + worldWidth,
+                worldStartY + worldHeight);
+        // The broadphase has to see the new positions so this is done after integrating
+        broadphase.beginUpdate();
+        for (int i = 0; i < _movedActors.size(); ++i) {
+            ActorGraph actor = _movedActors.get(i);
+            broadphase.update(actor);
+            stationaryIndex.addMoving(actor);
+            if (actor.syncSteppedBounds()) _changedActors.add(actor);
+        }
+        broadphase.endUpdate();
+        stationaryIndex.endUpdate();
+    }
+
+    private void _assignDriversRecursive(ActorGraph actor, ActorGraph root)
+    {
+        if (_actors.containsKey(actor) && !_rootSet.contains(actor))
+        {
+            _actorStore.bind(actor);
+            _actorStore.setDriver(actor, root);
+            _movedActors.add(actor);
+        }
+        _rootSet.add(actor);
+        for (Map.Entry<ActorGraph, Object> attached : actor.getActors().entrySet())
+        {
+            _assignDriversRecursive(attached.getKey(), root);
+        }
     }
 
     // We need to do this because actors can be attached to other actors to form a graph
     // structure which inherits speed/acceleration from the root actor
-    private void _updateGraphEntitiesRecursive(ActorGraph actor, int worldStartX, int worldStartY,
+    private void _updateGraphEntitiesRecursive(Broadphase broadphase, StationaryActorIndex stationaryIndex,
+                                               ActorGraph actor, int worldStartX, int worldStartY,
                                                int worldWidth, int worldHeight,
                                                double deltaSpeedX, double deltaSpeedY)
     {
@@ -134,14 +337,16 @@ public class PhysicsSimulation implements Task, MessageHandler {
                     actor.getLocationY() + deltaSpeedY * (actor.shouldConstrainYMovement() ? 0 : 1),
                     actor.getDepth());
             _checkAndCorrectOutOfBounds(actor, worldStartX, worldStartY, worldWidth, worldHeight);
-            _actorTree.add(actor);
+            broadphase.update(actor);
+            stationaryIndex.addMoving(actor);
+            if (actor.syncSteppedBounds()) _changedActors.add(actor);
         }
         _rootSet.add(actor);
         // Process its attached actors regardless
         for (Map.Entry<ActorGraph, Object> attached : actor.getActors().entrySet())
         {
-            _updateGraphEntitiesRecursive(attached.getKey(), worldStartX, worldStartY, worldWidth,
-                    worldHeight, deltaSpeedX, deltaSpeedY);
+            _updateGraphEntitiesRecursive(broadphase, stationaryIndex, attached.getKey(), worldStartX, worldStartY,
+                    worldWidth, worldHeight, deltaSpeedX, deltaSpeedY);
         }
     }
 
@@ -149,37 +354,223 @@ public class PhysicsSimulation implements Task, MessageHandler {
     private void _checkAndCorrectOutOfBounds(Actor actor, int worldStartX, int worldStartY,
                                              int worldWidth, int worldHeight)
     {
-        Vector3 translation = actor.getTranslationVec();
-        double x = translation.x();
-        double y = translation.y();
+        // Goes through the getters/setters since stationary actors can be in the packed store
+        double x = actor.getLocationX();
+        double y = actor.getLocationY();
         double width = actor.getWidth();
         double height = actor.getHeight();
-        if (x + width < worldStartX) x = worldWidth - width;
-        else if (x > worldWidth) x = worldStartX;
-        if (y + height < worldStartY) y = worldHeight - height;
-        else if (y > worldHeight) y = worldStartY;
-        translation.setXYZ(x, y, 1);
+        boolean wrapped = false;
+        if (x + width < worldStartX) { x = worldWidth - width; wrapped = true; }
+        else if (x > worldWidth) { x = worldStartX; wrapped = true; }
+        if (y + height < worldStartY) { y = worldHeight - height; wrapped = true; }
+        else if (y > worldHeight) { y = worldStartY; wrapped = true; }
+        if (wrapped) actor.setLocationXYDepth(x, y, actor.getDepth());
+    }
+
+    private void _finishStep() {
+        Engine.getProfiler().end(FrameProfiler.COLLISION_DISPATCH, _dispatchStart);
+        ++_stepCount;
+    }
+
+    private void _integrate() {
+        long start = Engine.getProfiler().begin();
+        ++_numStepsStarted;
+        // Take local references since these can be swapped out by a cvar change mid-step
+        Broadphase broadphase = _broadphase;
+        StationaryActorIndex stationaryIndex = _stationaryIndex;
+        _stepBroadphase = broadphase;
+        _stepStationaryIndex = stationaryIndex;
+        _changedActors.clear();
+        if (_usePackedStore) _updateEntitiesPacked(_deltaSeconds.get(), broadphase, stationaryIndex);
+        else {
+            if (_packedStoreActive) {
+                // Packed storage was just turned off so hand everyone their data back
+                _pendingUnbinds.clear();
+                _actorStore.unbindAll();
+                _packedStoreActive = false;
+            }
+            _updateEntities(_deltaSeconds.get(), broadphase, stationaryIndex);
+        }
+        Engine.getProfiler().end(FrameProfiler.PHYSICS_INTEGRATE, start);
     }
 
-    private void _checkForCollisions() {
-        Iterator<HashSet<ActorGraph>> iterator = _actorTree.getLeafIterator();
+    private Task[] _prepareCollisionTasks() {
+        _narrowphaseStart = Engine.getProfiler().begin();
+        Broadphase broadphase = _stepBroadphase;
+        StationaryActorIndex stationaryIndex = _stepStationaryIndex;
         // Clear out the collisions from the previous iteration
-        for (Map.Entry<Actor, HashSet<Actor>> entry : _collisions.entrySet()) entry.getValue().clear();
-        while (iterator.hasNext()) {
-            HashSet<ActorGraph> set = iterator.next();
-            for (ActorGraph outer : set) {
-                HashSet<Actor> outerCollisions = _collisions.get(outer);
-                if (outerCollisions == null) continue;
-                double depth = outer.getDepth();
-                for (ActorGraph inner : set) {
-                    if (outer == inner || depth != inner.getDepth()) continue;
-                    HashSet<Actor> innerCollisions = _collisions.get(inner);
-                    if (innerCollisions == null) continue;
-                    if (_collided(outer, inner)) {
-                        outerCollisions.add(inner);
-                        innerCollisions.add(outer);
-                        //System.out.println(outer + " collided with " + inner);
-                    }
+        Iterator<Map.Entry<Actor, HashSet<Actor>>> entries = _collisions.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Actor, HashSet<Actor>> entry = entries.next();
+            // Actors can be made passive after they were added
+            if (entry.getKey().isPassiveCollider()) entries.remove();
+            else entry.getValue().clear();
+        }
+        for (Trail trail : _trails) trail.clearContacts();
+        // Partitions past the broadphase's own belong to the stationary index
+        int numPartitions = broadphase.getNumPartitions() + stationaryIndex.getNumPartitions();
+        TaskManager taskManager = Engine.getTaskManager();
+        int numTasks = taskManager == null ? 1 : taskManager.getNumThreads() * _TASKS_PER_THREAD;
+        if (numTasks > numPartitions) numTasks = numPartitions;
+        if (numTasks < 1) numTasks = 1;
+        while (_collisionTasks.size() < numTasks) _collisionTasks.add(new CollisionTask());
+        // Split the partitions into contiguous ranges so that each task has its own private
+        // collision buffer and never has to synchronize with the others
+        int partitionsPerTask = numPartitions / numTasks;
+        int remainder = numPartitions % numTasks;
+        int start = 0;
+        for (int i = 0; i < numTasks; ++i) {
+            int end = start + partitionsPerTask + (i < remainder ? 1 : 0);
+            _collisionTasks.get(i).setPartitionRange(broadphase, stationaryIndex, start, end);
+            start = end;
+        }
+        if (_collisionTaskArray.length != numTasks) {
+            _collisionTaskArray = new Task[numTasks];
+            for (int i = 0; i < numTasks; ++i) _collisionTaskArray[i] = _collisionTasks.get(i);
+        }
+        return _collisionTaskArray;
+    }
+
+    private void _mergeCollisions() {
+        FrameProfiler profiler = Engine.getProfiler();
+        profiler.end(FrameProfiler.PHYSICS_NARROWPHASE, _narrowphaseStart);
+        long start = profiler.begin();
+        // Merge the thread-local buffers back into the shared collision table
+        for (int i = 0; i < _collisionTaskArray.length; ++i) {
+            ArrayList<ActorGraph> pairs = _collisionTasks.get(i).getCollidedPairs();
+            for (int pair = 0; pair < pairs.size(); pair += 2) {
+                ActorGraph outer = pairs.get(pair);
+                ActorGraph inner = pairs.get(pair + 1);
+                // Actors removed since the broadphase was updated are skipped
+                if (!_actors.containsKey(outer) || !_actors.containsKey(inner)) continue;
+                if (outer.listensFor(inner)) _getCollisionSet(outer).add(inner);
+                if (inner.listensFor(outer)) _getCollisionSet(inner).add(outer);
+            }
+            pairs.clear(); // Don't hold on to references past this step
+        }
+        profiler.end(FrameProfiler.PHYSICS_MERGE, start);
+    }
+
+    // Runs every actor's onActorOverlapped() and collision callbacks. This is its own phase so that
+    // the game logic triggered by overlaps is spread over the logic threads instead of landing on
+    // whichever thread draws the scene.
+    private Task[] _prepareCollisionEventTasks() {
+        _dispatchStart = Engine.getProfiler().begin();
+        _overlappingActors.clear();
+        for (Map.Entry<Actor, HashSet<Actor>> entry : _collisions.entrySet()) {
+            if (entry.getValue().size() > 0) _overlappingActors.add(entry.getKey());
+        }
+        if (_overlappingActors.size() == 0) return null;
+        TaskManager taskManager = Engine.getTaskManager();
+        // Callbacks on different threads race each other (ex: two viruses infecting the same cell),
+        // so fixed timestep runs dispatch everything in one pass to stay repeatable
+        int numTasks = 1;
+        if (taskManager != null && !Engine.isFixedTimestep()) numTasks = taskManager.getNumThreads() * _TASKS_PER_THREAD;
+        if (numTasks > _overlappingActors.size()) numTasks = _overlappingActors.size();
+        while (_eventTasks.size() < numTasks) _eventTasks.add(new CollisionEventTask());
+        int actorsPerTask = _overlappingActors.size() / numTasks;
+        int remainder = _overlappingActors.size() % numTasks;
+        int start = 0;
+        for (int i = 0; i < numTasks; ++i) {
+            int end = start + actorsPerTask + (i < remainder ? 1 : 0);
+            _eventTasks.get(i).setActorRange(start, end);
+            start = end;
+        }
+        if (_eventTaskArray.length != numTasks) {
+            _eventTaskArray = new Task[numTasks];
+            for (int i = 0; i < numTasks; ++i) _eventTaskArray[i] = _eventTasks.get(i);
+        }
+        return _eventTaskArray;
+    }
+
+    private void _addActor(ActorGraph actor) {
+        _actors.putIfAbsent(actor, _obj);
+        if (!actor.isPassiveCollider()) _collisions.putIfAbsent(actor, new HashSet<>(25));
+        if (actor instanceof Trail) _trails.add((Trail)actor);
+    }
+
+    private void _removeActor(ActorGraph actor) {
+        if (actor == null) return;
+        _actors.remove(actor);
+        _collisions.remove(actor);
+        _trails.remove(actor);
+        // A step which is already running may still hold pairs with this actor, but the next one
+        // to start won't. Once that one finishes (getStepCount() reaches it) the actor is fully gone.
+        actor.setRemovalStep(_numStepsStarted + 1);
+        // The store is only modified by the physics step so let it release the slot
+        if (_usePackedStore) _pendingUnbinds.add(actor);
+    }
+
+    // Actors which stopped being passive after they were added won't have a set yet
+    private HashSet<Actor> _getCollisionSet(Actor actor) {
+        HashSet<Actor> collisions = _collisions.get(actor);
+        if (collisions == null) {
+            collisions = new HashSet<>(25);
+            _collisions.put(actor, collisions);
+        }
+        return collisions;
+    }
+
+    // Runs the narrowphase for a range of broadphase partitions and stores every pair it finds
+    // in its own buffer (pairs are stored flat, i.e. [a0, b0, a1, b1, ...])
+    private class CollisionTask implements Task, Broadphase.PairCallback {
+        private final ArrayList<ActorGraph> _collidedPairs = new ArrayList<>();
+        private Broadphase _broadphase;
+        private StationaryActorIndex _stationaryIndex;
+        private int _startPartition;
+        private int _endPartition;
+
+        void setPartitionRange(Broadphase broadphase, StationaryActorIndex stationaryIndex,
+                               int startPartition, int endPartition) {
+            _broadphase = broadphase;
+            _stationaryIndex = stationaryIndex;
+            _startPartition = startPartition;
+            _endPartition = endPartition;
+        }
+
+        ArrayList<ActorGraph> getCollidedPairs() {
+            return _collidedPairs;
+        }
+
+        @Override
+        public void execute() {
+            _collidedPairs.clear();
+            int numBroadphasePartitions = _broadphase.getNumPartitions();
+            for (int partition = _startPartition; partition < _endPartition; ++partition) {
+                if (partition < numBroadphasePartitions) _broadphase.findCandidatePairs(partition, this);
+                else _stationaryIndex.findCandidatePairs(partition - numBroadphasePartitions, this);
+            }
+        }
+
+        @Override
+        public void onCandidatePair(ActorGraph first, ActorGraph second) {
+            if (first == second || first.getDepth() != second.getDepth()) return;
+            if (_collided(first, second)) {
+                _collidedPairs.add(first);
+                _collidedPairs.add(second);
+            }
+        }
+    }
+
+    // Calls the collision callbacks for a range of _overlappingActors
+    private class CollisionEventTask implements Task {
+        private int _start;
+        private int _end;
+
+        void setActorRange(int start, int end) {
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        public void execute() {
+            for (int i = _start; i < _end; ++i) {
+                Actor actor = _overlappingActors.get(i);
+                HashSet<Actor> actors = _collisions.get(actor);
+                if (actors == null) continue; // Removed from the world while the step was running
+                actor.onActorOverlapped(actor, actors);
+                for (CollisionEventCallback callback : actor.getCollisionEventCallbacks()) {
+                    callback.onActorOverlapped(actor, actors);
                 }
             }
         }
@@ -199,6 +590,13 @@ public class PhysicsSimulation implements Task, MessageHandler {
         //(_startX > edgeX) || (x > _edgeX) || (_startY > edgeY) || (y > _edgeY)
         // If any of the following are true, then we are not colliding, and if
         // not we assume a collision has taken place
-        return !((x1 > endX2) || (x2 > endX1) || (y1 > endY2) || (y2 > endY1));
+        if ((x1 > endX2) || (x2 > endX1) || (y1 > endY2) || (y2 > endY1)) return false;
+        // Trails are only touching if one of their segments is, not just their bounding box
+        boolean firstIsTrail = first instanceof Trail;
+        boolean secondIsTrail = second instanceof Trail;
+        if (firstIsTrail && secondIsTrail) return false;
+        if (firstIsTrail) return ((Trail)first).testContact(second);
+        if (secondIsTrail) return ((Trail)second).testContact(first);
+        return true;
     }
 }
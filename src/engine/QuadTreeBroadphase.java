@@ -0,0 +1,83 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Broadphase backed by a QuadTree which is cleared and rebuilt every physics step.
+ * Each leaf of the tree is one partition, and every pair of actors sharing a leaf
+ * is a candidate pair.
+ *
+ * @author Justin Hall
+ */
+class QuadTreeBroadphase implements Broadphase {
+    private final QuadTree<ActorGraph> _actorTree;
+    // Leaves are copied into arrays so that each pair only needs to be visited once
+    private final ArrayList<ActorGraph[]> _leaves = new ArrayList<>();
+    private int[] _leafSizes = new int[16];
+    private int _numLeaves = 0;
+
+    QuadTreeBroadphase(int worldStartX, int worldStartY, int worldWidthHeight) {
+        _actorTree = new QuadTree<>(worldStartX, worldStartY, worldWidthHeight, 10, 100);
+    }
+
+    @Override
+    public void beginUpdate() {
+        _actorTree.clear();
+    }
+
+    @Override
+    public void update(ActorGraph actor) {
+        _actorTree.add(actor);
+    }
+
+    @Override
+    public void endUpdate() {
+        // Null out what was left over from the previous step so we don't hold on to old actors
+        for (int leaf = 0; leaf < _numLeaves; ++leaf) {
+            ActorGraph[] actors = _leaves.get(leaf);
+            for (int i = 0; i < _leafSizes[leaf]; ++i) actors[i] = null;
+        }
+        _numLeaves = 0;
+        Iterator<HashSet<ActorGraph>> iterator = _actorTree.getLeafIterator();
+        while (iterator.hasNext()) {
+            HashSet<ActorGraph> set = iterator.next();
+            if (set.size() < 2) continue; // No pairs possible
+            if (_numLeaves == _leaves.size()) _leaves.add(new ActorGraph[set.size() * 2]);
+            if (_numLeaves == _leafSizes.length) {
+                int[] sizes = new int[_leafSizes.length * 2];
+                System.arraycopy(_leafSizes, 0, sizes, 0, _leafSizes.length);
+                _leafSizes = sizes;
+            }
+            ActorGraph[] actors = _leaves.get(_numLeaves);
+            if (actors.length < set.size()) {
+                actors = new ActorGraph[set.size() * 2];
+                _leaves.set(_numLeaves, actors);
+            }
+            int size = 0;
+            for (ActorGraph actor : set) actors[size++] = actor;
+            _leafSizes[_numLeaves] = size;
+            ++_numLeaves;
+        }
+    }
+
+    @Override
+    public int getNumPartitions() {
+        return _numLeaves;
+    }
+
+    @Override
+    public void findCandidatePairs(int partition, PairCallback callback) {
+        ActorGraph[] actors = _leaves.get(partition);
+        int size = _leafSizes[partition];
+        for (int i = 0; i < size; ++i) {
+            ActorGraph outer = actors[i];
+            for (int j = i + 1; j < size; ++j) {
+                ActorGraph inner = actors[j];
+                if (!Actor.canInteract(outer, inner)) continue;
+                callback.onCandidatePair(outer, inner);
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * Persistent, state-sorted draw list used by the Renderer. Every graphics entity belongs to
+ * a bucket keyed by (depth, fill state, is rotated) where the fill state is either the
+ * entity's color or its texture's image. Buckets are kept from one frame to the next and
+ * entities only change buckets when one of those three things changes, which is detected
+ * by comparing against the bucket the entity already caches - no hashing in the common case.
+ *
+ * Each frame the visible entities are submitted to their buckets and the buckets are then
+ * walked in draw order so that consecutive entities share as much graphics state as possible.
+ *
+ * @author Justin Hall
+ */
+class RenderQueue {
+    static final class Key {
+        final int _order; // Lower is drawn first
+        final Object _state;
+        final boolean _rotated;
+
+        Key(int order, Object state, boolean rotated) {
+            _order = order;
+            _state = state;
+            _rotated = rotated;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key)other;
+            return _order == key._order && _rotated == key._rotated && _state.equals(key._state);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_order, _state, _rotated);
+        }
+    }
+
+    static final class Bucket {
+        final Key _key;
+        final int _stateId;
+        private int _numMembers = 0;
+        private boolean _released = false;
+        private GraphicsEntity[] _visible = new GraphicsEntity[16];
+        private int _numVisible = 0;
+
+        private Bucket(Key key, int stateId) {
+            _key = key;
+            _stateId = stateId;
+        }
+
+        Object getState() {
+            return _key._state;
+        }
+
+        boolean isRotated() {
+            return _key._rotated;
+        }
+
+        int getNumVisible() {
+            return _numVisible;
+        }
+
+        GraphicsEntity getVisible(int index) {
+            return _visible[index];
+        }
+
+        private boolean _matches(int order, Object state, boolean rotated) {
+            return !_released && _key._order == order && _key._rotated == rotated &&
+                    (_key._state == state || _key._state.equals(state));
+        }
+
+        private void _addVisible(GraphicsEntity entity) {
+            if (_numVisible == _visible.length) _visible = Arrays.copyOf(_visible, _visible.length * 2);
+            _visible[_numVisible++] = entity;
+        }
+
+        private void _clearVisible() {
+            // Drop the references so removed entities don't stick around
+            Arrays.fill(_visible, 0, _numVisible, null);
+            _numVisible = 0;
+        }
+    }
+
+    private final HashMap<Key, Bucket> _buckets = new HashMap<>();
+    // Colors/images are numbered in the order they were first seen so buckets at the same
+    // depth sort the same way every frame
+    private final HashMap<Object, Integer> _stateIds = new HashMap<>();
+    private final ArrayList<Bucket> _sorted = new ArrayList<>();
+    private boolean _sortedIsDirty = false;
+
+    /**
+     * Starts tracking the entity using the given fill state
+     */
+    void add(GraphicsEntity entity, Object state) {
+        Bucket bucket = entity.getRenderBucket();
+        if (bucket != null && !bucket._released) return; // Already tracked
+        _assign(entity, _orderOf(entity), state, entity.getRotation() != 0);
+    }
+
+    void remove(GraphicsEntity entity) {
+        Bucket bucket = entity.getRenderBucket();
+        if (bucket == null) return;
+        entity.setRenderBucket(null);
+        if (!bucket._released) _release(bucket);
+    }
+
+    void clear() {
+        // Entities still point at their old buckets - marking them as released makes
+        // sure they get a new one the next time they are seen
+        for (Bucket bucket : _buckets.values()) bucket._released = true;
+        for (Bucket bucket : _sorted) bucket._clearVisible();
+        _buckets.clear();
+        _sorted.clear();
+        _sortedIsDirty = false;
+    }
+
+    /**
+     * Empties the visible list of every bucket - call before submitting this frame's entities
+     */
+    void beginFrame() {
+        if (_sortedIsDirty) _sortBuckets();
+        for (int i = 0; i < _sorted.size(); ++i) _sorted.get(i)._clearVisible();
+    }
+
+    /**
+     * Marks the entity as visible for this frame, moving it to a new bucket first if its
+     * depth, fill state or rotation changed since it was last seen
+     */
+    void submit(GraphicsEntity entity, Object state) {
+        int order = _orderOf(entity);
+        boolean rotated = entity.getRotation() != 0;
+        Bucket bucket = entity.getRenderBucket();
+        if (bucket == null || !bucket._matches(order, state, rotated)) {
+            if (bucket != null && !bucket._released) _release(bucket);
+            bucket = _assign(entity, order, state, rotated);
+            // New buckets need to be sorted in before they are drawn - this keeps whatever
+            // has already been submitted this frame
+            if (_sortedIsDirty) _sortBuckets();
+        }
+        bucket._addVisible(entity);
+    }
+
+    int getNumBuckets() {
+        return _sorted.size();
+    }
+
+    Bucket getBucket(int index) {
+        return _sorted.get(index);
+    }
+
+    private void _sortBuckets() {
+        _sorted.clear();
+        _sorted.addAll(_buckets.values());
+        _sorted.sort((a, b) -> {
+            if (a._key._order != b._key._order) return Integer.compare(a._key._order, b._key._order);
+            if (a._stateId != b._stateId) return Integer.compare(a._stateId, b._stateId);
+            return Boolean.compare(a._key._rotated, b._key._rotated);
+        });
+        _sortedIsDirty = false;
+    }
+
+    private static int _orderOf(GraphicsEntity entity) {
+        // * -1 because if the depth is negative it needs to come later in the list so that it
+        // gets drawn last and will then appear to be on top of other objects
+        return (int)entity.getDepth() * -1;
+    }
+
+    private Bucket _assign(GraphicsEntity entity, int order, Object state, boolean rotated) {
+        Key key = new Key(order, state, rotated);
+        Bucket bucket = _buckets.get(key);
+        if (bucket == null) {
+            Integer stateId = _stateIds.get(state);
+            if (stateId == null) {
+                stateId = _stateIds.size();
+                _stateIds.put(state, stateId);
+            }
+            bucket = new Bucket(key, stateId);
+            _buckets.put(key, bucket);
+            _sortedIsDirty = true;
+        }
+        ++bucket._numMembers;
+        entity.setRenderBucket(bucket);
+        return bucket;
+    }
+
+    private void _release(Bucket bucket) {
+        if (--bucket._numMembers > 0) return;
+        bucket._released = true;
+        bucket._clearVisible();
+        _buckets.remove(bucket._key);
+        _sortedIsDirty = true;
+    }
+}
@@ -10,7 +10,7 @@ import javafx.scene.transform.Rotate;
 import javafx.util.Pair;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The renderer manages all drawable entities in the scene and also
@@ -22,6 +22,11 @@ import java.util.concurrent.ConcurrentHashMap;
  * the rendering pipeline which are triggered by separate engine messages.
  * This means that disabling one or the other or both is very easy.
  *
+ * When drawing to the screen in real time the two stages overlap. Each entity's bounds are
+ * copied into a render snapshot at a single sync point (right before a physics step starts, or
+ * at the start of a frame if no step is running), and frames are drawn from that snapshot while
+ * the step writes the next one. When headless the stages still take turns.
+ *
  * @author Justin Hall
  */
 public class Renderer implements MessageHandler {
@@ -29,8 +34,19 @@ public class Renderer implements MessageHandler {
     private HashMap<String, ImageView> _textures = new HashMap<>();
     private HashSet<GraphicsEntity> _entities = new HashSet<>();
     private HashSet<ActorGraph> _rootSet = new HashSet<>();
-    private QuadTree<GraphicsEntity> _graphicsEntities;
-    private TreeMap<Integer, ArrayList<GraphicsEntity>> _drawOrder = new TreeMap<>();
+    // World-space visibility index. It is kept between frames and only entities which the physics
+    // simulation reports as having moved get updated, so actors never have to be moved into screen
+    // space to find out if they are visible
+    private SpatialHashGrid<GraphicsEntity> _visibilityGrid;
+    private boolean _visibilityIndexIsStale = true;
+    private long _indexedStep = -1;
+    private long _renderSyncedStep = -1; // Last physics step copied into the entities' render state
+    private final HashSet<GraphicsEntity> _visibleEntities = new HashSet<>();
+    private final ArrayList<GraphicsEntity> _lastVisibleEntities = new ArrayList<>();
+    // Static actors are already in screen space so they can't go into the world grid
+    private final HashSet<GraphicsEntity> _staticEntities = new HashSet<>();
+    // Kept between frames and only updated as entities are added/removed or change state
+    private final RenderQueue _renderQueue = new RenderQueue();
     private Camera _worldCamera;// = new Camera(); // Start with a default camera
     private Pair<Double, Double> _lastManualCameraOffsetXY;
     private Rotate _rotation = new Rotate(0);
@@ -38,7 +54,19 @@ public class Renderer implements MessageHandler {
     private double _zoom;
     private volatile boolean _renderedScene;
     private volatile boolean _updatingEntities;
+    // Physics step followed by clearing _updatingEntities - used when not running with a fixed timestep
+    private JobGraph _updateGraph;
     private volatile boolean _headless;
+    private IntCvar _screenWidth;
+    private IntCvar _screenHeight;
+    // Only used when running headless with r_capture_interval > 0
+    private FrameCapture _frameCapture;
+    private double _captureInterval;
+    private double _secondsSinceCapture;
+    // Renderers which had to make up their own capture folder since r_capture_dir was empty
+    private static final AtomicInteger _numDefaultCaptureDirs = new AtomicInteger(0);
+    private String _defaultCaptureDir;
+    private String _captureDirOverride; // See Constants.SET_CAPTURE_DIRECTORY
 
     public void init(GraphicsContext gc)
     {
@@ -46,23 +74,26 @@ public class Renderer implements MessageHandler {
         _rotation.setAxis(new Point3D(0, 0, 1)); // In 2D we rotate about the z-axis
         _collision = new PhysicsSimulation();
         _collision.init();
+        _updateGraph = new JobGraph();
+        JobGraph.Job step = _collision.addStepJobs(_updateGraph);
+        _updateGraph.addJob(() -> _updatingEntities = false).dependsOn(step);
         _renderedScene = false;
         _headless = _gc == null;
         _renderedScene = false;
         _updatingEntities = false;
         _zoom = 1.0;
+        _screenWidth = Engine.getConsoleVariables().bindInt(Constants.SCR_WIDTH);
+        _screenHeight = Engine.getConsoleVariables().bindInt(Constants.SCR_HEIGHT);
         _worldCamera = new Camera(); // Start with a default camera
         _lastManualCameraOffsetXY = _worldCamera.getManualOffsetXY();
-        int worldX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
-        int worldY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
-        int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
-        int worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt();
-        _graphicsEntities = new QuadTree<>(worldX, worldY, worldWidth > worldHeight ? worldWidth : worldHeight,
-                10, 100);
+        _createVisibilityGrid();
+        shutdown(); // Frames from a previous run
+        _createFrameCapture();
         //_updatingEntities = false;
         // Signal interest
         Engine.getMessagePump().signalInterest(Constants.ADD_GRAPHICS_ENTITY, this);
         Engine.getMessagePump().signalInterest(Constants.REMOVE_GRAPHICS_ENTITY, this);
+        Engine.getMessagePump().signalInterest(Engine.APPLY_WORLD_COMMANDS, this);
         Engine.getMessagePump().signalInterest(Constants.REGISTER_TEXTURE, this);
         Engine.getMessagePump().signalInterest(Constants.SET_MAIN_CAMERA, this);
         Engine.getMessagePump().signalInterest(Engine.R_RENDER_SCENE, this);
@@ -73,6 +104,7 @@ public class Renderer implements MessageHandler {
         Engine.getMessagePump().signalInterest(Constants.RESET_CAMERA_XY_OFFSET, this);
         Engine.getMessagePump().signalInterest(Constants.CONSOLE_VARIABLE_CHANGED, this);
         Engine.getMessagePump().signalInterest(Constants.SET_CAMERA_ZOOM, this);
+        Engine.getMessagePump().signalInterest(Constants.SET_CAPTURE_DIRECTORY, this);
         Engine.getMessagePump().signalInterest(Constants.SET_CAMERA_X_OFFSET, this);
         Engine.getMessagePump().signalInterest(Constants.SET_CAMERA_Y_OFFSET, this);
     }
@@ -81,24 +113,53 @@ public class Renderer implements MessageHandler {
     public void handleMessage(Message message) {
         switch (message.getMessageName())
         {
-            case Engine.R_RENDER_SCENE:
+            case Engine.R_RENDER_SCENE: {
+                FrameProfiler profiler = Engine.getProfiler();
+                long start = profiler.begin();
                 _render((Double)message.getMessageData());
+                profiler.end(FrameProfiler.RENDER, start);
+                profiler.recordCount(FrameProfiler.RENDER_ENTITIES, _entities.size());
                 break;
+            }
             case Engine.R_UPDATE_ENTITIES:
-                if (_updatingEntities || !_renderedScene) return; // Already checking for collisions/simulating movement
+                if (Engine.isFixedTimestep()) {
+                    // Physics has to run in lockstep with the frames for the results to be repeatable
+                    _collision.setDeltaSeconds((Double)message.getMessageData());
+                    _collision.execute();
+                    _renderedScene = false;
+                    break;
+                }
+                if (_updatingEntities) return; // Already checking for collisions/simulating movement
+                // Nothing draws from the snapshot when headless, so frame capture and physics still take turns
+                if (_headless && !_renderedScene) return;
                 //_updateEntities((Double)message.getMessageData());
+                // Last chance to copy out the finished step before the next one starts writing
+                if (!_headless) _syncRenderState();
                 _updatingEntities = true;
                 _renderedScene = false;
-                Engine.scheduleLogicTasks(() -> _updatingEntities = false, _collision);
+                // Cleared by the last job of the graph the moment the step is done
+                Engine.getTaskManager().submitGraph(_updateGraph);
                 break;
             case Constants.ADD_GRAPHICS_ENTITY:
-                _entities.add((GraphicsEntity) message.getMessageData());
+                _addEntity((GraphicsEntity)message.getMessageData());
                 break;
             case Constants.REMOVE_GRAPHICS_ENTITY:
-                _entities.remove((GraphicsEntity)message.getMessageData());
+                _removeEntity((GraphicsEntity)message.getMessageData());
+                break;
+            case Engine.APPLY_WORLD_COMMANDS: {
+                WorldCommandBuffer.Batch batch = (WorldCommandBuffer.Batch)message.getMessageData();
+                for (int i = 0; i < batch.size(); ++i) {
+                    byte op = batch.getOperation(i);
+                    if (op == WorldCommandBuffer.ADD_GRAPHICS_ENTITY) _addEntity((GraphicsEntity)batch.getTarget(i));
+                    else if (op == WorldCommandBuffer.REMOVE_GRAPHICS_ENTITY) _removeEntity((GraphicsEntity)batch.getTarget(i));
+                }
                 break;
+            }
             case Constants.REMOVE_ALL_RENDER_ENTITIES:
                 _entities.clear();
+                _renderQueue.clear();
+                _visibilityGrid.clear();
+                _staticEntities.clear();
                 break;
             case Constants.REGISTER_TEXTURE: {
                 if (_headless) break; // We are not running with graphics enabled
@@ -138,22 +199,29 @@ public class Renderer implements MessageHandler {
             {
                 ConsoleVariable var = (ConsoleVariable)message.getMessageData();
                 if (var.getcvarName().equals(Constants.WORLD_WIDTH) || var.getcvarName().equals(Constants.WORLD_HEIGHT)
-                || var.getcvarName().equals(Constants.WORLD_START_X) || var.getcvarName().equals(Constants.WORLD_START_Y)) {
-                    int worldX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
-                    int worldY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
-                    int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
-                    int worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt();
-                    _graphicsEntities = new QuadTree<>(worldX, worldY, worldWidth > worldHeight ? worldWidth : worldHeight,
-                            10, 100);
+                || var.getcvarName().equals(Constants.WORLD_START_X) || var.getcvarName().equals(Constants.WORLD_START_Y)
+                || var.getcvarName().equals(Constants.PHYS_GRID_CELL_SIZE)) {
+                    _createVisibilityGrid();
+                }
+                if (var.getcvarName().equals(Constants.WORLD_WIDTH) || var.getcvarName().equals(Constants.WORLD_HEIGHT)
+                || var.getcvarName().equals(Constants.WORLD_START_X) || var.getcvarName().equals(Constants.WORLD_START_Y)
+                || var.getcvarName().equals(Constants.R_CAPTURE_INTERVAL)
+                || var.getcvarName().equals(Constants.R_CAPTURE_DIR)
+                || var.getcvarName().equals(Constants.R_CAPTURE_WIDTH)) {
+                    _createFrameCapture();
                 }
                 break;
             }
+            case Constants.SET_CAPTURE_DIRECTORY:
+                _captureDirOverride = (String)message.getMessageData();
+                _createFrameCapture();
+                break;
             case Constants.SET_CAMERA_ZOOM:
             {
                 Double zoom = (Double)message.getMessageData();
                 if (zoom > 0) {
                     _zoom = zoom;
-                    Engine.getMessagePump().sendMessage(new Message(Constants.CAMERA_ZOOM_CHANGED, _zoom));
+                    Engine.getMessagePump().sendMessage(Constants.CAMERA_ZOOM_CHANGED, _zoom);
                 }
                 break;
             }
@@ -162,14 +230,17 @@ public class Renderer implements MessageHandler {
 
     private void _render(double deltaSeconds)
     {
-        if (_updatingEntities) return; // Not done with collisions/movement simulation
         _collision.setDeltaSeconds(deltaSeconds);
+        if (_headless && _updatingEntities) return; // Not done with collisions/movement simulation
+        // With no step running the live state is safe to copy. Otherwise we draw the snapshot from the
+        // last sync point while the step works on the next frame.
+        if (!_headless && !_updatingEntities) _syncRenderState();
 
         // See if the manual world camera offset x/y values changed
         Pair<Double, Double> cameraOffsetsXY = _worldCamera.getManualOffsetXY();
         if (!cameraOffsetsXY.equals(_lastManualCameraOffsetXY)) {
             _lastManualCameraOffsetXY = cameraOffsetsXY;
-            Engine.getMessagePump().sendMessage(new Message(Constants.CAMERA_OFFSET_CHANGED, _lastManualCameraOffsetXY));
+            Engine.getMessagePump().sendMessage(Constants.CAMERA_OFFSET_CHANGED, _lastManualCameraOffsetXY);
         }
         // What values to offset everything in the world by to
         // determine camera-space coordinates
@@ -180,140 +251,228 @@ public class Renderer implements MessageHandler {
         yOffset = translate.y();
         int xOffsetInt = (int)xOffset;
         int yOffsetInt = (int)yOffset;
-        // Now transform everyone to camera space and determine if they
-        // are visible and need to be drawn
+        // Camera-space values are only ever computed into locals - actors themselves
+        // always stay in world space
         double screenX;
         double screenY;
         double rotation;
         double width;
         double height;
-        Vector3 location;
-        int screenWidth = Engine.getConsoleVariables().find(Constants.SCR_WIDTH).getcvarAsInt();
-        int screenHeight = Engine.getConsoleVariables().find(Constants.SCR_HEIGHT).getcvarAsInt();
-        _graphicsEntities.clear();
-        // Dispatch all collision events and update any graphics entities
-        ConcurrentHashMap<Actor, HashSet<Actor>> collisions = _collision.getPreviousCollisions();
-        for (Map.Entry<Actor, HashSet<Actor>> entry : collisions.entrySet()) {
-            HashSet<Actor> actors = entry.getValue();
-            Actor a = entry.getKey();
-            if (a instanceof GraphicsEntity && !_headless) {
-                GraphicsEntity entity = (GraphicsEntity)a;
-                location = entity.getTranslationVec();
-                boolean isStatic = entity.isStaticActor();
-                double zoom = isStatic ? 1 : _zoom;
-                double origX = location.x() * zoom;
-                double origY = location.y() * zoom;
-                double z = location.z();
-                double origWidth = entity.getWidth() * zoom;
-                double origHeight = entity.getHeight() * zoom;
-                screenX = origX + (isStatic ? 0 : xOffset);
-                screenY = origY + (isStatic ? 0 : yOffset);
-                location.setXYZ(screenX, screenY, z);
-                entity.setWidthHeight(origWidth, origHeight);
-                _graphicsEntities.add(entity);
-                entity.setScreenVisibility(false); // Assume false for now
-                location.setXYZ(origX / zoom, origY / zoom, z);
-                entity.setWidthHeight(origWidth / zoom, origHeight / zoom);
-            }
-            if (actors.size() > 0) {
-                a.onActorOverlapped(a, actors);
-                HashSet<CollisionEventCallback> callbacks = a.getCollisionEventCallbacks();
-                for (CollisionEventCallback callback : callbacks) callback.onActorOverlapped(a, actors);
-            }
-        }
-        /*
-        for (GraphicsEntity entity : _entities) {
-            location = entity.getTranslationVec();
-            boolean isStatic = entity.isStaticActor();
-            double origX = location.x();
-            double origY = location.y();
-            double z = location.z();
-            screenX = origX + (isStatic ? 0 : xOffset);
-            screenY = origY + (isStatic ? 0 : yOffset);
-            location.setXYZ(screenX, screenY, z);
-            _graphicsEntities.add(entity);
-            entity.setScreenVisibility(false); // Assume false for now
-            location.setXYZ(origX, origY, z);
-        }
-        */
+        int screenWidth = _screenWidth.get();
+        int screenHeight = _screenHeight.get();
         if (_headless) {
+            if (_frameCapture != null) {
+                _secondsSinceCapture += deltaSeconds;
+                if (_secondsSinceCapture >= _captureInterval) {
+                    _secondsSinceCapture -= _captureInterval;
+                    _frameCapture.capture(_entities);
+                }
+            }
             _renderedScene = true; // Make sure this gets set
             return; // The rest requires a valid graphics context
         }
         // Clear the screen
         _gc.setFill(Color.WHITE);
-        _gc.fillRect(0, 0,
-                Engine.getConsoleVariables().find(Constants.SCR_WIDTH).getcvarAsFloat(),
-                Engine.getConsoleVariables().find(Constants.SCR_HEIGHT).getcvarAsFloat());
-        // Reorder scene as needed so things are drawn in the proper order
-        //HashSet<GraphicsEntity> actors = _graphicsEntities.getAllActors();
-        HashSet<GraphicsEntity> actors = _graphicsEntities.getActorsWithinArea(0, 0, screenWidth, screenHeight);
-        //System.out.println("Before: " + _entities.size() + "; after: " + actors.size());
-        _determineDrawOrder(actors);
-        for (Map.Entry<Integer, ArrayList<GraphicsEntity>> entry : _drawOrder.entrySet())
+        _gc.fillRect(0, 0, screenWidth, screenHeight);
+        for (int i = 0; i < _lastVisibleEntities.size(); ++i) _lastVisibleEntities.get(i).setScreenVisibility(false);
+        _lastVisibleEntities.clear();
+        HashSet<GraphicsEntity> actors = _visibleEntities;
+        actors.clear();
+        // Convert the screen bounds into world space rather than moving everyone into screen space
+        _visibilityGrid.getActorsWithinArea(-xOffset / _zoom, -yOffset / _zoom,
+                screenWidth / _zoom, screenHeight / _zoom, actors);
+        for (GraphicsEntity entity : _staticEntities) {
+            if (entity.getRenderX() + entity.getRenderWidth() < 0 || entity.getRenderX() > screenWidth ||
+                    entity.getRenderY() + entity.getRenderHeight() < 0 || entity.getRenderY() > screenHeight) continue;
+            actors.add(entity);
+        }
+        _renderQueue.beginFrame();
+        for (GraphicsEntity entity : actors) _renderQueue.submit(entity, _getFillState(entity));
+        // Buckets come out sorted by depth and then by fill state, so the fill only changes between
+        // buckets and the transform only needs to be touched for rotated entities
+        boolean identityTransform = false;
+        Object currentFill = null;
+        int numBuckets = _renderQueue.getNumBuckets();
+        for (int b = 0; b < numBuckets; ++b)
         {
-            for (GraphicsEntity entity : entry.getValue())
+            RenderQueue.Bucket bucket = _renderQueue.getBucket(b);
+            int numVisible = bucket.getNumVisible();
+            if (numVisible == 0) continue;
+            Object state = bucket.getState();
+            boolean rotated = bucket.isRotated();
+            Image image = state instanceof Image ? (Image)state : null;
+            if (image == null && state != currentFill)
+            {
+                _gc.setFill((Color)state);
+                currentFill = state;
+            }
+            if (!rotated && !identityTransform)
+            {
+                _gc.setTransform(1, 0, 0, 1, 0, 0);
+                identityTransform = true;
+            }
+            for (int i = 0; i < numVisible; ++i)
             {
-                location = entity.getTranslationVec();
+                GraphicsEntity entity = bucket.getVisible(i);
                 boolean isStatic = entity.isStaticActor();
                 double zoom = isStatic ? 1 : _zoom;
-                screenX = location.x() * zoom + (isStatic ? 0 : xOffset);
-                screenY = location.y() * zoom + (isStatic ? 0 : yOffset);
-                width = entity.getWidth() * zoom;
-                height = entity.getHeight() * zoom;
-                rotation = entity.getRotation();
-                /**
-                if (screenX + width < 0 || screenX > screenWidth ||
-                        screenY + height < 0 || screenY > screenHeight)
-                {
-                    entity.setScreenVisibility(false);
-                }
-                 */
-                //else
-                //{
+                screenX = entity.getRenderX() * zoom + (isStatic ? 0 : xOffset);
+                screenY = entity.getRenderY() * zoom + (isStatic ? 0 : yOffset);
+                width = entity.getRenderWidth() * zoom;
+                height = entity.getRenderHeight() * zoom;
                 entity.setScreenVisibility(true);
-                _rotation.setAngle(rotation);
-                _rotation.setPivotX(screenX + width / 2);
-                _rotation.setPivotY(screenY + height / 2);
-                // See https://stackoverflow.com/questions/18260421/how-to-draw-image-rotated-on-javafx-canvas
-                _gc.setTransform(_rotation.getMxx(), _rotation.getMyx(),
-                            _rotation.getMxy(), _rotation.getMyy(), _rotation.getTx(), _rotation.getTy());
-                if (_textures.containsKey(entity.getTexture()))
-                {
-                    ImageView imageView = _textures.get(entity.getTexture());
-                    _gc.drawImage(imageView.getImage(), screenX, screenY, width, height);
-                }
-                else
+                _lastVisibleEntities.add(entity);
+                if (rotated)
                 {
-                    _gc.setFill(entity.getColor());
-                    entity.render(_gc, screenX, screenY, width, height);
-                    //_gc.fillRect(screenX, screenY, width, height);
+                    rotation = entity.getRotation();
+                    _rotation.setAngle(rotation);
+                    _rotation.setPivotX(screenX + width / 2);
+                    _rotation.setPivotY(screenY + height / 2);
+                    // See https://stackoverflow.com/questions/18260421/how-to-draw-image-rotated-on-javafx-canvas
+                    _gc.setTransform(_rotation.getMxx(), _rotation.getMyx(),
+                            _rotation.getMxy(), _rotation.getMyy(), _rotation.getTx(), _rotation.getTy());
+                    identityTransform = false;
                 }
-                //}
+                if (image != null) _gc.drawImage(image, screenX, screenY, width, height);
+                else entity.render(_gc, screenX, screenY, width, height);
             }
         }
         _renderedScene = true;
     }
 
-    private void _determineDrawOrder(HashSet<GraphicsEntity> graphicsEntities)
+    /**
+     * Makes sure any frames which were captured while running headless make it to disk
+     */
+    public void shutdown()
     {
-        for (Map.Entry<Integer, ArrayList<GraphicsEntity>> entry : _drawOrder.entrySet())
-        {
-            entry.getValue().clear();
+        if (_frameCapture == null) return;
+        _frameCapture.shutdown();
+        _frameCapture = null;
+    }
+
+    private void _addEntity(GraphicsEntity entity) {
+        _entities.add(entity);
+        if (!_headless) {
+            entity.syncRenderState(); // Don't draw it with whatever it had before the next sync point
+            _renderQueue.add(entity, _getFillState(entity));
+            _indexForVisibility(entity);
         }
+    }
 
-        //QuadTree<ActorGraph> actors = _collision.getLatestQuadTree();
-        //for (GraphicsEntity entity : _entities)
-        for (GraphicsEntity entity : graphicsEntities)
-        {
-            int depth = (int)entity.getDepth() * -1; // * -1 because if the depth is negative it needs to come
-            // later in the list so that it gets drawn last and
-            // will then appear to be on top of other objects
-            if (!_drawOrder.containsKey(depth))
-            {
-                _drawOrder.put(depth, new ArrayList<>());
+    private void _removeEntity(GraphicsEntity entity) {
+        _entities.remove(entity);
+        if (!_headless) {
+            _renderQueue.remove(entity);
+            _visibilityGrid.remove(entity);
+            _staticEntities.remove(entity);
+        }
+    }
+
+    // Texture entities are drawn with their image once it has been loaded, everyone else uses their color
+    private Object _getFillState(GraphicsEntity entity) {
+        String texture = entity.getTexture();
+        if (!texture.isEmpty()) {
+            ImageView imageView = _textures.get(texture);
+            if (imageView != null) return imageView.getImage();
+        }
+        return entity.getColor();
+    }
+
+    private void _createVisibilityGrid() {
+        int worldX = Engine.getConsoleVariables().find(Constants.WORLD_START_X).getcvarAsInt();
+        int worldY = Engine.getConsoleVariables().find(Constants.WORLD_START_Y).getcvarAsInt();
+        int worldWidth = Engine.getConsoleVariables().find(Constants.WORLD_WIDTH).getcvarAsInt();
+        int worldHeight = Engine.getConsoleVariables().find(Constants.WORLD_HEIGHT).getcvarAsInt();
+        int cellSize = Engine.getConsoleVariables().find(Constants.PHYS_GRID_CELL_SIZE).getcvarAsInt();
+        _visibilityGrid = new SpatialHashGrid<>(worldX, worldY, worldWidth, worldHeight, cellSize);
+        _visibilityIndexIsStale = true; // Everyone needs to be put back in
+    }
+
+    private void _createFrameCapture() {
+        // Frame numbers carry on from the old capture so that nothing gets overwritten
+        int firstFrame = _frameCapture == null ? 0 : _frameCapture.getNextFrameNumber();
+        shutdown(); // Let the frames from the old capture finish first
+        if (!_headless) return;
+        _captureInterval = Engine.getConsoleVariables().find(Constants.R_CAPTURE_INTERVAL).getcvarAsFloat();
+        _secondsSinceCapture = 0.0;
+        if (_captureInterval <= 0) return;
+        ConsoleVariables cvars = Engine.getConsoleVariables();
+        _frameCapture = new FrameCapture(_getCaptureDir(),
+                cvars.find(Constants.R_CAPTURE_WIDTH).getcvarAsInt(),
+                cvars.find(Constants.WORLD_START_X).getcvarAsInt(),
+                cvars.find(Constants.WORLD_START_Y).getcvarAsInt(),
+                cvars.find(Constants.WORLD_WIDTH).getcvarAsInt(),
+                cvars.find(Constants.WORLD_HEIGHT).getcvarAsInt(),
+                _screenWidth.get(), firstFrame);
+    }
+
+    // Engines running side by side each need their own folder, so without an r_capture_dir
+    // every renderer gets a numbered folder under captures/
+    private String _getCaptureDir() {
+        if (_captureDirOverride != null) return _captureDirOverride;
+        String dir = Engine.getConsoleVariables().find(Constants.R_CAPTURE_DIR).getcvarValue();
+        if (!dir.isEmpty()) return dir;
+        if (_defaultCaptureDir == null) {
+            _defaultCaptureDir = "captures/" + _numDefaultCaptureDirs.getAndIncrement() + "/";
+        }
+        return _defaultCaptureDir;
+    }
+
+    long getPhysicsStepCount() {
+        return _collision.getStepCount();
+    }
+
+    // Puts the entity in the right place in the visibility index based on its current bounds
+    private void _indexForVisibility(GraphicsEntity entity) {
+        if (entity.isStaticActor()) {
+            _visibilityGrid.remove(entity);
+            _staticEntities.add(entity);
+        }
+        else {
+            _staticEntities.remove(entity);
+            _visibilityGrid.update(entity);
+        }
+    }
+
+    // The single sync point between physics and drawing - only called while no step is running.
+    // Everything drawn until the next call uses the state as of right now. New entities take their
+    // snapshot when they are added, so only the ones the last step changed need a new one unless a
+    // step was missed.
+    private void _syncRenderState() {
+        long step = _collision.getStepCount();
+        if (step != _renderSyncedStep) {
+            if (step != _renderSyncedStep + 1) {
+                for (GraphicsEntity entity : _entities) entity.syncRenderState();
+            }
+            else {
+                ArrayList<ActorGraph> changed = _collision.getChangedActors();
+                for (int i = 0; i < changed.size(); ++i) changed.get(i).syncRenderState();
+            }
+            _renderSyncedStep = step;
+        }
+        _syncVisibilityIndex();
+    }
+
+    // Brings the visibility index up to date with the last physics step. Only the entities that
+    // moved during that step are touched unless a step was missed, in which case everyone is re-added.
+    private void _syncVisibilityIndex() {
+        long step = _collision.getStepCount();
+        if (step == _indexedStep && !_visibilityIndexIsStale) return;
+        if (_visibilityIndexIsStale || step != _indexedStep + 1) {
+            _visibilityGrid.clear();
+            _staticEntities.clear();
+            for (GraphicsEntity entity : _entities) _indexForVisibility(entity);
+            _visibilityIndexIsStale = false;
+        }
+        else {
+            ArrayList<ActorGraph> changed = _collision.getChangedActors();
+            for (int i = 0; i < changed.size(); ++i) {
+                ActorGraph actor = changed.get(i);
+                // Physics may still have actors which were removed from the renderer this frame
+                if (!(actor instanceof GraphicsEntity) || !_entities.contains(actor)) continue;
+                _indexForVisibility((GraphicsEntity)actor);
             }
-            _drawOrder.get(depth).add(entity);
         }
+        _indexedStep = step;
     }
 }
\ No newline at end of file
@@ -86,18 +86,14 @@ public class SceneManager {
      * Activates only the render entities
      */
     public void activateRenderEntities() {
-        for (Map.Entry<GraphicsEntity, Object> entry : _renderEntities.entrySet()) {
-            entry.getKey().addToWorld();
-        }
+        Engine.getWorldCommands().spawnAll(getGraphicsEntities());
     }
 
     /**
      * Activates only the pulse entities
      */
     public void activatePulseEntities() {
-        for (Map.Entry<PulseEntity, Object> entry : _pulseEntities.entrySet()) {
-            _sendMessage(Constants.ADD_PULSE_ENTITY, entry.getKey());
-        }
+        Engine.getWorldCommands().addPulseEntities(getPulseEntities());
     }
 
     /**
@@ -124,6 +120,8 @@ public class SceneManager {
      * Deactivates only the render entities
      */
     public void deactivateRenderEntities() {
+        WorldCommandBuffer commands = Engine.getWorldCommands();
+        commands.reserve(_renderEntities.size());
         for (Map.Entry<GraphicsEntity, Object> entry : _renderEntities.entrySet()) {
             entry.getKey().removeFromWorld();
         }
@@ -133,8 +131,10 @@ public class SceneManager {
      * Deactivates only the pulse entities
      */
     public void deactivatePulseEntities() {
+        WorldCommandBuffer commands = Engine.getWorldCommands();
+        commands.reserve(_pulseEntities.size());
         for (Map.Entry<PulseEntity, Object> entry : _pulseEntities.entrySet()) {
-            _sendMessage(Constants.REMOVE_PULSE_ENTITY, entry.getKey());
+            commands.removePulseEntity(entry.getKey());
         }
     }
 
@@ -221,6 +221,6 @@ public class SceneManager {
     }
 
     private void _sendMessage(String subject, Object entity) {
-        Engine.getMessagePump().sendMessage(new Message(subject, entity));
+        Engine.getMessagePump().sendMessage(subject, entity);
     }
 }
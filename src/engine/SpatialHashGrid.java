@@ -0,0 +1,296 @@
+package engine;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * A uniform grid which covers the world. Each actor is inserted into every cell
+ * its bounds touch, where the cell for a point is found with (int)((x - startX) / cellSize).
+ * Actors which go outside of the world are clamped to the edge cells.
+ *
+ * Unlike the QuadTree this is meant to be kept from one frame to the next - when an actor
+ * moves, call update(actor) and it will only touch the grid if the set of cells it covers
+ * actually changed. To remove everyone who is no longer part of the world without having
+ * to track them yourself, call startUpdatePass(), update() all of the actors that are still
+ * alive, and then removeStale().
+ *
+ * Cell buckets store integer slot ids rather than actor references so that they can be kept
+ * in primitive arrays. This structure is not thread safe, but once it stops being modified
+ * forEachPairInCell() can be called from multiple threads at once.
+ *
+ * @author Justin Hall
+ */
+public class SpatialHashGrid<E extends Actor> {
+    /**
+     * Receives unique pairs of actors sharing a cell
+     */
+    public interface PairCallback<E> {
+        void onPair(E first, E second);
+    }
+
+    private static final int _INITIAL_BUCKET_SIZE = 4;
+    private final int _startX;
+    private final int _startY;
+    private final int _cellSize;
+    private final int _numCols;
+    private final int _numRows;
+    // Per cell list of slot ids
+    private final int[][] _cells;
+    private final int[] _cellSizes;
+    private final HashMap<E, Integer> _slots = new HashMap<>();
+    // Per slot data
+    private Object[] _actors = new Object[64];
+    private int[] _minCol = new int[64];
+    private int[] _minRow = new int[64];
+    private int[] _maxCol = new int[64];
+    private int[] _maxRow = new int[64];
+    private int[] _lastPass = new int[64];
+    private int[] _lastQuery = new int[64];
+    // Slots which have been freed and can be handed out again
+    private int[] _freeSlots = new int[64];
+    private int _numFreeSlots = 0;
+    private int _nextSlot = 0;
+    private int _pass = 0;
+    private int _query = 0;
+
+    public SpatialHashGrid(int startX, int startY, int width, int height, int cellSize) {
+        _startX = startX;
+        _startY = startY;
+        _cellSize = cellSize < 1 ? 1 : cellSize;
+        _numCols = Math.max(1, (width + _cellSize - 1) / _cellSize);
+        _numRows = Math.max(1, (height + _cellSize - 1) / _cellSize);
+        _cells = new int[_numCols * _numRows][];
+        _cellSizes = new int[_numCols * _numRows];
+    }
+
+    /**
+     * Adds the actor if it is not already in the grid, otherwise moves it to
+     * whatever cells it now covers
+     */
+    public void update(E actor) {
+        Integer slot = _slots.get(actor);
+        if (slot == null) {
+            _add(actor);
+            return;
+        }
+        int s = slot;
+        _lastPass[s] = _pass;
+        int minCol = _toCol(actor.getLocationX());
+        int minRow = _toRow(actor.getLocationY());
+        int maxCol = _toCol(actor.getLocationX() + actor.getWidth());
+        int maxRow = _toRow(actor.getLocationY() + actor.getHeight());
+        if (minCol == _minCol[s] && minRow == _minRow[s] && maxCol == _maxCol[s] && maxRow == _maxRow[s]) {
+            return; // Still covers the same cells so nothing to do
+        }
+        _removeFromCells(s);
+        _setCells(s, minCol, minRow, maxCol, maxRow);
+        _addToCells(s);
+    }
+
+    public boolean contains(E actor) {
+        return _slots.containsKey(actor);
+    }
+
+    public boolean remove(E actor) {
+        Integer slot = _slots.remove(actor);
+        if (slot == null) return false;
+        _free(slot);
+        return true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < _cellSizes.length; ++i) _cellSizes[i] = 0;
+        for (int i = 0; i < _nextSlot; ++i) _actors[i] = null;
+        _slots.clear();
+        _nextSlot = 0;
+        _numFreeSlots = 0;
+    }
+
+    public int size() {
+        return _slots.size();
+    }
+
+    /**
+     * Marks the start of a pass - see removeStale()
+     */
+    public void startUpdatePass() {
+        ++_pass;
+    }
+
+    /**
+     * Removes every actor that was not passed to update() since the last call
+     * to startUpdatePass()
+     */
+    public void removeStale() {
+        for (int s = 0; s < _nextSlot; ++s) {
+            if (_actors[s] == null || _lastPass[s] == _pass) continue;
+            _slots.remove(_actors[s]);
+            _free(s);
+        }
+    }
+
+    public int getNumCells() {
+        return _cells.length;
+    }
+
+    public int getNumActorsInCell(int cell) {
+        return _cellSizes[cell];
+    }
+
+    /**
+     * Adds every actor whose cells touch the given area to the collection. Each actor
+     * is only added once even if it covers multiple cells within the area.
+     */
+    public void getActorsWithinArea(double x, double y, double width, double height, Collection<E> result) {
+        int minCol = _toCol(x);
+        int minRow = _toRow(y);
+        int maxCol = _toCol(x + width);
+        int maxRow = _toRow(y + height);
+        int query = ++_query;
+        for (int row = minRow; row <= maxRow; ++row) {
+            for (int col = minCol; col <= maxCol; ++col) {
+                int cell = row * _numCols + col;
+                int[] bucket = _cells[cell];
+                int size = _cellSizes[cell];
+                for (int i = 0; i < size; ++i) {
+                    int s = bucket[i];
+                    if (_lastQuery[s] == query) continue; // Already added from another cell
+                    _lastQuery[s] = query;
+                    result.add(_actor(s));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports every pair of actors in the cell. A pair which shares multiple cells is only
+     * reported by the top-left cell of the area where they overlap, so visiting every cell
+     * yields each pair exactly once.
+     */
+    public void forEachPairInCell(int cell, PairCallback<E> callback) {
+        int[] bucket = _cells[cell];
+        int size = _cellSizes[cell];
+        if (size < 2) return;
+        int col = cell % _numCols;
+        int row = cell / _numCols;
+        for (int i = 0; i < size; ++i) {
+            int first = bucket[i];
+            for (int j = i + 1; j < size; ++j) {
+                int second = bucket[j];
+                int sharedCol = _minCol[first] > _minCol[second] ? _minCol[first] : _minCol[second];
+                int sharedRow = _minRow[first] > _minRow[second] ? _minRow[first] : _minRow[second];
+                if (sharedCol != col || sharedRow != row) continue; // Another cell owns this pair
+                callback.onPair(_actor(first), _actor(second));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E _actor(int slot) {
+        return (E)_actors[slot];
+    }
+
+    private int _toCol(double x) {
+        int col = (int)((x - _startX) / _cellSize);
+        if (col < 0) return 0;
+        return col >= _numCols ? _numCols - 1 : col;
+    }
+
+    private int _toRow(double y) {
+        int row = (int)((y - _startY) / _cellSize);
+        if (row < 0) return 0;
+        return row >= _numRows ? _numRows - 1 : row;
+    }
+
+    private void _add(E actor) {
+        int s;
+        if (_numFreeSlots > 0) s = _freeSlots[--_numFreeSlots];
+        else {
+            if (_nextSlot == _actors.length) _growSlots();
+            s = _nextSlot++;
+        }
+        _slots.put(actor, s);
+        _actors[s] = actor;
+        _lastPass[s] = _pass;
+        _lastQuery[s] = 0;
+        _setCells(s, _toCol(actor.getLocationX()), _toRow(actor.getLocationY()),
+                _toCol(actor.getLocationX() + actor.getWidth()), _toRow(actor.getLocationY() + actor.getHeight()));
+        _addToCells(s);
+    }
+
+    private void _free(int slot) {
+        _removeFromCells(slot);
+        _actors[slot] = null;
+        if (_numFreeSlots == _freeSlots.length) {
+            int[] freeSlots = new int[_freeSlots.length * 2];
+            System.arraycopy(_freeSlots, 0, freeSlots, 0, _numFreeSlots);
+            _freeSlots = freeSlots;
+        }
+        _freeSlots[_numFreeSlots++] = slot;
+    }
+
+    private void _setCells(int slot, int minCol, int minRow, int maxCol, int maxRow) {
+        _minCol[slot] = minCol;
+        _minRow[slot] = minRow;
+        _maxCol[slot] = maxCol;
+        _maxRow[slot] = maxRow;
+    }
+
+    private void _addToCells(int slot) {
+        for (int row = _minRow[slot]; row <= _maxRow[slot]; ++row) {
+            for (int col = _minCol[slot]; col <= _maxCol[slot]; ++col) {
+                int cell = row * _numCols + col;
+                int[] bucket = _cells[cell];
+                int size = _cellSizes[cell];
+                if (bucket == null) {
+                    bucket = new int[_INITIAL_BUCKET_SIZE];
+                    _cells[cell] = bucket;
+                }
+                else if (size == bucket.length) {
+                    int[] newBucket = new int[bucket.length * 2];
+                    System.arraycopy(bucket, 0, newBucket, 0, size);
+                    bucket = newBucket;
+                    _cells[cell] = bucket;
+                }
+                bucket[size] = slot;
+                _cellSizes[cell] = size + 1;
+            }
+        }
+    }
+
+    private void _removeFromCells(int slot) {
+        for (int row = _minRow[slot]; row <= _maxRow[slot]; ++row) {
+            for (int col = _minCol[slot]; col <= _maxCol[slot]; ++col) {
+                int cell = row * _numCols + col;
+                int[] bucket = _cells[cell];
+                int size = _cellSizes[cell];
+                for (int i = 0; i < size; ++i) {
+                    if (bucket[i] != slot) continue;
+                    // Order within a cell does not matter so swap the last one into this spot
+                    bucket[i] = bucket[size - 1];
+                    _cellSizes[cell] = size - 1;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void _growSlots() {
+        int length = _actors.length * 2;
+        Object[] actors = new Object[length];
+        System.arraycopy(_actors, 0, actors, 0, _actors.length);
+        _actors = actors;
+        _minCol = _grow(_minCol, length);
+        _minRow = _grow(_minRow, length);
+        _maxCol = _grow(_maxCol, length);
+        _maxRow = _grow(_maxRow, length);
+        _lastPass = _grow(_lastPass, length);
+        _lastQuery = _grow(_lastQuery, length);
+    }
+
+    private static int[] _grow(int[] array, int length) {
+        int[] result = new int[length];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+}
@@ -0,0 +1,264 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Keeps actors which are not moving out of the per-step broadphase. Stationary actors are
+ * placed into a uniform grid once and stay there until they are removed or moved, so a step
+ * where none of them changed costs nothing but marking them as seen.
+ *
+ * Each step the simulation calls beginUpdate(), then update() for every stationary actor
+ * and addMoving() for every actor which went to the regular broadphase, and finally
+ * endUpdate(). Stationary actors which were not passed to update() are dropped (they either
+ * left the world or started moving).
+ *
+ * Candidate pairs are split into partitions like a Broadphase: each moving actor is checked
+ * against the stationary actors in the cells it covers, and pairs of stationary actors are
+ * cached and reported again every step. When a stationary actor is added, moved or removed
+ * only its own pairs are redone, so one actor changing every step (ex: a growing Trail) costs
+ * no more than the cells it covers. Pairs of two passive colliders are never stored since
+ * neither would hear about the other.
+ * Once endUpdate() returns, findCandidatePairs() can be called from multiple threads at once.
+ *
+ * @author Justin Hall
+ */
+class StationaryActorIndex {
+    // How many moving actors are checked against the index per partition
+    private static final int _MOVING_ACTORS_PER_PARTITION = 256;
+
+    private static class Entry {
+        final ActorGraph _actor;
+        long _lastStep;
+        // Bounds and cells the actor covered when it was placed into the grid
+        double _x;
+        double _y;
+        double _width;
+        double _height;
+        int _minCol;
+        int _minRow;
+        int _maxCol;
+        int _maxRow;
+        boolean _passive;
+        // Every cached pair this actor is part of
+        final ArrayList<Pair> _pairs = new ArrayList<>(4);
+
+        Entry(ActorGraph actor) {
+            _actor = actor;
+        }
+    }
+
+    private static class Pair {
+        final Entry _first;
+        final Entry _second;
+        int _index; // Where it is in _stationaryPairs
+
+        Pair(Entry first, Entry second) {
+            _first = first;
+            _second = second;
+        }
+    }
+
+    private final int _startX;
+    private final int _startY;
+    private final int _cellSize;
+    private final int _numCols;
+    private final int _numRows;
+    private final ArrayList<ArrayList<Entry>> _cells;
+    private final HashMap<ActorGraph, Entry> _entries = new HashMap<>();
+    private final ArrayList<ActorGraph> _moving = new ArrayList<>();
+    private final ArrayList<Pair> _stationaryPairs = new ArrayList<>();
+    private long _step = 0;
+
+    StationaryActorIndex(int worldStartX, int worldStartY, int worldWidth, int worldHeight, int cellSize) {
+        _startX = worldStartX;
+        _startY = worldStartY;
+        _cellSize = cellSize < 1 ? 1 : cellSize;
+        _numCols = Math.max(1, (worldWidth + _cellSize - 1) / _cellSize);
+        _numRows = Math.max(1, (worldHeight + _cellSize - 1) / _cellSize);
+        _cells = new ArrayList<>(_numCols * _numRows);
+        for (int i = 0; i < _numCols * _numRows; ++i) _cells.add(new ArrayList<>(4));
+    }
+
+    void beginUpdate() {
+        ++_step;
+        _moving.clear();
+    }
+
+    /**
+     * @return true if the actor is not in the index yet or if its bounds or passive flag are
+     *         no longer the ones it was indexed with
+     */
+    boolean hasChanged(ActorGraph actor) {
+        Entry entry = _entries.get(actor);
+        return entry == null || entry._x != actor.getLocationX() || entry._y != actor.getLocationY() ||
+                entry._width != actor.getWidth() || entry._height != actor.getHeight() ||
+                entry._passive != actor.isPassiveCollider();
+    }
+
+    /**
+     * Tells the index that the actor is stationary this step. It is added if it wasn't
+     * already indexed and re-indexed if it moved.
+     */
+    void update(ActorGraph actor) {
+        Entry entry = _entries.get(actor);
+        if (entry == null) {
+            entry = new Entry(actor);
+            _entries.put(actor, entry);
+            _place(entry);
+        }
+        else if (hasChanged(actor)) {
+            _removePairs(entry);
+            _removeFromCells(entry);
+            _place(entry);
+        }
+        entry._lastStep = _step;
+    }
+
+    /**
+     * Tells the index that the actor went to the regular broadphase this step and needs to be
+     * checked against the stationary actors
+     */
+    void addMoving(ActorGraph actor) {
+        _moving.add(actor);
+    }
+
+    void endUpdate() {
+        if (_entries.size() > 0) {
+            ArrayList<Entry> stale = null;
+            for (Entry entry : _entries.values()) {
+                if (entry._lastStep == _step) continue;
+                if (stale == null) stale = new ArrayList<>();
+                stale.add(entry);
+            }
+            if (stale != null) {
+                for (Entry entry : stale) {
+                    _entries.remove(entry._actor);
+                    _removePairs(entry);
+                    _removeFromCells(entry);
+                }
+            }
+        }
+        // No point in checking moving actors against an empty index
+        if (_entries.size() == 0) _moving.clear();
+    }
+
+    int getNumPartitions() {
+        int numPartitions = (_moving.size() + _MOVING_ACTORS_PER_PARTITION - 1) / _MOVING_ACTORS_PER_PARTITION;
+        return _stationaryPairs.size() > 0 ? numPartitions + 1 : numPartitions;
+    }
+
+    /**
+     * Same contract as Broadphase.findCandidatePairs()
+     */
+    void findCandidatePairs(int partition, Broadphase.PairCallback callback) {
+        int start = partition * _MOVING_ACTORS_PER_PARTITION;
+        if (start >= _moving.size()) {
+            // Last partition holds the stationary pairs
+            for (int i = 0; i < _stationaryPairs.size(); ++i) {
+                Pair pair = _stationaryPairs.get(i);
+                ActorGraph first = pair._first._actor;
+                ActorGraph second = pair._second._actor;
+                if (Actor.canInteract(first, second)) callback.onCandidatePair(first, second);
+            }
+            return;
+        }
+        int end = Math.min(_moving.size(), start + _MOVING_ACTORS_PER_PARTITION);
+        for (int i = start; i < end; ++i) {
+            ActorGraph actor = _moving.get(i);
+            int minCol = _toCol(actor.getLocationX());
+            int minRow = _toRow(actor.getLocationY());
+            int maxCol = _toCol(actor.getLocationX() + actor.getWidth());
+            int maxRow = _toRow(actor.getLocationY() + actor.getHeight());
+            for (int row = minRow; row <= maxRow; ++row) {
+                for (int col = minCol; col <= maxCol; ++col) {
+                    ArrayList<Entry> cell = _cells.get(row * _numCols + col);
+                    for (int j = 0; j < cell.size(); ++j) {
+                        Entry entry = cell.get(j);
+                        // Only the top-left cell the two share reports the pair
+                        int sharedCol = entry._minCol > minCol ? entry._minCol : minCol;
+                        int sharedRow = entry._minRow > minRow ? entry._minRow : minRow;
+                        if (sharedCol != col || sharedRow != row) continue;
+                        if (Actor.canInteract(actor, entry._actor)) callback.onCandidatePair(actor, entry._actor);
+                    }
+                }
+            }
+        }
+    }
+
+    private void _place(Entry entry) {
+        ActorGraph actor = entry._actor;
+        entry._x = actor.getLocationX();
+        entry._y = actor.getLocationY();
+        entry._width = actor.getWidth();
+        entry._height = actor.getHeight();
+        entry._minCol = _toCol(entry._x);
+        entry._minRow = _toRow(entry._y);
+        entry._maxCol = _toCol(entry._x + entry._width);
+        entry._maxRow = _toRow(entry._y + entry._height);
+        entry._passive = actor.isPassiveCollider();
+        for (int row = entry._minRow; row <= entry._maxRow; ++row) {
+            for (int col = entry._minCol; col <= entry._maxCol; ++col) {
+                ArrayList<Entry> cell = _cells.get(row * _numCols + col);
+                _pairWithCell(entry, cell, col, row);
+                cell.add(entry);
+            }
+        }
+    }
+
+    // Layers/masks can change at any time so those are checked when the pairs are reported
+    private void _pairWithCell(Entry entry, ArrayList<Entry> cell, int col, int row) {
+        for (int i = 0; i < cell.size(); ++i) {
+            Entry other = cell.get(i);
+            if (entry._passive && other._passive) continue;
+            int sharedCol = entry._minCol > other._minCol ? entry._minCol : other._minCol;
+            int sharedRow = entry._minRow > other._minRow ? entry._minRow : other._minRow;
+            if (sharedCol != col || sharedRow != row) continue; // Another cell owns this pair
+            Pair pair = new Pair(entry, other);
+            pair._index = _stationaryPairs.size();
+            _stationaryPairs.add(pair);
+            entry._pairs.add(pair);
+            other._pairs.add(pair);
+        }
+    }
+
+    private void _removePairs(Entry entry) {
+        for (int i = 0; i < entry._pairs.size(); ++i) {
+            Pair pair = entry._pairs.get(i);
+            Entry other = pair._first == entry ? pair._second : pair._first;
+            other._pairs.remove(pair);
+            // Order doesn't matter so move the last pair into the hole
+            Pair last = _stationaryPairs.remove(_stationaryPairs.size() - 1);
+            if (last != pair) {
+                _stationaryPairs.set(pair._index, last);
+                last._index = pair._index;
+            }
+        }
+        entry._pairs.clear();
+    }
+
+    private void _removeFromCells(Entry entry) {
+        for (int row = entry._minRow; row <= entry._maxRow; ++row) {
+            for (int col = entry._minCol; col <= entry._maxCol; ++col) {
+                ArrayList<Entry> cell = _cells.get(row * _numCols + col);
+                int index = cell.indexOf(entry);
+                // Order within a cell doesn't matter so swap with the last one instead of shifting
+                int last = cell.size() - 1;
+                cell.set(index, cell.get(last));
+                cell.remove(last);
+            }
+        }
+    }
+
+    private int _toCol(double x) {
+        int col = (int)((x - _startX) / _cellSize);
+        if (col < 0) return 0;
+        return col >= _numCols ? _numCols - 1 : col;
+    }
+
+    private int _toRow(double y) {
+        int row = (int)((y - _startY) / _cellSize);
+        if (row < 0) return 0;
+        return row >= _numRows ? _numRows - 1 : row;
+    }
+}
@@ -0,0 +1,156 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Sort-and-sweep broadphase. Every actor's bounds are projected onto one axis and
+ * the actors are kept sorted by where their bounds start on that axis. Two actors can
+ * only overlap if their projected intervals overlap, so for each actor we only have to
+ * walk forward in the sorted list until we reach an actor that starts after it ends.
+ *
+ * The sorted list is kept from one step to the next. Since most actors only move a
+ * small amount between steps the list is almost sorted already, and insertion sort
+ * brings it back in order in close to linear time.
+ *
+ * The sweep axis is whichever of the world's width/height is larger since that spreads
+ * the actors out the most.
+ *
+ * @author Justin Hall
+ */
+class SweepAndPruneBroadphase implements Broadphase {
+    // How many consecutive entries in the sorted list make up a single partition
+    private static final int _ENTRIES_PER_PARTITION = 256;
+    private static final int _MAX_INSERTION_SORT_ADDITIONS = 64;
+    private static final Comparator<Entry> _byMin = (first, second) -> Double.compare(first._min, second._min);
+
+    private static class Entry {
+        final ActorGraph _actor;
+        long _lastStep;
+        double _min; // Bounds along the sweep axis
+        double _max;
+        double _otherMin; // Bounds along the other axis
+        double _otherMax;
+
+        Entry(ActorGraph actor) {
+            _actor = actor;
+        }
+    }
+
+    private final boolean _sweepAlongX;
+    private final HashMap<ActorGraph, Entry> _entries = new HashMap<>();
+    private final ArrayList<Entry> _added = new ArrayList<>();
+    private Entry[] _sorted = new Entry[64];
+    private int _size = 0;
+    private long _step = 0;
+
+    SweepAndPruneBroadphase(int worldWidth, int worldHeight) {
+        _sweepAlongX = worldWidth >= worldHeight;
+    }
+
+    @Override
+    public void beginUpdate() {
+        ++_step;
+        _added.clear();
+    }
+
+    @Override
+    public void update(ActorGraph actor) {
+        Entry entry = _entries.get(actor);
+        if (entry == null) {
+            entry = new Entry(actor);
+            _entries.put(actor, entry);
+            _added.add(entry);
+        }
+        entry._lastStep = _step;
+    }
+
+    @Override
+    public void endUpdate() {
+        // Drop everyone who was not updated this step and refresh the cached bounds of the rest
+        int size = 0;
+        for (int i = 0; i < _size; ++i) {
+            Entry entry = _sorted[i];
+            if (entry._lastStep != _step) {
+                _entries.remove(entry._actor);
+                continue;
+            }
+            _refreshBounds(entry);
+            _sorted[size++] = entry;
+        }
+        for (int i = size; i < _size; ++i) _sorted[i] = null;
+        _size = size;
+        // Append the new actors - they will be moved into place by the sort below
+        if (_size + _added.size() > _sorted.length) {
+            Entry[] sorted = new Entry[(_size + _added.size()) * 2];
+            System.arraycopy(_sorted, 0, sorted, 0, _size);
+            _sorted = sorted;
+        }
+        for (Entry entry : _added) {
+            _refreshBounds(entry);
+            _sorted[_size++] = entry;
+        }
+        // Insertion sort is only a good fit when few entries are out of place - a big batch of
+        // new actors (ex: initial world setup) is better handled by a general purpose sort
+        if (_added.size() > _MAX_INSERTION_SORT_ADDITIONS) Arrays.sort(_sorted, 0, _size, _byMin);
+        else _insertionSort();
+        _added.clear();
+    }
+
+    @Override
+    public int getNumPartitions() {
+        return (_size + _ENTRIES_PER_PARTITION - 1) / _ENTRIES_PER_PARTITION;
+    }
+
+    @Override
+    public void findCandidatePairs(int partition, PairCallback callback) {
+        int start = partition * _ENTRIES_PER_PARTITION;
+        int end = Math.min(_size, start + _ENTRIES_PER_PARTITION);
+        for (int i = start; i < end; ++i) {
+            Entry outer = _sorted[i];
+            // Sweep forward until the next actor starts after this one ends
+            for (int j = i + 1; j < _size; ++j) {
+                Entry inner = _sorted[j];
+                if (inner._min > outer._max) break;
+                if (inner._otherMin > outer._otherMax || outer._otherMin > inner._otherMax) continue;
+                if (!Actor.canInteract(outer._actor, inner._actor)) continue;
+                callback.onCandidatePair(outer._actor, inner._actor);
+            }
+        }
+    }
+
+    private void _refreshBounds(Entry entry) {
+        ActorGraph actor = entry._actor;
+        double x = actor.getLocationX();
+        double y = actor.getLocationY();
+        if (_sweepAlongX) {
+            entry._min = x;
+            entry._max = x + actor.getWidth();
+            entry._otherMin = y;
+            entry._otherMax = y + actor.getHeight();
+        }
+        else {
+            entry._min = y;
+            entry._max = y + actor.getHeight();
+            entry._otherMin = x;
+            entry._otherMax = x + actor.getWidth();
+        }
+    }
+
+    // Near-linear when the list is already almost sorted, which is the common case
+    // because actors only move a little between steps
+    private void _insertionSort() {
+        for (int i = 1; i < _size; ++i) {
+            Entry entry = _sorted[i];
+            double min = entry._min;
+            int j = i - 1;
+            while (j >= 0 && _sorted[j]._min > min) {
+                _sorted[j + 1] = _sorted[j];
+                --j;
+            }
+            _sorted[j + 1] = entry;
+        }
+    }
+}
@@ -3,9 +3,11 @@ package engine;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A task manager spawns a set of threads and manages them. Tasks can then
@@ -21,13 +23,37 @@ import java.util.concurrent.atomic.AtomicInteger;
  * on a different thread (ex: JavaFX thread), this can be dangerous as the task manager will
  * temporarily take over that thread until the task list completes.
  *
+ * Internally every worker owns a deque of tasks. Tasks submitted from a worker thread are
+ * pushed onto the front of that worker's deque (it will likely run them next while the data
+ * is still hot), while tasks submitted from any other thread go into a shared submission queue.
+ * A worker that runs out of work first checks the submission queue and then tries to steal from
+ * the back of another worker's deque. If nothing can be found it parks itself until a new
+ * submission wakes it back up.
+ *
+ * Work made up of several dependent stages can be submitted as a JobGraph with submitGraph(),
+ * and submitTasks(onComplete, tasks) lets the caller react to a task list finishing without
+ * polling its counter.
+ *
+ * A task manager can be shared by several engines. Every task remembers the engine that
+ * submitted it and runs with that engine as the current one, so static Engine accessors
+ * used from inside the task refer to the right engine.
+ *
  * @author Justin Hall
  */
 public class TaskManager {
+    // Upper bound on how long a thread waiting on a counter will stay parked before checking
+    // on it again - this is only a safety net since the last task to finish wakes the waiters
+    private static final long _MAX_PARK_NSEC = 1000000;
+    // Same for idle workers, which submissions explicitly wake up. Long enough that parked
+    // workers don't end up polling for work.
+    private static final long _MAX_IDLE_PARK_NSEC = 100000000;
     private final int _NUM_THREADS;
     volatile private boolean _isRunning;
     private HashMap<Thread, Worker> _workers;
-    private ConcurrentLinkedQueue<TaskWrapper> _tasks;
+    private volatile Worker[] _workerList = new Worker[0];
+    private final ThreadLocal<Worker> _currentWorker = new ThreadLocal<>();
+    private final ConcurrentLinkedQueue<TaskEntry> _submissions;
+    private final ConcurrentLinkedQueue<Worker> _idleWorkers;
 
     /**
      * A counter is a wrapper around a set of jobs and provides a way
@@ -36,6 +62,10 @@ public class TaskManager {
     public class Counter {
         private AtomicInteger _counter;
         private TaskManager _manager;
+        // Run by whoever brings the counter to 0 - set before any of its tasks are submitted
+        private Runnable _onComplete = null;
+        // Threads currently parked inside of waitForCompletion() - created on first use
+        private volatile ConcurrentLinkedQueue<Thread> _waiters = null;
 
         Counter(int value, TaskManager manager) {
             _counter = new AtomicInteger(value);
@@ -62,58 +92,84 @@ public class TaskManager {
         private void _decrement() {
             int value = _counter.getAndDecrement();
             if (value <= 0) _counter.getAndIncrement();
+            else if (value == 1) {
+                if (_onComplete != null) _onComplete.run();
+                _wakeWaiters();
+            }
         }
-    }
 
-    /**
-     * Stores the task-counter pairs for easy and thread-safe access.
-     */
-    private class TaskWrapper {
-        Task[] _tasks;
-        Counter _counter;
-        AtomicInteger _taskIndex;
+        private void _addWaiter(Thread thread) {
+            if (_waiters == null) {
+                synchronized (this) {
+                    if (_waiters == null) _waiters = new ConcurrentLinkedQueue<>();
+                }
+            }
+            _waiters.add(thread);
+        }
 
-        public TaskWrapper(TaskManager manager, Task ... tasks) {
-            _tasks = tasks;
-            _counter = new Counter(tasks.length, manager);
-            _taskIndex = new AtomicInteger(0);
+        private void _removeWaiter(Thread thread) {
+            ConcurrentLinkedQueue<Thread> waiters = _waiters;
+            if (waiters != null) waiters.remove(thread);
         }
 
-        public Counter getCounter() {
-            return _counter;
+        private void _wakeWaiters() {
+            ConcurrentLinkedQueue<Thread> waiters = _waiters;
+            if (waiters == null) return;
+            for (Thread thread : waiters) LockSupport.unpark(thread);
         }
+    }
+
+    /**
+     * A single task along with the counter it needs to decrement once it has run
+     * and the engine it was submitted on behalf of.
+     */
+    private class TaskEntry {
+        final Task _task;
+        final Counter _counter;
+        final Engine _engine;
 
-        public Task getTask() {
-            int index = _taskIndex.getAndIncrement();
-            if (index >= _tasks.length) return null;
-            return _tasks[index];
+        TaskEntry(Task task, Counter counter, Engine engine) {
+            _task = task;
+            _counter = counter;
+            _engine = engine;
         }
     }
 
     /**
-     * A worker which can run on a thread and execute tasks from
-     * the task manager's internal task queue.
+     * A worker which can run on a thread and execute tasks from its own
+     * deque, the shared submission queue or another worker's deque.
      */
     private class Worker implements Runnable {
         private AtomicBoolean _isRunning;
         private TaskManager _manager;
+        private final ConcurrentLinkedDeque<TaskEntry> _deque = new ConcurrentLinkedDeque<>();
+        // True if this worker is currently sitting in the manager's idle queue
+        private final AtomicBoolean _queuedAsIdle = new AtomicBoolean(false);
+        private final int _index;
+        private volatile Thread _thread;
 
-        Worker(TaskManager manager) {
+        Worker(TaskManager manager, int index) {
             _isRunning = new AtomicBoolean(true);
             _manager = manager;
+            _index = index;
         }
 
         @Override
         public void run() {
             System.out.println(Thread.currentThread().getName() + " has started");
+            _thread = Thread.currentThread();
+            _manager._currentWorker.set(this);
             while (_isRunning.get()) {
-                _manager._getAndExecuteTask();
+                if (!_manager._getAndExecuteTask(this)) _manager._parkIdleWorker(this);
             }
+            _manager._currentWorker.remove();
             System.out.println(Thread.currentThread().getName() + " has stopped");
         }
 
         public void stop() {
             _isRunning.set(false);
+            Thread thread = _thread;
+            if (thread != null) LockSupport.unpark(thread);
         }
     }
 
@@ -128,7 +184,8 @@ public class TaskManager {
         _NUM_THREADS = Math.abs(numThreads);
         _isRunning = false;
         _workers = new HashMap<>();
-        _tasks = new ConcurrentLinkedQueue<>();
+        _submissions = new ConcurrentLinkedQueue<>();
+        _idleWorkers = new ConcurrentLinkedQueue<>();
     }
 
     /**
@@ -139,11 +196,16 @@ public class TaskManager {
         synchronized(this) {
             if (_isRunning) return; // Already running
             _workers.clear();
-            _tasks.clear();
+            _submissions.clear();
+            _idleWorkers.clear();
+            Worker[] workerList = new Worker[_NUM_THREADS];
             for (int i = 0; i < _NUM_THREADS; ++i) {
-                Worker worker = new Worker(this);
-                Thread thread = new Thread(worker, this + "_internal_worker#" + i);
-                _workers.put(thread, worker);
+                workerList[i] = new Worker(this, i);
+            }
+            _workerList = workerList; // Publish before any thread can try to steal
+            for (int i = 0; i < _NUM_THREADS; ++i) {
+                Thread thread = new Thread(workerList[i], this + "_internal_worker#" + i);
+                _workers.put(thread, workerList[i]);
                 thread.start();
             }
             _isRunning = true; // Make sure to set this at the end
@@ -161,10 +223,101 @@ public class TaskManager {
      * @return counter that can be used to wait on the tasks to complete/check if they completed
      */
     public Counter submitTasks(Task ... tasks) {
+        return submitTasks(null, tasks);
+    }
+
+    /**
+     * Same as submitTasks(tasks) except that onComplete is run as soon as the last of the tasks
+     * finishes, on the thread that ran it. This is how to react to tasks completing without
+     * having to poll Counter.isComplete().
+     */
+    public Counter submitTasks(Runnable onComplete, Task ... tasks) {
         if (!_isRunning) return null;
-        TaskWrapper wrapper = new TaskWrapper(this, tasks);
-        _tasks.add(wrapper);
-        return wrapper.getCounter();
+        Counter counter = new Counter(tasks.length, this);
+        counter._onComplete = onComplete;
+        if (tasks.length == 0) {
+            if (onComplete != null) onComplete.run();
+            return counter;
+        }
+        _submit(counter, tasks);
+        return counter;
+    }
+
+    /**
+     * WARNING: This might return null if the task manager was stopped/was never started.
+     *
+     * Starts every job in the graph which has no predecessors. From then on each job is started
+     * as soon as the last job it depends on finishes (see JobGraph).
+     *
+     * @return counter which completes once every job in the graph has finished
+     */
+    public Counter submitGraph(JobGraph graph) {
+        return submitGraph(null, graph);
+    }
+
+    /**
+     * Same as submitGraph(graph) except that onComplete is run as soon as the last job finishes,
+     * on the thread that finished it
+     */
+    public Counter submitGraph(Runnable onComplete, JobGraph graph) {
+        if (!_isRunning) return null;
+        Counter counter = new Counter(graph.getNumJobs(), this);
+        counter._onComplete = onComplete;
+        if (graph.getNumJobs() == 0) {
+            if (onComplete != null) onComplete.run();
+            return counter;
+        }
+        ArrayList<JobGraph.Job> roots = graph.beginSubmission();
+        for (int i = 0; i < roots.size(); ++i) _startJob(roots.get(i), counter);
+        return counter;
+    }
+
+    // Submits the job's tasks, or finishes it right away if it has none
+    private void _startJob(JobGraph.Job job, Counter graphCounter) {
+        Task[] tasks;
+        try {
+            tasks = job.getTasks();
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            tasks = new Task[0];
+        }
+        if (tasks.length == 0) {
+            _finishJob(job, graphCounter);
+            return;
+        }
+        Counter counter = new Counter(tasks.length, this);
+        counter._onComplete = () -> _finishJob(job, graphCounter);
+        _submit(counter, tasks);
+    }
+
+    private void _finishJob(JobGraph.Job job, Counter graphCounter) {
+        ArrayList<JobGraph.Job> successors = job.getSuccessors();
+        for (int i = 0; i < successors.size(); ++i) {
+            JobGraph.Job successor = successors.get(i);
+            if (successor.onPredecessorFinished()) _startJob(successor, graphCounter);
+        }
+        graphCounter._decrement();
+    }
+
+    private void _submit(Counter counter, Task[] tasks) {
+        Engine engine = Engine.getCurrentEngine();
+        Worker worker = _currentWorker.get();
+        if (worker != null) {
+            // Push in reverse order so that the owning worker pops them in submission order
+            for (int i = tasks.length - 1; i >= 0; --i) worker._deque.addFirst(new TaskEntry(tasks[i], counter, engine));
+        }
+        else {
+            for (Task task : tasks) _submissions.add(new TaskEntry(task, counter, engine));
+        }
+        _wakeIdleWorkers(tasks.length);
+    }
+
+    /**
+     * @return the number of worker threads this task manager was created with
+     */
+    public int getNumThreads() {
+        return _NUM_THREADS;
     }
 
     public void stop() {
@@ -185,50 +338,97 @@ public class TaskManager {
         }
     }
 
-    private TaskWrapper _getTask() {
-        return _tasks.peek();
+    // Wakes up to numTasks parked workers so that newly submitted work does not sit in a queue
+    private void _wakeIdleWorkers(int numTasks) {
+        int numWoken = 0;
+        while (numWoken < numTasks) {
+            Worker idle = _idleWorkers.poll();
+            if (idle == null) return; // Everyone is already busy
+            // Lost the race against the worker taking itself out of the queue - it already found
+            // work, so try the next one instead
+            if (!idle._queuedAsIdle.compareAndSet(true, false)) continue;
+            Thread thread = idle._thread;
+            if (thread != null) LockSupport.unpark(thread);
+            ++numWoken;
+        }
+    }
+
+    private void _parkIdleWorker(Worker worker) {
+        if (worker._queuedAsIdle.compareAndSet(false, true)) _idleWorkers.add(worker);
+        // Re-check after advertising ourselves as idle - a submission that happened before we
+        // were added to the idle queue will not have tried to wake us up
+        if (_hasPendingTasks(worker)) return;
+        LockSupport.parkNanos(this, _MAX_IDLE_PARK_NSEC);
+    }
+
+    // Called by a worker which is still queued as idle but found work on its own (ex: it woke up
+    // from the timed park) so that submissions wake someone who is actually parked
+    private void _leaveIdleQueue(Worker worker) {
+        if (worker._queuedAsIdle.compareAndSet(true, false)) _idleWorkers.remove(worker);
+    }
+
+    private boolean _hasPendingTasks(Worker worker) {
+        if (!worker._deque.isEmpty() || !_submissions.isEmpty()) return true;
+        for (Worker other : _workerList) {
+            if (!other._deque.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    // Own deque first (most recently pushed), then the shared submissions, then steal from the
+    // back of someone else's deque (oldest work, least likely to be contended by the owner)
+    private TaskEntry _getTask(Worker worker) {
+        TaskEntry entry;
+        if (worker != null) {
+            entry = worker._deque.pollFirst();
+            if (entry != null) return entry;
+        }
+        entry = _submissions.poll();
+        if (entry != null) return entry;
+        Worker[] workerList = _workerList;
+        int numWorkers = workerList.length;
+        int start = worker == null ? 0 : worker._index + 1;
+        for (int i = 0; i < numWorkers; ++i) {
+            Worker victim = workerList[(start + i) % numWorkers];
+            if (victim == worker) continue;
+            entry = victim._deque.pollLast();
+            if (entry != null) return entry;
+        }
+        return null;
     }
 
     private void _waitForTasks(Counter counter) {
+        Worker worker = _currentWorker.get();
+        Thread thread = Thread.currentThread();
         while (!counter.isComplete()) {
             if (!_isRunning) return; // Task manager was shut down during the loop
-            _getAndExecuteTask();
+            if (_getAndExecuteTask(worker)) continue;
+            // Nothing left to help with, so the remaining tasks are running elsewhere - park
+            // until the last of them decrements the counter
+            counter._addWaiter(thread);
+            if (!counter.isComplete()) LockSupport.parkNanos(counter, _MAX_PARK_NSEC);
+            counter._removeWaiter(thread);
         }
     }
 
-    private void _getAndExecuteTask() {
-        Counter counter = null;
-        boolean successfullyCompletedTask = false;
+    // Returns true if a task was found and executed
+    private boolean _getAndExecuteTask(Worker worker) {
+        TaskEntry entry = _getTask(worker);
+        if (entry == null) return false;
+        if (worker != null && worker._queuedAsIdle.get()) _leaveIdleQueue(worker);
+        Engine previous = Engine.setCurrentEngine(entry._engine);
         try {
-            TaskWrapper wrapper = _getTask();
-            // If the wrapper was null, sleep for a little
-            if (wrapper == null) {
-                Thread.sleep(1);
-                return;
-            }
-            Task task = wrapper.getTask();
-            counter = wrapper.getCounter();
-            if (task == null) {
-                // The task was null, so try to remove the task wrapper that
-                // resulted in the null task - make sure to check and see if
-                // the one you removed is actually the one you think it is
-                TaskWrapper removed = _tasks.poll();
-                if (wrapper != removed && removed != null) _tasks.add(removed); // Add it back - it was falsely removed
-                Thread.sleep(1);
-            }
-            else {
-                successfullyCompletedTask = true;
-                task.execute();
-                counter._decrement();
-            }
+            entry._task.execute();
         }
         catch (Exception e) {
             e.printStackTrace();
-            // If this is true then we technically executed the task, but it threw
-            // an exception while it was running so we need to mark it completed
-            if (counter != null && successfullyCompletedTask) {
-                counter._decrement();
-            }
         }
+        finally {
+            Engine.setCurrentEngine(previous);
+        }
+        // Even if the task threw an exception it was technically executed, so we still need
+        // to mark it completed
+        entry._counter._decrement();
+        return true;
     }
 }
@@ -0,0 +1,212 @@
+package engine;
+
+import javafx.scene.canvas.GraphicsContext;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A trail is a stationary polyline made up of any number of points. It takes the place of
+ * a chain of separate actors which each mark one point - the whole trail is a single actor
+ * as far as the renderer and the physics simulation are concerned.
+ *
+ * The points are stored packed as [x0, y0, x1, y1, ...]. The trail's location/width/height
+ * are kept equal to the bounding box of the points (grown by half the thickness on every
+ * side) so the broadphase works as usual, and the narrowphase then tests the other actor's
+ * bounds against the individual segments.
+ *
+ * Segment i runs from point i to point i + 1. Whenever an actor touches the trail, the lowest
+ * numbered segment it touched is remembered until the next physics step (see getContactSegment()).
+ *
+ * Points can be added/removed from any thread (ex: from collision callbacks), but the
+ * physics step and renderer may see a change only partway through.
+ *
+ * @author Justin Hall
+ */
+public class Trail extends GraphicsEntity {
+    private double[] _points = new double[16];
+    // Written after the point data so the physics step never reads a point that isn't there yet
+    private volatile int _numPoints = 0;
+    private double _thickness;
+    private boolean _removeWhenEmpty = false;
+    private final ConcurrentHashMap<Actor, Integer> _contacts = new ConcurrentHashMap<>();
+
+    /**
+     * @param thickness width of the line - actors within half of this of a segment are touching it
+     * @param depth depth, which determines which objects are in front of or behind it
+     */
+    public Trail(double thickness, double depth) {
+        _thickness = thickness;
+        setLocationXYDepth(0, 0, depth);
+        setWidthHeight(0, 0);
+        setConstrainXYMovement(true, true);
+    }
+
+    public synchronized void addPoint(double x, double y) {
+        int numPoints = _numPoints;
+        if (numPoints * 2 == _points.length) _points = Arrays.copyOf(_points, _points.length * 2);
+        _points[numPoints * 2] = x;
+        _points[numPoints * 2 + 1] = y;
+        _numPoints = numPoints + 1;
+        _updateBounds();
+    }
+
+    /**
+     * Drops every point from numPoints onwards. If the trail was told to remove itself when
+     * empty and no points are left, it is removed from the world.
+     */
+    public synchronized void truncate(int numPoints) {
+        if (numPoints < 0) numPoints = 0;
+        if (numPoints >= _numPoints) return;
+        _numPoints = numPoints;
+        _updateBounds();
+        if (numPoints == 0 && _removeWhenEmpty) removeFromWorld();
+    }
+
+    public synchronized void clear() {
+        _numPoints = 0;
+        _contacts.clear();
+        _updateBounds();
+    }
+
+    /**
+     * If true the trail removes itself from the world once its last point is truncated away. Use
+     * this once nothing is going to add new points.
+     */
+    public synchronized void setRemoveWhenEmpty(boolean value) {
+        _removeWhenEmpty = value;
+        if (value && _numPoints == 0) removeFromWorld();
+    }
+
+    public int getNumPoints() {
+        return _numPoints;
+    }
+
+    public double getPointX(int index) {
+        return _points[index * 2];
+    }
+
+    public double getPointY(int index) {
+        return _points[index * 2 + 1];
+    }
+
+    public double getThickness() {
+        return _thickness;
+    }
+
+    /**
+     * @return lowest segment the actor touched during the last physics step or -1 if it
+     *         did not touch the trail. A trail with a single point has one segment (0) which
+     *         starts and ends at that point.
+     */
+    public int getContactSegment(Actor actor) {
+        Integer segment = _contacts.get(actor);
+        return segment == null ? -1 : segment;
+    }
+
+    // Package private - called by the physics simulation at the start of each collision pass
+    void clearContacts() {
+        _contacts.clear();
+    }
+
+    /**
+     * Package private - narrowphase test against the actor's bounds. Safe to call from
+     * multiple threads at once.
+     * @return true if any segment touches the actor
+     */
+    boolean testContact(Actor actor) {
+        // Count first - the volatile read guarantees the array read after it holds that many points
+        int numPoints = _numPoints;
+        double[] points = _points;
+        if (numPoints == 0) return false;
+        double radius = _thickness / 2;
+        double minX = actor.getLocationX() - radius;
+        double minY = actor.getLocationY() - radius;
+        double maxX = actor.getLocationX() + actor.getWidth() + radius;
+        double maxY = actor.getLocationY() + actor.getHeight() + radius;
+        int numSegments = numPoints == 1 ? 1 : numPoints - 1;
+        for (int i = 0; i < numSegments; ++i) {
+            int end = numPoints == 1 ? 0 : i + 1;
+            if (_segmentTouchesBox(points[i * 2], points[i * 2 + 1], points[end * 2], points[end * 2 + 1],
+                    minX, minY, maxX, maxY)) {
+                _contacts.merge(actor, i, Math::min);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void render(GraphicsContext gc, double x, double y, double width, double height) {
+        int numPoints = _numPoints;
+        if (numPoints < 2) return;
+        // Work out how the renderer scaled the bounding box (as of its last sync point) and do the
+        // same to each point
+        double scale = getRenderWidth() > 0 ? width / getRenderWidth() : height / getRenderHeight();
+        double originX = getRenderX();
+        double originY = getRenderY();
+        gc.setStroke(getColor());
+        gc.setLineWidth(_thickness * scale);
+        gc.beginPath();
+        gc.moveTo(x + (_points[0] - originX) * scale, y + (_points[1] - originY) * scale);
+        for (int i = 1; i < numPoints; ++i) {
+            gc.lineTo(x + (_points[i * 2] - originX) * scale, y + (_points[i * 2 + 1] - originY) * scale);
+        }
+        gc.stroke();
+    }
+
+    @Override
+    public void onActorOverlapped(Actor actor, HashSet<Actor> actors) {
+    }
+
+    private void _updateBounds() {
+        int numPoints = _numPoints;
+        double depth = getDepth();
+        if (numPoints == 0) {
+            setLocationXYDepth(0, 0, depth);
+            setWidthHeight(0, 0);
+            return;
+        }
+        double minX = _points[0];
+        double minY = _points[1];
+        double maxX = minX;
+        double maxY = minY;
+        for (int i = 1; i < numPoints; ++i) {
+            double px = _points[i * 2];
+            double py = _points[i * 2 + 1];
+            if (px < minX) minX = px;
+            else if (px > maxX) maxX = px;
+            if (py < minY) minY = py;
+            else if (py > maxY) maxY = py;
+        }
+        double radius = _thickness / 2;
+        setLocationXYDepth(minX - radius, minY - radius, depth);
+        setWidthHeight(maxX - minX + _thickness, maxY - minY + _thickness);
+    }
+
+    // Clips the segment against the box one slab at a time (Liang-Barsky)
+    private static boolean _segmentTouchesBox(double x0, double y0, double x1, double y1,
+                                              double minX, double minY, double maxX, double maxY) {
+        double dx = x1 - x0;
+        double dy = y1 - y0;
+        // Parallel to a slab and outside of it
+        if (dx == 0 && (x0 < minX || x0 > maxX)) return false;
+        if (dy == 0 && (y0 < minY || y0 > maxY)) return false;
+        double enter = 0.0;
+        double exit = 1.0;
+        if (dx != 0) {
+            double t0 = (minX - x0) / dx;
+            double t1 = (maxX - x0) / dx;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        if (dy != 0) {
+            double t0 = (minY - y0) / dy;
+            double t1 = (maxY - y0) / dy;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        return enter <= exit;
+    }
+}
@@ -168,7 +168,7 @@ public class Window implements MessageHandler, PulseEntity {
         Engine.getMessagePump().signalInterest(Constants.REMOVE_ALL_UI_ELEMENTS, this);
         if (stage == null) return null; // All the rest requires a graphics context
         // We want to update frequently to check for resizes, so tell the system to add us as a pulse entity
-        Engine.getMessagePump().sendMessage(new Message(Constants.ADD_PULSE_ENTITY, this));
+        Engine.getMessagePump().sendMessage(Constants.ADD_PULSE_ENTITY, this);
         stage.setFullScreen(_isFullscreen);
         stage.setResizable(_resizeable);
         if (_isFullscreen)
@@ -0,0 +1,148 @@
+package engine;
+
+import java.util.Collection;
+
+/**
+ * Collects the spawns/despawns (graphics entities added to or removed from the world and
+ * pulse entities registered/deregistered) made during a frame so that the renderer, physics
+ * simulation and engine can each apply all of them in one pass instead of handling a
+ * separate message for every single one.
+ *
+ * Recording a command sends a message carrying a new batch, and every command recorded after
+ * that is appended to the same batch for as long as that message is still the last one waiting
+ * to be dispatched. Once anything else is sent (or the pump starts dispatching) the next command
+ * starts a new batch, so commands are applied in exactly the same order relative to other
+ * messages as they would have been if each of them had been sent separately.
+ *
+ * GraphicsEntity.addToWorld()/removeFromWorld() already go through here. Use spawnAll()
+ * when adding a large number of entities at once (ex: setting up the world).
+ *
+ * This is thread safe. Commands recorded during a parallel pulse are sent as regular
+ * messages instead so that they keep the order a serial pulse would have given them.
+ *
+ * @author Justin Hall
+ */
+public class WorldCommandBuffer {
+    // Package private - operations stored in a batch
+    static final byte ADD_GRAPHICS_ENTITY = 0;
+    static final byte REMOVE_GRAPHICS_ENTITY = 1;
+    static final byte ADD_PULSE_ENTITY = 2;
+    static final byte REMOVE_PULSE_ENTITY = 3;
+
+    /**
+     * Package private - list of (operation, target) pairs which is handed to everyone
+     * interested in Engine.APPLY_WORLD_COMMANDS. It is no longer modified once the pump
+     * has started dispatching the message that carries it.
+     */
+    static final class Batch {
+        private byte[] _ops;
+        private Object[] _targets;
+        private int _size = 0;
+
+        Batch(int capacity) {
+            _ops = new byte[capacity];
+            _targets = new Object[capacity];
+        }
+
+        int size() {
+            return _size;
+        }
+
+        byte getOperation(int index) {
+            return _ops[index];
+        }
+
+        Object getTarget(int index) {
+            return _targets[index];
+        }
+
+        private void _add(byte op, Object target) {
+            if (_size == _ops.length) _reserve(_size * 2);
+            _ops[_size] = op;
+            _targets[_size] = target;
+            ++_size;
+        }
+
+        private void _reserve(int capacity) {
+            if (capacity <= _ops.length) return;
+            byte[] ops = new byte[capacity];
+            Object[] targets = new Object[capacity];
+            System.arraycopy(_ops, 0, ops, 0, _size);
+            System.arraycopy(_targets, 0, targets, 0, _size);
+            _ops = ops;
+            _targets = targets;
+        }
+    }
+
+    private static final int _INITIAL_BATCH_SIZE = 64;
+    // Everything below is guarded by the message pump's lock so that a batch can never be
+    // appended to after the pump has swapped it out for dispatch
+    private Batch _current = null;
+    private long _currentSequence = -1;
+
+    public void spawn(GraphicsEntity entity) {
+        _record(ADD_GRAPHICS_ENTITY, Constants.ADD_GRAPHICS_ENTITY, entity);
+    }
+
+    public void despawn(GraphicsEntity entity) {
+        _record(REMOVE_GRAPHICS_ENTITY, Constants.REMOVE_GRAPHICS_ENTITY, entity);
+    }
+
+    public void addPulseEntity(PulseEntity entity) {
+        _record(ADD_PULSE_ENTITY, Constants.ADD_PULSE_ENTITY, entity);
+    }
+
+    public void removePulseEntity(PulseEntity entity) {
+        _record(REMOVE_PULSE_ENTITY, Constants.REMOVE_PULSE_ENTITY, entity);
+    }
+
+    /**
+     * Calls addToWorld() on every entity with room for all of their commands reserved
+     * up front. Entities which also register themselves as pulse entities in addToWorld()
+     * should do so through addPulseEntity().
+     */
+    public void spawnAll(Collection<? extends GraphicsEntity> entities) {
+        reserve(entities.size() * 2);
+        for (GraphicsEntity entity : entities) entity.addToWorld();
+    }
+
+    /**
+     * Same as calling addPulseEntity() for each entity
+     */
+    public void addPulseEntities(Collection<? extends PulseEntity> entities) {
+        reserve(entities.size());
+        for (PulseEntity entity : entities) addPulseEntity(entity);
+    }
+
+    /**
+     * Makes sure the current batch has room for at least this many more commands
+     */
+    public void reserve(int numCommands) {
+        MessagePump pump = Engine.getMessagePump();
+        synchronized (pump) {
+            Batch batch = _currentBatch(pump, numCommands);
+            batch._reserve(batch._size + numCommands);
+        }
+    }
+
+    private void _record(byte op, String message, Object target) {
+        MessagePump pump = Engine.getMessagePump();
+        if (pump.isDeferring()) {
+            pump.sendMessage(message, target);
+            return;
+        }
+        synchronized (pump) {
+            _currentBatch(pump, _INITIAL_BATCH_SIZE)._add(op, target);
+        }
+    }
+
+    // Must hold the pump's lock
+    private Batch _currentBatch(MessagePump pump, int capacity) {
+        if (_current == null || _currentSequence != pump.getSequence()) {
+            _current = new Batch(Math.max(capacity, _INITIAL_BATCH_SIZE));
+            pump.sendMessage(Engine.APPLY_WORLD_COMMANDS, _current);
+            _currentSequence = pump.getSequence();
+        }
+        return _current;
+    }
+}